@@ -41,8 +41,6 @@ import java.text.SimpleDateFormat
 import java.util.Date
 import java.util.Locale
 import android.bluetooth.le.ScanResult
-import android.os.Handler
-import android.os.Looper
 
 
 //common data type
@@ -356,10 +354,9 @@ class MainActivity : AppCompatActivity() {
                     showMessage("Please enter at least a valid WiFi or server configuration")
                     return
                 }
-                // 如果两者都需要配置，先配置WiFi，然后通过回调处理服务器配置
+                // 如果两者都需要配置，在一次连接中完成WiFi和服务器配置
                 if (hasValidWifi && hasValidServer) {
-                    // 只启动WiFi配置，服务器配置将在WiFi成功后的回调中启动
-                    configureRadarWiFi()
+                    provisionRadar()
                 }
                 // 只配置WiFi
                 else if (hasValidWifi) {
@@ -424,12 +421,6 @@ class MainActivity : AppCompatActivity() {
                 handleConfigResult(true)
                 // 显示弹窗提示
                 showMessage("WiFi configuration successful")
-                // 检查是否需要配置服务器，增加时延到3秒
-                if (getCurrentServerConfig() != null) {
-                    Handler(Looper.getMainLooper()).postDelayed({
-                        configureRadarServer()
-                    }, 3000) // 3秒延时
-                }
             }else{
                 // 更新状态输出
                 //tvStatusOutput.text = "${tvStatusOutput.text}\nWiFi configuration failed"
@@ -441,6 +432,56 @@ class MainActivity : AppCompatActivity() {
         }
     }
 
+    /**
+     * A厂(Radar)WiFi和服务器一次配置，只连接和协商一次
+     */
+    @SuppressLint("MissingPermission", "SetTextI18x")
+    private fun provisionRadar() {
+        val device = selectedDevice ?: return
+        val wifiConfig = getCurrentWifiConfig() ?: return
+        val serverConfig = getCurrentServerConfig() ?: return
+        val radarManager = RadarBleManager.getInstance(this)
+
+        // 显示进度对话框
+        showMessage("Connecting to device...")
+        tvStatusOutput.text = "Starting wifi and server configuration..."
+
+        radarManager.provision(device, wifiConfig, serverConfig) { result ->
+            val wifiConfigured = result["wifiConfigured"]?.toBoolean() ?: false
+            val success = result["success"]?.toBoolean() ?: false
+
+            // 更新状态输出
+            var statusText = tvStatusOutput.text.toString()
+            statusText = if (wifiConfigured) {
+                configScan.saveWifiConfig(wifiConfig)
+                getString(R.string.status_text_with_wifi_success, statusText)
+            } else {
+                getString(R.string.status_text_with_wifi_failed, statusText)
+            }
+            if (wifiConfigured) {
+                statusText = if (success) {
+                    getString(R.string.status_text_with_server_success, statusText)
+                } else {
+                    getString(R.string.status_text_with_server_failed, statusText)
+                }
+            }
+            tvStatusOutput.text = statusText
+
+            if (success) {
+                configScan.saveServerConfig(serverConfig)
+                // 处理结果
+                handleConfigResult(true)
+                // 显示弹窗提示
+                showMessage("WiFi and server configuration successful")
+            } else if (wifiConfigured) {
+                handleConfigResult(true)
+                showMessage("Server configuration failed")
+            } else {
+                showMessage("WiFi configuration failed")
+            }
+        }
+    }
+
     /**
      * A厂(Radar)服务器配置实现
      */
@@ -624,7 +665,7 @@ class MainActivity : AppCompatActivity() {
 
         showMessage("Querying device status...")
 
-        RadarBleManager.getInstance(this).queryDeviceStatus(deviceInfo) { status ->
+        RadarBleManager.getInstance(this).queryDeviceStatus(deviceInfo, pipelined = true) { status ->
             runOnUiThread {
                 if (status.containsKey("error")) {
                     info.append("\nStatus Query Error: ${status["error"]}")
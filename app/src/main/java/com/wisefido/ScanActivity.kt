@@ -143,6 +143,8 @@ class ScanActivity : AppCompatActivity() {
 
     // 设备列表
     private val deviceList = mutableListOf<DeviceInfo>()
+    // MAC -> deviceList 中的位置，用于去重和原位更新
+    private val deviceIndex = HashMap<String, Int>()
 
     // 当前扫描的厂家模块
     private var currentScanModule: Productor = Productor.radarQL
@@ -204,9 +206,8 @@ class ScanActivity : AppCompatActivity() {
                         )
 
                         // 添加到设备列表
-                        if (!deviceList.any { it.macAddress == device.macAddress }) {
-                            deviceList.add(device)
-                            rvDevices.adapter?.notifyItemInserted(deviceList.size - 1)
+                        if (!deviceIndex.containsKey(device.macAddress)) {
+                            addOrUpdateDevice(device)
                         }
                     }
                 } else {
@@ -352,6 +353,7 @@ class ScanActivity : AppCompatActivity() {
         if (checkSelfPermission(Manifest.permission.BLUETOOTH_SCAN) == PackageManager.PERMISSION_GRANTED) {
             // 开始新的扫描时才清空列表
             deviceList.clear()
+            deviceIndex.clear()
             rvDevices.adapter?.notifyDataSetChanged()
 
             // 更新状态为扫描中
@@ -370,6 +372,21 @@ class ScanActivity : AppCompatActivity() {
         }
     }
 
+    /**
+     * 按 MAC 添加设备，已存在时原位更新
+     */
+    private fun addOrUpdateDevice(device: DeviceInfo) {
+        val position = deviceIndex[device.macAddress]
+        if (position == null) {
+            deviceIndex[device.macAddress] = deviceList.size
+            deviceList.add(device)
+            rvDevices.adapter?.notifyItemInserted(deviceList.size - 1)
+        } else if (deviceList[position] != device) {
+            deviceList[position] = device
+            rvDevices.adapter?.notifyItemChanged(position)
+        }
+    }
+
     /**
      * 启动 Radar 扫描
      */
@@ -379,15 +396,10 @@ class ScanActivity : AppCompatActivity() {
 
         Log.d(TAG, "Starting radar scan with filter: $currentFilterPrefix, type: $currentFilterType")
 
-        radarManager.setScanCallback { deviceInfo ->
-            //Log.d(TAG, "Received scan result: ${result.device.name ?: "null"}, ${result.device.address}")
-
-            runOnUiThread {
-                if (!deviceList.any { it.macAddress == deviceInfo.macAddress }) {
-                    deviceList.add(deviceInfo)
-                    rvDevices.adapter?.notifyItemInserted(deviceList.size - 1)
-                }
-            }
+        // 批量回调已在主线程，每帧一次；列表显示平滑后的 RSSI
+        radarManager.setScanBatchCallback { batch ->
+            batch.added.forEach { addOrUpdateDevice(it.device.copy(rssi = it.smoothedRssi)) }
+            batch.updated.forEach { addOrUpdateDevice(it.device.copy(rssi = it.smoothedRssi)) }
         }
 
         radarManager.startScan(currentFilterPrefix, currentFilterType)
@@ -422,9 +434,8 @@ class ScanActivity : AppCompatActivity() {
                 }
 
                 // 添加到设备列表
-                if (!deviceList.any { it.macAddress == deviceInfo.macAddress }) {
-                    deviceList.add(deviceInfo)
-                    rvDevices.adapter?.notifyItemInserted(deviceList.size - 1)
+                if (!deviceIndex.containsKey(deviceInfo.macAddress)) {
+                    addOrUpdateDevice(deviceInfo)
                 }
             }
         }
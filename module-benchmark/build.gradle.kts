@@ -0,0 +1,39 @@
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+// 只在 JVM 上运行的 JMH 基准测试，测量 BluFi 协议在手机外的 CPU 开销
+// 运行：./gradlew :module-benchmark:jmh
+// BlufiDeviceSimulator 和 BlufiLoopbackTransport 让完整的 BlufiClient 在 JVM 上和模拟设备通信
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+sourceSets {
+    main {
+        java {
+            // module-radar 的 Java 协议代码和 BlufiClient 本身，Android 类由本模块 android/ 下的 shim 提供
+            srcDir("../module-radar/src/main/java")
+            include("android/**", "com/espressif/espblufi/**")
+        }
+    }
+}
+
+// 模拟设备的负载测试：./gradlew :module-benchmark:loadTest --args="devices=200 concurrency=50 latency=15"
+tasks.register<JavaExec>("loadTest") {
+    group = "benchmark"
+    description = "Provisions simulated BluFi devices and prints the throughput and latency percentiles"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.espressif.espblufi.BlufiLoadTest")
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh.get())
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    resultFormat.set("JSON")
+}
@@ -0,0 +1,76 @@
+package com.espressif.espblufi;
+
+import com.espressif.espblufi.security.BlufiAES;
+import com.espressif.espblufi.security.BlufiCryptoSession;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AES/CFB of one frame payload: a BlufiAES per frame as the client used to do,
+ * against the in-place BlufiCryptoSession that keeps its ciphers
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BlufiAESBenchmark {
+    private static final String AES_TRANSFORMATION = "AES/CFB/NoPadding";
+
+    @Param({"16", "128", "255"})
+    public int length;
+
+    private byte[] mKey;
+    private byte[] mData;
+    private byte[] mBuffer;
+    private BlufiCryptoSession mCryptoSession;
+    private int mSequence;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        Random random = new Random(length);
+        mKey = new byte[16];
+        random.nextBytes(mKey);
+        mData = new byte[length];
+        random.nextBytes(mData);
+        mBuffer = mData.clone();
+        mCryptoSession = new BlufiCryptoSession(mKey, AES_TRANSFORMATION);
+    }
+
+    private static byte[] generateAESIV(int sequence) {
+        byte[] iv = new byte[16];
+        iv[0] = (byte) sequence;
+        return iv;
+    }
+
+    @Benchmark
+    public byte[] encryptPerFrameAES() {
+        int sequence = mSequence++ & 0xff;
+        return new BlufiAES(mKey, AES_TRANSFORMATION, generateAESIV(sequence)).encrypt(mData);
+    }
+
+    @Benchmark
+    public byte[] decryptPerFrameAES() {
+        int sequence = mSequence++ & 0xff;
+        return new BlufiAES(mKey, AES_TRANSFORMATION, generateAESIV(sequence)).decrypt(mData);
+    }
+
+    @Benchmark
+    public boolean encryptSession() {
+        return mCryptoSession.encrypt(mSequence++ & 0xff, mBuffer, 0, length);
+    }
+
+    @Benchmark
+    public boolean decryptSession() {
+        return mCryptoSession.decrypt(mSequence++ & 0xff, mBuffer, 0, length);
+    }
+}
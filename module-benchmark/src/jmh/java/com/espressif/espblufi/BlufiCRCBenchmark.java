@@ -0,0 +1,54 @@
+package com.espressif.espblufi;
+
+import com.espressif.espblufi.security.BlufiCRC;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CRC16 of one payload: the old byte table against the slice-by-8 tables
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BlufiCRCBenchmark {
+    @Param({"16", "64", "256", "1024", "4096"})
+    public int length;
+
+    private byte[] mData;
+    private ByteBuffer mDirectBuffer;
+
+    @Setup
+    public void setup() {
+        mData = new byte[length];
+        new Random(length).nextBytes(mData);
+        mDirectBuffer = ByteBuffer.allocateDirect(length);
+        mDirectBuffer.put(mData);
+    }
+
+    @Benchmark
+    public int byteTable() {
+        return LegacyBlufiCRC.calcCRC(0, mData, 0, length);
+    }
+
+    @Benchmark
+    public int sliceBy8() {
+        return BlufiCRC.calcCRC(0, mData, 0, length);
+    }
+
+    @Benchmark
+    public int directBuffer() {
+        mDirectBuffer.clear();
+        return BlufiCRC.calcCRC(0, mDirectBuffer);
+    }
+}
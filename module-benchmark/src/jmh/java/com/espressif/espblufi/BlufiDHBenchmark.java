@@ -0,0 +1,53 @@
+package com.espressif.espblufi;
+
+import com.espressif.espblufi.security.BlufiDH;
+import com.espressif.espblufi.security.BlufiMD5;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The DH work of a security negotiation: the key pair, then the shared secret and its MD5
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BlufiDHBenchmark {
+    // Same parameters as BlufiClientImpl
+    private static final BigInteger DH_P = new BigInteger(
+            "cf5cf5c38419a724957ff5dd323b9c45c3cdd261eb740f69aa94b8bb1a5c9640" +
+            "9153bd76b24222d03274e4725a5406092e9e82e9135c643cae98132b0d95f7d6" +
+            "5347c68afc1e677da90e51bbab5f5cf429c291b4ba39c6b2dc5e8c7231e46aa7" +
+            "728e87664532cdf547be20c9a3fa8342be6e34371a27c06f7dc0edddd2f86373", 16);
+    private static final BigInteger DH_G = new BigInteger("2");
+    private static final int DH_LENGTH = 1024;
+
+    private BlufiDH mClientDH;
+    private BigInteger mDevicePublicKey;
+
+    @Setup
+    public void setup() {
+        mClientDH = new BlufiDH(DH_P, DH_G, DH_LENGTH);
+        // The device side of the exchange
+        mDevicePublicKey = new BlufiDH(DH_P, DH_G, DH_LENGTH).getPublicKey().getY();
+    }
+
+    @Benchmark
+    public BlufiDH keyPair() {
+        return new BlufiDH(DH_P, DH_G, DH_LENGTH);
+    }
+
+    @Benchmark
+    public byte[] agreement() {
+        mClientDH.generateSecretKey(mDevicePublicKey);
+        return BlufiMD5.getMD5Bytes(mClientDH.getSecretKey());
+    }
+}
@@ -0,0 +1,71 @@
+package com.espressif.espblufi;
+
+import com.espressif.espblufi.params.BlufiParameter;
+import com.espressif.espblufi.security.BlufiCryptoSession;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One custom data frame through the send path (getPostBytes) and the notify path (parseNotification),
+ * with the checksum and optionally the encryption of a negotiated session
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BlufiFrameBenchmark {
+    private static final String AES_TRANSFORMATION = "AES/CFB/NoPadding";
+    private static final int TYPE = (BlufiParameter.Type.Data.SUBTYPE_CUSTOM_DATA << 2)
+            | BlufiParameter.Type.Data.PACKAGE_VALUE;
+
+    @Param({"16", "128", "255"})
+    public int length;
+
+    @Param({"false", "true"})
+    public boolean encrypt;
+
+    private final BlufiFrameEncoder mEncoder = new BlufiFrameEncoder();
+    private final BlufiFrameDecoder mDecoder = new BlufiFrameDecoder();
+    private final BlufiBufferPool mBufferPool = new BlufiBufferPool();
+    private BlufiCryptoSession mCryptoSession;
+    private byte[] mData;
+    private byte[] mFrame;
+    private int mSequence;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        Random random = new Random(length);
+        byte[] key = new byte[16];
+        random.nextBytes(key);
+        mCryptoSession = new BlufiCryptoSession(key, AES_TRANSFORMATION);
+        mEncoder.setCryptoSession(mCryptoSession);
+
+        mData = new byte[length];
+        random.nextBytes(mData);
+        mFrame = mEncoder.encode(TYPE, encrypt, true, false, 0, mData, 0, length, -1).clone();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return mEncoder.encode(TYPE, encrypt, true, false, mSequence++ & 0xff, mData, 0, length, -1);
+    }
+
+    @Benchmark
+    public int decode() {
+        BlufiNotifyData notification = new BlufiNotifyData(mBufferPool);
+        int result = mDecoder.decode(mFrame, mCryptoSession, notification);
+        int dataLength = notification.getDataArray().length;
+        notification.recycle();
+        return result == BlufiFrameDecoder.RESULT_COMPLETE ? dataLength : result;
+    }
+}
@@ -0,0 +1,78 @@
+package com.espressif.espblufi;
+
+import com.espressif.espblufi.params.BlufiParameter;
+import com.espressif.espblufi.response.BlufiScanResult;
+import com.espressif.espblufi.response.BlufiStatusResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the Wi-Fi status and the Wi-Fi scan list replied by the device
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BlufiResponseParserBenchmark {
+    @Param({"10", "50"})
+    public int apCount;
+
+    private byte[] mWifiState;
+    private byte[] mWifiScanList;
+    private final BlufiTlvReader mReader = new BlufiTlvReader();
+
+    @Setup
+    public void setup() {
+        ByteArrayOutputStream state = new ByteArrayOutputStream();
+        state.write(1); // STA
+        state.write(0); // connected
+        state.write(0);
+        writeField(state, BlufiParameter.Type.Data.SUBTYPE_STA_WIFI_BSSID,
+                new byte[]{0x24, 0x0a, (byte) 0xc4, 0x12, 0x34, 0x56});
+        writeField(state, BlufiParameter.Type.Data.SUBTYPE_STA_WIFI_SSID,
+                "RadarLab-5G".getBytes(StandardCharsets.UTF_8));
+        writeField(state, BlufiParameter.Type.Data.SUBTYPE_WIFI_STA_CONN_RSSI, new byte[]{-52});
+        mWifiState = state.toByteArray();
+
+        ByteArrayOutputStream scan = new ByteArrayOutputStream();
+        for (int i = 0; i < apCount; i++) {
+            byte[] ssid = ("AccessPoint-" + i).getBytes(StandardCharsets.UTF_8);
+            scan.write(ssid.length + 1);
+            scan.write(-40 - i % 50);
+            scan.write(ssid, 0, ssid.length);
+        }
+        mWifiScanList = scan.toByteArray();
+    }
+
+    private static void writeField(ByteArrayOutputStream os, int type, byte[] value) {
+        os.write(type);
+        os.write(value.length);
+        os.write(value, 0, value.length);
+    }
+
+    @Benchmark
+    public BlufiStatusResponse parseWifiState() throws BlufiParseException {
+        BlufiStatusResponse response = new BlufiStatusResponse();
+        BlufiResponseParser.parseWifiState(mReader.reset(mWifiState, 0, mWifiState.length), response);
+        return response;
+    }
+
+    @Benchmark
+    public List<BlufiScanResult> parseWifiScanList() throws BlufiParseException {
+        ArrayList<BlufiScanResult> results = new ArrayList<>();
+        BlufiResponseParser.parseWifiScanList(mReader.reset(mWifiScanList, 0, mWifiScanList.length), results);
+        return results;
+    }
+}
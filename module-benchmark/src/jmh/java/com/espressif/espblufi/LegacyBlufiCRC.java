@@ -0,0 +1,30 @@
+package com.espressif.espblufi;
+
+/**
+ * The byte-at-a-time CRC16 BlufiCRC used before the slice tables, kept as the baseline
+ */
+final class LegacyBlufiCRC {
+    private static final int[] CRC_TB = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC_TB[i] = crc & 0xffff;
+        }
+    }
+
+    private LegacyBlufiCRC() {
+    }
+
+    static int calcCRC(int crc, byte[] pByte, int offset, int length) {
+        crc = (~crc) & 0xffff;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            crc = CRC_TB[(crc >> 8) ^ (pByte[i] & 0xff)] ^ (crc << 8);
+            crc &= 0xffff;
+        }
+        return (~crc) & 0xffff;
+    }
+}
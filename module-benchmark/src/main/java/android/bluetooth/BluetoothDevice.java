@@ -0,0 +1,27 @@
+package android.bluetooth;
+
+import android.content.Context;
+
+/**
+ * Stands in for android.bluetooth.BluetoothDevice on the JVM, there is no radio to connect with
+ */
+public class BluetoothDevice {
+    public static final int TRANSPORT_LE = 2;
+
+    public BluetoothGatt connectGatt(Context context, boolean autoConnect, BluetoothGattCallback callback) {
+        throw new UnsupportedOperationException("No Bluetooth on the JVM");
+    }
+
+    public BluetoothGatt connectGatt(Context context, boolean autoConnect, BluetoothGattCallback callback,
+                                     int transport) {
+        throw new UnsupportedOperationException("No Bluetooth on the JVM");
+    }
+
+    public String getAddress() {
+        return null;
+    }
+
+    public String getName() {
+        return null;
+    }
+}
@@ -0,0 +1,49 @@
+package android.bluetooth;
+
+import java.util.UUID;
+
+/**
+ * Stands in for android.bluetooth.BluetoothGatt on the JVM, only the members the client refers to
+ */
+public class BluetoothGatt implements BluetoothProfile {
+    public static final int GATT_SUCCESS = 0;
+    public static final int CONNECTION_PRIORITY_HIGH = 1;
+
+    public boolean requestConnectionPriority(int connectionPriority) {
+        return false;
+    }
+
+    public boolean discoverServices() {
+        return false;
+    }
+
+    public BluetoothGattService getService(UUID uuid) {
+        return null;
+    }
+
+    public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable) {
+        return false;
+    }
+
+    public boolean requestMtu(int mtu) {
+        return false;
+    }
+
+    public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+        return false;
+    }
+
+    public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+        return false;
+    }
+
+    public BluetoothDevice getDevice() {
+        return null;
+    }
+
+    public void disconnect() {
+    }
+
+    public void close() {
+    }
+}
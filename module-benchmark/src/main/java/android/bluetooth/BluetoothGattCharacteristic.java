@@ -0,0 +1,31 @@
+package android.bluetooth;
+
+import java.util.UUID;
+
+/**
+ * Stands in for android.bluetooth.BluetoothGattCharacteristic on the JVM
+ */
+public class BluetoothGattCharacteristic {
+    private byte[] mValue;
+
+    public UUID getUuid() {
+        return null;
+    }
+
+    public BluetoothGattService getService() {
+        return null;
+    }
+
+    public BluetoothGattDescriptor getDescriptor(UUID uuid) {
+        return null;
+    }
+
+    public boolean setValue(byte[] value) {
+        mValue = value;
+        return true;
+    }
+
+    public byte[] getValue() {
+        return mValue;
+    }
+}
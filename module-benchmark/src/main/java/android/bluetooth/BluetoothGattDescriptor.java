@@ -0,0 +1,29 @@
+package android.bluetooth;
+
+import java.util.UUID;
+
+/**
+ * Stands in for android.bluetooth.BluetoothGattDescriptor on the JVM
+ */
+public class BluetoothGattDescriptor {
+    public static final byte[] ENABLE_NOTIFICATION_VALUE = {0x01, 0x00};
+
+    private byte[] mValue;
+
+    public UUID getUuid() {
+        return null;
+    }
+
+    public BluetoothGattCharacteristic getCharacteristic() {
+        return null;
+    }
+
+    public boolean setValue(byte[] value) {
+        mValue = value;
+        return true;
+    }
+
+    public byte[] getValue() {
+        return mValue;
+    }
+}
@@ -0,0 +1,12 @@
+package android.bluetooth;
+
+import java.util.UUID;
+
+/**
+ * Stands in for android.bluetooth.BluetoothGattService on the JVM
+ */
+public class BluetoothGattService {
+    public BluetoothGattCharacteristic getCharacteristic(UUID uuid) {
+        return null;
+    }
+}
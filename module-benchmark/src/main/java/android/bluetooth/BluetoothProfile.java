@@ -0,0 +1,11 @@
+package android.bluetooth;
+
+/**
+ * Stands in for android.bluetooth.BluetoothProfile on the JVM
+ */
+public interface BluetoothProfile {
+    int STATE_DISCONNECTED = 0;
+    int STATE_CONNECTING = 1;
+    int STATE_CONNECTED = 2;
+    int STATE_DISCONNECTING = 3;
+}
@@ -0,0 +1,7 @@
+package android.content;
+
+/**
+ * Stands in for android.content.Context on the JVM, the simulated clients have no context
+ */
+public class Context {
+}
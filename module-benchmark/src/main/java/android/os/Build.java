@@ -0,0 +1,19 @@
+package android.os;
+
+/**
+ * Stands in for android.os.Build on the JVM. SDK_INT is 0, so the version specific
+ * workarounds of the client stay off.
+ */
+public class Build {
+    public static class VERSION {
+        public static final int SDK_INT = 0;
+    }
+
+    public static class VERSION_CODES {
+        public static final int LOLLIPOP = 21;
+        public static final int M = 23;
+        public static final int O = 26;
+        public static final int TIRAMISU = 33;
+        public static final int UPSIDE_DOWN_CAKE = 34;
+    }
+}
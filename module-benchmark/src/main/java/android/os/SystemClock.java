@@ -0,0 +1,17 @@
+package android.os;
+
+/**
+ * Stands in for android.os.SystemClock on the JVM, both clocks are the monotonic nano time
+ */
+public final class SystemClock {
+    private SystemClock() {
+    }
+
+    public static long elapsedRealtime() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1000000L;
+    }
+}
@@ -0,0 +1,10 @@
+package android.text;
+
+/**
+ * Stands in for android.text.TextUtils on the JVM
+ */
+public class TextUtils {
+    public static boolean isEmpty(CharSequence str) {
+        return str == null || str.length() == 0;
+    }
+}
@@ -0,0 +1,59 @@
+package android.util;
+
+/**
+ * Stands in for android.util.Log on the JVM. Messages are dropped so that logging does not
+ * dominate the measurements, set the system property blufi.log to print them.
+ */
+public final class Log {
+    private static final boolean PRINT = System.getProperty("blufi.log") != null;
+
+    private Log() {
+    }
+
+    public static int v(String tag, String msg) {
+        return print("V", tag, msg, null);
+    }
+
+    public static int d(String tag, String msg) {
+        return print("D", tag, msg, null);
+    }
+
+    public static int d(String tag, String msg, Throwable tr) {
+        return print("D", tag, msg, tr);
+    }
+
+    public static int i(String tag, String msg) {
+        return print("I", tag, msg, null);
+    }
+
+    public static int w(String tag, String msg) {
+        return print("W", tag, msg, null);
+    }
+
+    public static int w(String tag, Throwable tr) {
+        return print("W", tag, "", tr);
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return print("W", tag, msg, tr);
+    }
+
+    public static int e(String tag, String msg) {
+        return print("E", tag, msg, null);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return print("E", tag, msg, tr);
+    }
+
+    private static int print(String level, String tag, String msg, Throwable tr) {
+        if (!PRINT) {
+            return 0;
+        }
+        System.err.println(level + "/" + tag + ": " + msg);
+        if (tr != null) {
+            tr.printStackTrace();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,422 @@
+package com.espressif.espblufi;
+
+import android.util.Log;
+
+import com.espressif.espblufi.params.BlufiParameter;
+import com.espressif.espblufi.security.BlufiCryptoSession;
+import com.espressif.espblufi.security.BlufiDH;
+import com.espressif.espblufi.security.BlufiMD5;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * A BluFi device in process, speaking the frame format of the ESP-IDF firmware:
+ * sequence check, fragments, ACK, DH negotiation, AES-CFB and CRC.
+ * It answers the version, Wi-Fi status and Wi-Fi list requests, keeps the configured station,
+ * and answers the custom data with {@link CustomDataHandler}, the default echoes the data.
+ * <p>
+ * The frames come from {@link #onWrite(byte[])} one at a time, the answers go to the {@link Link}
+ * given to {@link #onConnected(Link, int)}.
+ */
+public class BlufiDeviceSimulator {
+    private static final String TAG = "BlufiDeviceSimulator";
+
+    // esp_blufi_error_state_t
+    static final int ERR_SEQUENCE = 0;
+    static final int ERR_CHECKSUM = 1;
+    static final int ERR_DECRYPT = 2;
+    static final int ERR_DH_PARAM = 6;
+    static final int ERR_DATA_FORMAT = 9;
+
+    private static final int NEG_SECURITY_SET_TOTAL_LENGTH = 0x00;
+    private static final int NEG_SECURITY_SET_ALL_DATA = 0x01;
+    private static final int DH_LENGTH = 1024;
+    private static final int DH_KEY_LENGTH = 128;
+    private static final String AES_TRANSFORMATION = "AES/CFB/NoPadding";
+
+    private static final String[] SCAN_SSIDS = {"Radar-Lab", "Radar-Office", "Guest"};
+    private static final int[] SCAN_RSSIS = {-42, -67, -80};
+
+    /**
+     * The device side of the connection
+     */
+    public interface Link {
+        void notify(byte[] frame);
+
+        void disconnect();
+    }
+
+    public interface CustomDataHandler {
+        /**
+         * @return the custom data to notify back, null to answer nothing
+         */
+        byte[] onCustomData(byte[] data);
+    }
+
+    private final String mAddress;
+    private int mVersionMajor = 1;
+    private int mVersionMinor = 3;
+    private boolean mKeepSession = false;
+    private CustomDataHandler mCustomDataHandler = data -> data;
+
+    private Link mLink;
+    private int mMaxFrameLength;
+    private int mReadSequence;
+    private int mSendSequence;
+
+    private final BlufiFrameDecoder mDecoder = new BlufiFrameDecoder();
+    private final BlufiFrameEncoder mEncoder = new BlufiFrameEncoder();
+    private final BlufiNotifyData mMessage = new BlufiNotifyData(new BlufiBufferPool());
+    private BlufiCryptoSession mCryptoSession;
+
+    private boolean mCtrlEncrypted;
+    private boolean mCtrlChecksum;
+    private boolean mDataEncrypted;
+    private boolean mDataChecksum;
+
+    private int mOpMode = BlufiParameter.OP_MODE_NULL;
+    private String mStaSSID;
+    private String mStaPassword;
+    private boolean mStaConnected;
+
+    private long mReceivedFrames;
+    private long mErrors;
+
+    public BlufiDeviceSimulator(String address) {
+        mAddress = address;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    public synchronized void setVersion(int major, int minor) {
+        mVersionMajor = major;
+        mVersionMinor = minor;
+    }
+
+    /**
+     * Keep the negotiated key and security mode across connections, like firmware that supports
+     * session resumption. The default forgets them on disconnect.
+     */
+    public synchronized void setKeepSession(boolean keepSession) {
+        mKeepSession = keepSession;
+    }
+
+    public synchronized void setCustomDataHandler(CustomDataHandler handler) {
+        mCustomDataHandler = handler;
+    }
+
+    public synchronized String getStaSSID() {
+        return mStaSSID;
+    }
+
+    public synchronized String getStaPassword() {
+        return mStaPassword;
+    }
+
+    public synchronized long getReceivedFrames() {
+        return mReceivedFrames;
+    }
+
+    /**
+     * @return how many error frames the device notified
+     */
+    public synchronized long getErrors() {
+        return mErrors;
+    }
+
+    /**
+     * @param maxFrameLength the longest frame the link carries to the client
+     */
+    public synchronized void onConnected(Link link, int maxFrameLength) {
+        mLink = link;
+        mMaxFrameLength = maxFrameLength;
+        mReadSequence = -1;
+        mSendSequence = -1;
+        mMessage.recycle();
+        if (!mKeepSession) {
+            resetSecurity();
+        }
+    }
+
+    public synchronized void onDisconnected() {
+        mLink = null;
+        mMessage.recycle();
+    }
+
+    /**
+     * Receive one frame written by the client
+     */
+    public synchronized void onWrite(byte[] frame) {
+        if (mLink == null) {
+            return;
+        }
+        mReceivedFrames++;
+        if (frame.length < BlufiFrameEncoder.HEADER_LENGTH) {
+            postError(ERR_DATA_FORMAT);
+            return;
+        }
+
+        int sequence = frame[2] & 0xff;
+        int expectSequence = (mReadSequence + 1) & 0xff;
+        mReadSequence = sequence;
+        if (sequence != expectSequence) {
+            Log.w(TAG, mAddress + " sequence " + sequence + ", expect " + expectSequence);
+            mMessage.recycle();
+            postError(ERR_SEQUENCE);
+            return;
+        }
+
+        int result = mDecoder.decode(frame, mCryptoSession, mMessage);
+        if (result < 0) {
+            mMessage.recycle();
+            if (result == BlufiFrameDecoder.ERR_CHECKSUM) {
+                postError(ERR_CHECKSUM);
+            } else if (result == BlufiFrameDecoder.ERR_DECRYPT) {
+                postError(ERR_DECRYPT);
+            } else {
+                postError(ERR_DATA_FORMAT);
+            }
+            return;
+        }
+
+        if (new FrameCtrlData(frame[1] & 0xff).isAckRequirement()) {
+            post(BlufiParameter.Type.Ctrl.PACKAGE_VALUE, BlufiParameter.Type.Ctrl.SUBTYPE_ACK,
+                    new byte[]{(byte) sequence});
+        }
+        if (result == BlufiFrameDecoder.RESULT_COMPLETE) {
+            int pkgType = mMessage.getPkgType();
+            int subType = mMessage.getSubType();
+            byte[] data = Arrays.copyOf(mMessage.getDataArray(), mMessage.getDataArray().length);
+            mMessage.recycle();
+            if (pkgType == BlufiParameter.Type.Ctrl.PACKAGE_VALUE) {
+                onCtrl(subType, data);
+            } else {
+                onData(subType, data);
+            }
+        }
+    }
+
+    private void onCtrl(int subType, byte[] data) {
+        switch (subType) {
+            case BlufiParameter.Type.Ctrl.SUBTYPE_SET_SEC_MODE:
+                if (data.length < 1) {
+                    postError(ERR_DATA_FORMAT);
+                    return;
+                }
+                mDataChecksum = (data[0] & 1) != 0;
+                mDataEncrypted = (data[0] & 0b10) != 0;
+                mCtrlChecksum = (data[0] & 0b10000) != 0;
+                mCtrlEncrypted = (data[0] & 0b100000) != 0;
+                break;
+            case BlufiParameter.Type.Ctrl.SUBTYPE_SET_OP_MODE:
+                if (data.length < 1) {
+                    postError(ERR_DATA_FORMAT);
+                    return;
+                }
+                mOpMode = data[0] & 0xff;
+                break;
+            case BlufiParameter.Type.Ctrl.SUBTYPE_CONNECT_WIFI:
+                mStaConnected = mStaSSID != null;
+                postWifiState();
+                break;
+            case BlufiParameter.Type.Ctrl.SUBTYPE_DISCONNECT_WIFI:
+                mStaConnected = false;
+                break;
+            case BlufiParameter.Type.Ctrl.SUBTYPE_GET_WIFI_STATUS:
+                postWifiState();
+                break;
+            case BlufiParameter.Type.Ctrl.SUBTYPE_GET_VERSION:
+                post(BlufiParameter.Type.Data.PACKAGE_VALUE, BlufiParameter.Type.Data.SUBTYPE_VERSION,
+                        new byte[]{(byte) mVersionMajor, (byte) mVersionMinor});
+                break;
+            case BlufiParameter.Type.Ctrl.SUBTYPE_GET_WIFI_LIST:
+                postWifiList();
+                break;
+            case BlufiParameter.Type.Ctrl.SUBTYPE_CLOSE_CONNECTION:
+                Link link = mLink;
+                onDisconnected();
+                link.disconnect();
+                break;
+        }
+    }
+
+    private void onData(int subType, byte[] data) {
+        switch (subType) {
+            case BlufiParameter.Type.Data.SUBTYPE_NEG:
+                onNegotiateData(data);
+                break;
+            case BlufiParameter.Type.Data.SUBTYPE_STA_WIFI_SSID:
+                mStaSSID = new String(data, StandardCharsets.UTF_8);
+                break;
+            case BlufiParameter.Type.Data.SUBTYPE_STA_WIFI_PASSWORD:
+                mStaPassword = new String(data, StandardCharsets.UTF_8);
+                break;
+            case BlufiParameter.Type.Data.SUBTYPE_CUSTOM_DATA:
+                byte[] reply = mCustomDataHandler == null ? null : mCustomDataHandler.onCustomData(data);
+                if (reply != null) {
+                    post(BlufiParameter.Type.Data.PACKAGE_VALUE, BlufiParameter.Type.Data.SUBTYPE_CUSTOM_DATA, reply);
+                }
+                break;
+        }
+    }
+
+    private void onNegotiateData(byte[] data) {
+        if (data.length < 1) {
+            postError(ERR_DATA_FORMAT);
+            return;
+        }
+        if (data[0] == NEG_SECURITY_SET_TOTAL_LENGTH) {
+            // The fragments carry the length as well
+            return;
+        }
+        if (data[0] != NEG_SECURITY_SET_ALL_DATA) {
+            postError(ERR_DATA_FORMAT);
+            return;
+        }
+
+        int[] position = {1};
+        BigInteger p = readParameter(data, position);
+        BigInteger g = readParameter(data, position);
+        BigInteger k = readParameter(data, position);
+        if (p == null || g == null || k == null) {
+            postError(ERR_DH_PARAM);
+            return;
+        }
+
+        BlufiDH dh = new BlufiDH(p, g, DH_LENGTH);
+        dh.generateSecretKey(k);
+        if (dh.getSecretKey() == null) {
+            postError(ERR_DH_PARAM);
+            return;
+        }
+        BlufiCryptoSession cryptoSession;
+        try {
+            cryptoSession = new BlufiCryptoSession(BlufiMD5.getMD5Bytes(dh.getSecretKey()), AES_TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            Log.w(TAG, "onNegotiateData: create cipher failed", e);
+            postError(ERR_DH_PARAM);
+            return;
+        }
+
+        // The client reads the public key with the session it has, the new one starts after it
+        post(BlufiParameter.Type.Data.PACKAGE_VALUE, BlufiParameter.Type.Data.SUBTYPE_NEG,
+                toUnsignedBytes(dh.getPublicKey().getY(), DH_KEY_LENGTH));
+        mCryptoSession = cryptoSession;
+        mEncoder.setCryptoSession(cryptoSession);
+    }
+
+    /**
+     * Read a parameter with two bytes big endian length
+     */
+    private static BigInteger readParameter(byte[] data, int[] position) {
+        int offset = position[0];
+        if (offset + 2 > data.length) {
+            return null;
+        }
+        int length = ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+        offset += 2;
+        if (length == 0 || offset + length > data.length) {
+            return null;
+        }
+        position[0] = offset + length;
+        return new BigInteger(1, Arrays.copyOfRange(data, offset, offset + length));
+    }
+
+    private static byte[] toUnsignedBytes(BigInteger value, int length) {
+        byte[] bytes = value.toByteArray();
+        if (bytes.length == length) {
+            return bytes;
+        }
+        byte[] result = new byte[Math.max(length, bytes.length - 1)];
+        int copy = Math.min(bytes.length, result.length);
+        System.arraycopy(bytes, bytes.length - copy, result, result.length - copy, copy);
+        return result;
+    }
+
+    private void postWifiState() {
+        byte[] ssid = mStaConnected ? mStaSSID.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        byte[] data = new byte[3 + (ssid.length > 0 ? 2 + ssid.length : 0)];
+        data[0] = (byte) mOpMode;
+        data[1] = (byte) (mStaConnected ? BlufiParameter.STA_CONN_SUCCESS : BlufiParameter.STA_CONN_FAIL);
+        data[2] = 0;
+        if (ssid.length > 0) {
+            data[3] = (byte) BlufiParameter.Type.Data.SUBTYPE_STA_WIFI_SSID;
+            data[4] = (byte) ssid.length;
+            System.arraycopy(ssid, 0, data, 5, ssid.length);
+        }
+        post(BlufiParameter.Type.Data.PACKAGE_VALUE, BlufiParameter.Type.Data.SUBTYPE_WIFI_CONNECTION_STATE, data);
+    }
+
+    private void postWifiList() {
+        int length = 0;
+        for (String ssid : SCAN_SSIDS) {
+            length += 2 + ssid.getBytes(StandardCharsets.UTF_8).length;
+        }
+        byte[] data = new byte[length];
+        int offset = 0;
+        for (int i = 0; i < SCAN_SSIDS.length; i++) {
+            byte[] ssid = SCAN_SSIDS[i].getBytes(StandardCharsets.UTF_8);
+            data[offset++] = (byte) (ssid.length + 1);
+            data[offset++] = (byte) SCAN_RSSIS[i];
+            System.arraycopy(ssid, 0, data, offset, ssid.length);
+            offset += ssid.length;
+        }
+        post(BlufiParameter.Type.Data.PACKAGE_VALUE, BlufiParameter.Type.Data.SUBTYPE_WIFI_LIST, data);
+    }
+
+    private void postError(int errCode) {
+        mErrors++;
+        post(BlufiParameter.Type.Data.PACKAGE_VALUE, BlufiParameter.Type.Data.SUBTYPE_ERROR,
+                new byte[]{(byte) errCode});
+    }
+
+    /**
+     * Notify a message, split into fragments that fit the link
+     */
+    private void post(int pkgType, int subType, byte[] data) {
+        Link link = mLink;
+        if (link == null) {
+            return;
+        }
+        boolean ctrl = pkgType == BlufiParameter.Type.Ctrl.PACKAGE_VALUE;
+        boolean encrypt = (ctrl ? mCtrlEncrypted : mDataEncrypted) && mCryptoSession != null;
+        boolean checksum = ctrl ? mCtrlChecksum : mDataChecksum;
+        int type = (subType << 2) | pkgType;
+        int direction = FrameCtrlData.getFrameCTRLValue(false, false, BlufiParameter.DIRECTION_INPUT, false, false);
+
+        int limit = mMaxFrameLength - BlufiFrameEncoder.HEADER_LENGTH - BlufiFrameEncoder.FRAG_LENGTH
+                - (checksum ? BlufiFrameEncoder.CHECKSUM_LENGTH : 0);
+        limit = Math.min(limit, BlufiFrameEncoder.MAX_DATA_LENGTH - BlufiFrameEncoder.FRAG_LENGTH);
+        int offset = 0;
+        do {
+            int remain = data.length - offset;
+            int read = Math.min(limit, remain);
+            boolean frag = read < remain;
+            int sequence = ++mSendSequence & 0xff;
+            // A new array for each frame, the link delivers it later
+            byte[] frame = new byte[BlufiFrameEncoder.getFrameLength(checksum, frag, read)];
+            if (!mEncoder.encode(frame, type, encrypt, checksum, false, sequence, data, offset, read,
+                    frag ? remain : -1)) {
+                Log.w(TAG, mAddress + " encrypt failed");
+                return;
+            }
+            frame[1] |= direction;
+            link.notify(frame);
+            offset += read;
+        } while (offset < data.length);
+    }
+
+    private void resetSecurity() {
+        mCryptoSession = null;
+        mEncoder.setCryptoSession(null);
+        mCtrlEncrypted = false;
+        mCtrlChecksum = false;
+        mDataEncrypted = false;
+        mDataChecksum = false;
+    }
+}
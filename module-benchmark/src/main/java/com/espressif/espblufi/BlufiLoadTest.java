@@ -0,0 +1,201 @@
+package com.espressif.espblufi;
+
+import com.espressif.espblufi.params.BlufiConfigureParams;
+import com.espressif.espblufi.params.BlufiParameter;
+import com.espressif.espblufi.response.BlufiStatusResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provisions many simulated devices through the real client, and prints the throughput and the
+ * latency percentiles. Each device negotiates security, gets the station configured, answers
+ * the radar server commands as custom data, which the simulator echoes, and reports its Wi-Fi status.
+ * <p>
+ * Run: ./gradlew :module-benchmark:loadTest --args="devices=200 concurrency=50 latency=15 jitter=5 mtu=185"
+ * <br>
+ * Options: devices, concurrency, latency, jitter (ms), mtu, loss, reorder (0 to 1), seed
+ */
+public class BlufiLoadTest {
+    private static final long DEVICE_TIMEOUT = 60000L;
+    private static final String[] SERVER_COMMANDS = {"1:radar.example.com", "2:8883", "3:0", "8:0"};
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split > 0) {
+                options.put(arg.substring(0, split), arg.substring(split + 1));
+            }
+        }
+        int devices = Integer.parseInt(options.getOrDefault("devices", "100"));
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "20"));
+        long latency = Long.parseLong(options.getOrDefault("latency", "15"));
+        long jitter = Long.parseLong(options.getOrDefault("jitter", "5"));
+        int mtu = Integer.parseInt(options.getOrDefault("mtu", "185"));
+        double loss = Double.parseDouble(options.getOrDefault("loss", "0"));
+        double reorder = Double.parseDouble(options.getOrDefault("reorder", "0"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+
+        System.out.printf(Locale.ENGLISH, "devices=%d concurrency=%d latency=%dms jitter=%dms mtu=%d loss=%.3f "
+                + "reorder=%.3f%n", devices, concurrency, latency, jitter, mtu, loss, reorder);
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+                Math.max(2, Runtime.getRuntime().availableProcessors()));
+        ExecutorService runners = Executors.newFixedThreadPool(concurrency);
+        AtomicInteger failures = new AtomicInteger();
+        List<Future<Long>> results = new ArrayList<>(devices);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < devices; i++) {
+            BlufiDeviceSimulator device = new BlufiDeviceSimulator(String.format(Locale.ENGLISH,
+                    "24:0A:C4:%02X:%02X:%02X", i >> 16 & 0xff, i >> 8 & 0xff, i & 0xff));
+            BlufiLoopbackTransport transport = new BlufiLoopbackTransport(device, scheduler);
+            transport.setLatency(latency, jitter);
+            transport.setMtu(mtu);
+            transport.setLossRate(loss);
+            transport.setReorderRate(reorder);
+            transport.setSeed(seed + i);
+            results.add(runners.submit(() -> {
+                long time = provision(transport);
+                if (time < 0) {
+                    failures.incrementAndGet();
+                }
+                return time;
+            }));
+        }
+
+        long[] times = new long[devices];
+        int succeeded = 0;
+        for (Future<Long> result : results) {
+            long time = result.get();
+            if (time >= 0) {
+                times[succeeded++] = time;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        runners.shutdown();
+        scheduler.shutdownNow();
+
+        times = Arrays.copyOf(times, succeeded);
+        Arrays.sort(times);
+        System.out.printf(Locale.ENGLISH, "succeeded=%d failed=%d elapsed=%.2fs throughput=%.2f devices/s%n",
+                succeeded, failures.get(), elapsed / 1e9, succeeded / (elapsed / 1e9));
+        if (succeeded > 0) {
+            System.out.printf(Locale.ENGLISH, "latency ms: min=%.1f p50=%.1f p90=%.1f p99=%.1f max=%.1f%n",
+                    times[0] / 1e6, percentile(times, 50) / 1e6, percentile(times, 90) / 1e6,
+                    percentile(times, 99) / 1e6, times[succeeded - 1] / 1e6);
+        }
+        System.exit(failures.get() == 0 ? 0 : 1);
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    /**
+     * @return the provisioning time in nanoseconds, -1 if it failed
+     */
+    private static long provision(BlufiLoopbackTransport transport) {
+        long start = System.nanoTime();
+        transport.connect();
+        BlufiClient client = new BlufiClient(transport);
+        ProvisionCallback callback = new ProvisionCallback();
+        client.setBlufiCallback(callback);
+        try {
+            client.negotiateSecurity();
+            Boolean success = callback.mResult.get(DEVICE_TIMEOUT, TimeUnit.MILLISECONDS);
+            return success ? System.nanoTime() - start : -1;
+        } catch (Exception e) {
+            System.err.println(transport.getAddress() + ": " + e);
+            return -1;
+        } finally {
+            client.close();
+            transport.close();
+        }
+    }
+
+    /**
+     * Runs the steps one after the other, each started by the result of the one before
+     */
+    private static class ProvisionCallback extends BlufiCallback {
+        final CompletableFuture<Boolean> mResult = new CompletableFuture<>();
+        private int mCommand = 0;
+
+        private void fail(String step, int status) {
+            if (mResult.complete(false)) {
+                System.err.println(step + " failed: " + status);
+            }
+        }
+
+        @Override
+        public void onNegotiateSecurityResult(BlufiClient client, int status) {
+            if (status != STATUS_SUCCESS) {
+                fail("negotiate", status);
+                return;
+            }
+            BlufiConfigureParams params = new BlufiConfigureParams();
+            params.setOpMode(BlufiParameter.OP_MODE_STA);
+            params.setStaSSIDBytes("Radar-Lab".getBytes(StandardCharsets.UTF_8));
+            params.setStaPassword("radar-password");
+            client.configure(params);
+        }
+
+        @Override
+        public void onPostConfigureParams(BlufiClient client, int status) {
+            if (status != STATUS_SUCCESS) {
+                fail("configure", status);
+                return;
+            }
+            client.postCustomData(SERVER_COMMANDS[mCommand].getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void onPostCustomDataResult(BlufiClient client, int status, byte[] data) {
+            if (status != STATUS_SUCCESS) {
+                fail("custom data", status);
+            }
+        }
+
+        @Override
+        public void onReceiveCustomData(BlufiClient client, int status, byte[] data) {
+            if (++mCommand < SERVER_COMMANDS.length) {
+                client.postCustomData(SERVER_COMMANDS[mCommand].getBytes(StandardCharsets.UTF_8));
+            } else {
+                client.requestDeviceStatus();
+            }
+        }
+
+        @Override
+        public void onDeviceStatusResponse(BlufiClient client, int status, BlufiStatusResponse response) {
+            if (mCommand < SERVER_COMMANDS.length) {
+                // Reported by the device after connecting the station
+                return;
+            }
+            boolean connected = status == STATUS_SUCCESS && response != null && response.isStaConnectWifi();
+            if (!connected) {
+                fail("status", status);
+                return;
+            }
+            mResult.complete(true);
+        }
+
+        @Override
+        public void onError(BlufiClient client, int errCode) {
+            fail("error", errCode);
+        }
+    }
+}
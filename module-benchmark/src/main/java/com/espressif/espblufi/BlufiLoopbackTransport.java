@@ -0,0 +1,231 @@
+package com.espressif.espblufi;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects a client to a {@link BlufiDeviceSimulator} in the same process, with the delays
+ * and faults of a BLE link:
+ * <ul>
+ * <li>latency and jitter, applied to each frame in each direction, the write result comes one latency
+ * after the device received the frame</li>
+ * <li>MTU, longer writes are rejected like a GATT error</li>
+ * <li>loss, a lost write is reported failed, a lost notification is dropped silently</li>
+ * <li>reordering, a reordered notification is held back for two latencies so the next ones overtake it</li>
+ * </ul>
+ * The events of one link are delivered one at a time in time order, many links can share one scheduler.
+ */
+public class BlufiLoopbackTransport implements BlufiTransport {
+    private final BlufiDeviceSimulator mDevice;
+    private final ScheduledExecutorService mScheduler;
+    private final Object mDeliverLock = new Object();
+
+    private long mLatencyNanos = 0;
+    private long mJitterNanos = 0;
+    private int mMtu = 23;
+    private double mLossRate = 0;
+    private double mReorderRate = 0;
+    private Random mRandom = new Random();
+
+    // Guarded by itself
+    private final PriorityQueue<Delivery> mPending = new PriorityQueue<>();
+    private long mDeliverySequence;
+    private long mLastDeliverTime;
+    private volatile boolean mConnected;
+    private volatile Listener mListener;
+
+    public BlufiLoopbackTransport(BlufiDeviceSimulator device, ScheduledExecutorService scheduler) {
+        mDevice = device;
+        mScheduler = scheduler;
+    }
+
+    /**
+     * @param latency the one way delay of a frame, in milliseconds
+     * @param jitter the most the delay varies by, in milliseconds
+     */
+    public void setLatency(long latency, long jitter) {
+        mLatencyNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, latency));
+        mJitterNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, jitter));
+    }
+
+    /**
+     * @param mtu the ATT MTU, the frames can be 3 bytes shorter
+     */
+    public void setMtu(int mtu) {
+        mMtu = Math.max(23, mtu);
+    }
+
+    /**
+     * @param rate the probability a frame is lost, between 0 and 1
+     */
+    public void setLossRate(double rate) {
+        mLossRate = rate;
+    }
+
+    /**
+     * @param rate the probability a notification is overtaken, between 0 and 1
+     */
+    public void setReorderRate(double rate) {
+        mReorderRate = rate;
+    }
+
+    /**
+     * Make the loss, reordering and jitter repeatable
+     */
+    public void setSeed(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Connect to the device, set the link properties before
+     */
+    public void connect() {
+        mConnected = true;
+        mDevice.onConnected(new DeviceLink(), mMtu - 3);
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void write(byte[] data) {
+        if (!mConnected) {
+            schedule(0, false, () -> onWriteComplete(false));
+            return;
+        }
+        if (data.length > mMtu - 3 || lose()) {
+            schedule(mLatencyNanos, false, () -> onWriteComplete(false));
+            return;
+        }
+        // The client reuses its frame arrays
+        byte[] frame = data.clone();
+        schedule(delay(), false, () -> {
+            mDevice.onWrite(frame);
+            schedule(mLatencyNanos, false, () -> onWriteComplete(true));
+        });
+    }
+
+    @Override
+    public int getMaxPackageLength() {
+        // Same as the client computes from the MTU of a GATT connection
+        return mMtu - 4;
+    }
+
+    @Override
+    public String getAddress() {
+        return mDevice.getAddress();
+    }
+
+    @Override
+    public void close() {
+        mListener = null;
+        if (mConnected) {
+            mConnected = false;
+            synchronized (mPending) {
+                mPending.clear();
+            }
+            mDevice.onDisconnected();
+        }
+    }
+
+    private void onWriteComplete(boolean success) {
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onWriteComplete(success);
+        }
+    }
+
+    private boolean lose() {
+        return mLossRate > 0 && mRandom.nextDouble() < mLossRate;
+    }
+
+    private long delay() {
+        if (mJitterNanos <= 0) {
+            return mLatencyNanos;
+        }
+        return mLatencyNanos + (long) (mRandom.nextDouble() * mJitterNanos);
+    }
+
+    /**
+     * @param overtaken false to keep the event behind the ones scheduled before
+     */
+    private void schedule(long delayNanos, boolean overtaken, Runnable event) {
+        synchronized (mPending) {
+            long time = System.nanoTime() + delayNanos;
+            if (!overtaken) {
+                time = Math.max(time, mLastDeliverTime);
+                mLastDeliverTime = time;
+            }
+            mPending.add(new Delivery(time, mDeliverySequence++, event));
+        }
+        mScheduler.schedule(this::deliver, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void deliver() {
+        synchronized (mDeliverLock) {
+            while (true) {
+                Delivery delivery;
+                synchronized (mPending) {
+                    delivery = mPending.peek();
+                    if (delivery == null || delivery.mTime > System.nanoTime()) {
+                        break;
+                    }
+                    mPending.poll();
+                }
+                delivery.mEvent.run();
+            }
+        }
+    }
+
+    private class DeviceLink implements BlufiDeviceSimulator.Link {
+        @Override
+        public void notify(byte[] frame) {
+            if (!mConnected || lose()) {
+                return;
+            }
+            boolean overtaken = mReorderRate > 0 && mRandom.nextDouble() < mReorderRate;
+            long delay = overtaken ? delay() + 2 * Math.max(mLatencyNanos, TimeUnit.MILLISECONDS.toNanos(1)) : delay();
+            schedule(delay, overtaken, () -> {
+                Listener listener = mListener;
+                if (mConnected && listener != null) {
+                    listener.onNotification(frame);
+                }
+            });
+        }
+
+        @Override
+        public void disconnect() {
+            schedule(mLatencyNanos, false, () -> {
+                mConnected = false;
+                Listener listener = mListener;
+                if (listener != null) {
+                    listener.onClosed();
+                }
+            });
+        }
+    }
+
+    private static class Delivery implements Comparable<Delivery> {
+        final long mTime;
+        final long mSequence;
+        final Runnable mEvent;
+
+        Delivery(long time, long sequence, Runnable event) {
+            mTime = time;
+            mSequence = sequence;
+            mEvent = event;
+        }
+
+        @Override
+        public int compareTo(Delivery other) {
+            if (mTime != other.mTime) {
+                return mTime < other.mTime ? -1 : 1;
+            }
+            return Long.compare(mSequence, other.mSequence);
+        }
+    }
+}
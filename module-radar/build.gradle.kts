@@ -28,6 +28,11 @@ android {
         viewBinding = true
     }
 
+    // 单元测试中 android.util.Log 等返回默认值，不抛出 "not mocked"
+    testOptions {
+        unitTests.isReturnDefaultValues = true
+    }
+
     compileOptions {
         sourceCompatibility = JavaVersion.VERSION_1_8
         targetCompatibility = JavaVersion.VERSION_1_8
@@ -48,6 +53,9 @@ dependencies {
     implementation(libs.androidx.appcompat)
     implementation(libs.androidx.material)
 
+    // 协程
+    implementation(libs.kotlinx.coroutines.android)
+
     // 测试依赖
     testImplementation(libs.junit)
     androidTestImplementation(libs.androidx.junit)
@@ -0,0 +1,107 @@
+package com.espressif.espblufi;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Matches the device ACKs to the posted frames by their 8-bit sequence, one slot per sequence.
+ * A frame is armed before it is written, so an ACK that arrives before the write callback still counts.
+ * ACKs complete their slots in any order, ACKs of sequences that are not armed (stale or duplicate) are ignored.
+ * Each slot has at most one waiter, parked until the ACK, the timeout or {@link #close()}.
+ * No allocation per ACK.
+ */
+class BlufiAckTracker {
+    private static final int SLOT_COUNT = 256;
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_ARMED = 1;
+    private static final int STATE_ACKED = 2;
+
+    private final AtomicIntegerArray mStates = new AtomicIntegerArray(SLOT_COUNT);
+    private final AtomicReferenceArray<Thread> mWaiters = new AtomicReferenceArray<>(SLOT_COUNT);
+    private volatile boolean mClosed = false;
+
+    /**
+     * Expect the ACK of the sequence, call it before the frame is written
+     */
+    void arm(int sequence) {
+        mStates.set(sequence & 0xff, STATE_ARMED);
+    }
+
+    /**
+     * Stop expecting the ACK of the sequence, e.g. the frame was not written
+     */
+    void disarm(int sequence) {
+        mStates.set(sequence & 0xff, STATE_IDLE);
+    }
+
+    /**
+     * Called for every ACK received from the device
+     */
+    void onAck(int sequence) {
+        if (sequence < 0 || sequence > 0xff) {
+            return;
+        }
+        if (mStates.compareAndSet(sequence, STATE_ARMED, STATE_ACKED)) {
+            Thread waiter = mWaiters.get(sequence);
+            if (waiter != null) {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+
+    boolean isAcked(int sequence) {
+        return mStates.get(sequence & 0xff) == STATE_ACKED;
+    }
+
+    /**
+     * Wait for the ACK of an armed sequence. The slot is released when the ACK arrives,
+     * and stays armed after a timeout so that a late ACK is still matched.
+     *
+     * @return true if acknowledged, false if the timeout elapsed or the tracker closed first
+     */
+    boolean await(int sequence, long timeout) throws InterruptedException {
+        int slot = sequence & 0xff;
+        if (mStates.get(slot) == STATE_IDLE) {
+            return false;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        mWaiters.set(slot, Thread.currentThread());
+        try {
+            while (true) {
+                if (mStates.compareAndSet(slot, STATE_ACKED, STATE_IDLE)) {
+                    return true;
+                }
+                if (mClosed) {
+                    return false;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            mWaiters.set(slot, null);
+        }
+    }
+
+    /**
+     * Release the waiters, no ACK is matched afterwards
+     */
+    void close() {
+        mClosed = true;
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            mStates.set(i, STATE_IDLE);
+            Thread waiter = mWaiters.get(i);
+            if (waiter != null) {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.espressif.espblufi;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps a few arrays of the lengths received recently, so that reassembling the
+ * notifications does not allocate a new array for every message.
+ * The arrays have exactly the requested length because they are dispatched as they are.
+ */
+class BlufiBufferPool {
+    private static final int MAX_BUFFERS_PER_LENGTH = 2;
+    private static final int MAX_LENGTH_COUNT = 16;
+    private static final int MAX_POOLED_LENGTH = 4096;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final Map<Integer, ArrayDeque<byte[]>> mBuffers = new HashMap<>();
+
+    synchronized byte[] obtain(int length) {
+        if (length <= 0) {
+            return EMPTY;
+        }
+        ArrayDeque<byte[]> buffers = mBuffers.get(length);
+        byte[] buffer = buffers == null ? null : buffers.poll();
+        return buffer != null ? buffer : new byte[length];
+    }
+
+    synchronized void recycle(byte[] buffer) {
+        if (buffer == null || buffer.length == 0 || buffer.length > MAX_POOLED_LENGTH) {
+            return;
+        }
+        ArrayDeque<byte[]> buffers = mBuffers.get(buffer.length);
+        if (buffers == null) {
+            if (mBuffers.size() >= MAX_LENGTH_COUNT) {
+                return;
+            }
+            buffers = new ArrayDeque<>(MAX_BUFFERS_PER_LENGTH);
+            mBuffers.put(buffer.length, buffers);
+        }
+        if (buffers.size() < MAX_BUFFERS_PER_LENGTH) {
+            buffers.add(buffer);
+        }
+    }
+}
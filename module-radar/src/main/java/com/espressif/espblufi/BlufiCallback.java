@@ -6,6 +6,7 @@ import android.bluetooth.BluetoothGattService;
 
 import java.util.List;
 
+import com.espressif.espblufi.response.BlufiNegotiationReport;
 import com.espressif.espblufi.response.BlufiScanResult;
 import com.espressif.espblufi.response.BlufiStatusResponse;
 import com.espressif.espblufi.response.BlufiVersionResponse;
@@ -77,6 +78,15 @@ public abstract class BlufiCallback {
     public void onNegotiateSecurityResult(BlufiClient client, int status) {
     }
 
+    /**
+     * Callback invoked before {@link #onNegotiateSecurityResult(BlufiClient, int)} with the time of each phase
+     *
+     * @param client BlufiClient
+     * @param report the phase times and the status of the negotiation
+     */
+    public void onNegotiateSecurityReport(BlufiClient client, BlufiNegotiationReport report) {
+    }
+
     /**
      * @deprecated use {@link #onPostConfigureParams(BlufiClient, int)}
      */
@@ -124,6 +134,17 @@ public abstract class BlufiCallback {
     public void onDeviceScanResult(BlufiClient client, int status, List<BlufiScanResult> results) {
     }
 
+    /**
+     * Callback invoked while the device scan results are still being received, with the entries
+     * of the fragments received since the last call. {@link #onDeviceScanResult(BlufiClient, int, List)}
+     * is still invoked with all the entries once the list is complete
+     *
+     * @param client BlufiClient
+     * @param results the new entries
+     */
+    public void onDeviceScanProgress(BlufiClient client, List<BlufiScanResult> results) {
+    }
+
     /**
      * Callback invoked when post custom data over
      *
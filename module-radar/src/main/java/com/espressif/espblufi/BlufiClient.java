@@ -5,22 +5,48 @@ import android.bluetooth.BluetoothGattCallback;
 import android.content.Context;
 
 import java.util.List;
+import java.util.concurrent.Executor;
 
 
 import com.espressif.espblufi.params.BlufiConfigureParams;
 import com.espressif.espblufi.response.BlufiStatusResponse;
 import com.espressif.espblufi.response.BlufiVersionResponse;
+import com.espressif.espblufi.security.BlufiSessionCache;
 
 
 public class BlufiClient {
     public static final String VERSION =  "1.0.0"; //BuildConfig.VERSION_NAME;
 
+    /**
+     * The longest time {@link #negotiateSecurity()} waits for the device, GATT write timeouts excluded.
+     * It covers a retry of the DH exchange when the device did not answer after the learned ready delay.
+     */
+    public static final long NEGOTIATE_SECURITY_TIMEOUT = 20000L;
+
     private final BlufiClientImpl mImpl;
 
     public BlufiClient(Context context, BluetoothDevice device) {
         mImpl = new BlufiClientImpl(this, context, device);
     }
 
+    /**
+     * Create a client on a transport that is connected already, e.g. a simulated device.
+     * {@link #connect()} is not needed and the GATT callbacks are not invoked.
+     *
+     * @param transport the link the frames are written to and notified from
+     */
+    public BlufiClient(BlufiTransport transport) {
+        mImpl = new BlufiClientImpl(this, transport);
+    }
+
+    /**
+     * Generate the key pairs used by {@link #negotiateSecurity()} in background before any
+     * connection is needed. The pool refills itself after each negotiation.
+     */
+    public static void prepareSecurity() {
+        BlufiClientImpl.getDHPool().prefill();
+    }
+
     /**
      * Enable or disable print debug log in BlufiClient
      *
@@ -48,6 +74,16 @@ public class BlufiClient {
         mImpl.setBlufiCallback(callback);
     }
 
+    /**
+     * Set the executor that runs the {@link BlufiCallback} methods.
+     * The default is a dedicated thread of this client, so a busy main thread does not delay the protocol.
+     *
+     * @param executor the executor, e.g. {@link Context#getMainExecutor()}. Null restores the default
+     */
+    public void setCallbackExecutor(Executor executor) {
+        mImpl.setCallbackExecutor(executor);
+    }
+
     /**
      * Set the maximum length of each Blufi packet, the excess part will be subcontracted.
      *
@@ -57,6 +93,43 @@ public class BlufiClient {
         mImpl.setPostPackageLengthLimit(lengthLimit);
     }
 
+    /**
+     * Set the MTU requested after the services are discovered, the default is
+     * {@link com.espressif.espblufi.constants.BlufiConstants#MAX_MTU_LENGTH}.
+     * The packages are sized from the granted MTU, and become smaller if the device rejects large writes.
+     *
+     * @param mtu the requested MTU, 0 or negative to keep the default MTU of the connection
+     */
+    public void setRequestMtu(int mtu) {
+        mImpl.setRequestMtu(mtu);
+    }
+
+    /**
+     * Set the cache of negotiated sessions, null by default. With a cache, {@link #negotiateSecurity()}
+     * first tries the key negotiated with the same device and firmware version, and runs the
+     * DH exchange only if the device does not answer with a valid encrypted frame.
+     * Share one cache between the clients to resume across connections.
+     * The firmware version is always read with a cache set, sessions of an unknown version are not cached.
+     *
+     * @param cache the cache, null to always run the DH exchange
+     */
+    public void setSessionCache(BlufiSessionCache cache) {
+        mImpl.setSessionCache(cache);
+    }
+
+    /**
+     * Enable or disable reading the device version before negotiating security, the default is enabled.
+     * The wait before posting the DH parameters is learned per firmware version, without the version
+     * all devices share one wait. Without a session cache, the version is only read once a device did not
+     * ACK the length frame, devices that ACK it are negotiated without the extra round trip.
+     * With the probe disabled and the version unknown, the session cache is not used.
+     *
+     * @param enable true to read the version if it is not known yet
+     */
+    public void setNegotiationVersionProbe(boolean enable) {
+        mImpl.setNegotiationVersionProbe(enable);
+    }
+
     /**
      * Set gatt write timeout.
      * If timeout, {@link BlufiCallback#onError(BlufiClient, int)} will be invoked,
@@ -11,37 +11,40 @@ import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.os.Build;
-import android.os.Handler;
-import android.os.Looper;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import javax.crypto.interfaces.DHPublicKey;
 
+import com.espressif.espblufi.constants.BlufiConstants;
 import com.espressif.espblufi.params.BlufiConfigureParams;
 import com.espressif.espblufi.params.BlufiParameter;
+import com.espressif.espblufi.response.BlufiNegotiationReport;
 import com.espressif.espblufi.response.BlufiScanResult;
 import com.espressif.espblufi.response.BlufiStatusResponse;
 import com.espressif.espblufi.response.BlufiVersionResponse;
-import com.espressif.espblufi.security.BlufiAES;
-import com.espressif.espblufi.security.BlufiCRC;
+import com.espressif.espblufi.security.BlufiCryptoSession;
 import com.espressif.espblufi.security.BlufiDH;
+import com.espressif.espblufi.security.BlufiDHPool;
 import com.espressif.espblufi.security.BlufiMD5;
+import com.espressif.espblufi.security.BlufiSessionCache;
 
 @SuppressLint("MissingPermission")
 class BlufiClientImpl implements BlufiParameter {
@@ -50,6 +53,15 @@ class BlufiClientImpl implements BlufiParameter {
     private static final int DEFAULT_PACKAGE_LENGTH = 20;//20
     private static final int PACKAGE_HEADER_LENGTH = 4;
     private static final int MIN_PACKAGE_LENGTH = 20;//20
+    private static final int MAX_PACKAGE_LENGTH = BlufiFrameEncoder.MAX_FRAME_LENGTH;
+
+    private static final long ACK_TIMEOUT = 5000L;
+
+    private static final long NEG_VERSION_PROBE_TIMEOUT = 500L;
+    private static final long NEG_DEVICE_KEY_TIMEOUT = 10000L;
+    // Shortest wait for the device key before the DH parameters are posted again with a longer ready delay
+    private static final long NEG_DEVICE_KEY_RETRY_WAIT = 3000L;
+    private static final long NEG_RESUME_PROBE_TIMEOUT = 1000L;
 
     private static final byte NEG_SECURITY_SET_TOTAL_LENGTH = 0x00;
     private static final byte NEG_SECURITY_SET_ALL_DATA = 0x01;
@@ -59,8 +71,13 @@ class BlufiClientImpl implements BlufiParameter {
             "5347c68afc1e677da90e51bbab5f5cf429c291b4ba39c6b2dc5e8c7231e46aa7" +
             "728e87664532cdf547be20c9a3fa8342be6e34371a27c06f7dc0edddd2f86373";
     private static final String DH_G = "2";
+    private static final int DH_LENGTH = 1024;
+    private static final int DH_POOL_CAPACITY = 2;
     private static final String AES_TRANSFORMATION = "AES/CFB/NoPadding";
 
+    private static BlufiDHPool sDHPool;
+    private static BlufiNegotiationTuner sNegotiationTuner;
+
     private boolean mPrintDebug = false; //BuildConfig.DEBUG;
 
     private BlufiClient mClient;
@@ -74,22 +91,48 @@ class BlufiClientImpl implements BlufiParameter {
     private BluetoothGatt mGatt;
     private BluetoothGattCharacteristic mWriteChar;
     private final LinkedBlockingQueue<Boolean> mWriteResultQueue;
+    // Whether the last failed writeFrame got a failed result, false if it timed out or was not written
+    private boolean mWriteRejected;
     private BluetoothGattCharacteristic mNotifyChar;
     private long mWriteTimeout = -1;
+    // The frames are written to and notified by the transport, the GATT one is created when the services are found
+    private volatile BlufiTransport mTransport;
+    private final BlufiTransport.Listener mTransportListener = new TransportListener();
 
-    //等待设备处理长度信息 超时timeout
-    private int NegotiateSecurity_timeout = 8000;  //// 原始前超时时间为 10-500 毫秒
+    // Read the firmware version before negotiating, the ready delay is learned per version
+    private volatile boolean mNegotiationVersionProbe = true;
+    private volatile BlufiVersionResponse mDeviceVersion;
+    private volatile LinkedBlockingQueue<BlufiVersionResponse> mVersionProbeQueue;
+
+    // Opt-in, resume the sessions negotiated before instead of the DH exchange
+    private volatile BlufiSessionCache mSessionCache;
+    // Receives whether the answer to the resume probe was encrypted and valid
+    private volatile LinkedBlockingQueue<Boolean> mResumeProbeQueue;
 
     private int mPackageLengthLimit = -1;
     private int mBlufiMTU = -1;
+    private volatile int mPackageLengthBackoff = -1;
+    private int mRequestMtu = BlufiConstants.MAX_MTU_LENGTH;
+    private volatile boolean mMtuNegotiating = false;
 
     private final AtomicInteger mSendSequence;
+    private final BlufiFrameEncoder mFrameEncoder;
     private final AtomicInteger mReadSequence;
-    private LinkedBlockingQueue<Integer> mAck;
+    private final BlufiAckTracker mAckTracker;
 
     private volatile BlufiNotifyData mNotifyData;
+    private final BlufiBufferPool mNotifyBufferPool;
+    // Decrypts and checks the notified frames
+    private final BlufiFrameDecoder mFrameDecoder = new BlufiFrameDecoder();
+    // Walks the responses, used on the notification thread like the decoder
+    private final BlufiTlvReader mTlvReader = new BlufiTlvReader();
+    // The Wi-Fi scan list being received: the entries parsed from its fragments so far,
+    // and the offset of the next entry, -1 if the list is invalid
+    private ArrayList<BlufiScanResult> mScanListResults;
+    private int mScanListOffset;
 
     private byte[] mAESKey;
+    private volatile BlufiCryptoSession mCryptoSession;
 
     private boolean mEncrypted = false;
     private boolean mChecksum = false;
@@ -100,7 +143,9 @@ class BlufiClientImpl implements BlufiParameter {
     private final LinkedBlockingQueue<BigInteger> mDevicePublicKeyQueue;
 
     private ExecutorService mThreadPool;
-    private final Handler mUIHandler;
+    // Results are dispatched on this thread by default, away from the main looper
+    private final ExecutorService mProtocolCallbackExecutor;
+    private volatile Executor mCallbackExecutor;
 
     private int mConnectState = BluetoothGatt.STATE_DISCONNECTED;
 
@@ -111,16 +156,54 @@ class BlufiClientImpl implements BlufiParameter {
         mInnerGattCallback = new InnerGattCallback();
 
         mSendSequence = new AtomicInteger(-1);
+        mFrameEncoder = new BlufiFrameEncoder();
         mReadSequence = new AtomicInteger(-1);
-        mAck = new LinkedBlockingQueue<>();
+        mNotifyBufferPool = new BlufiBufferPool();
+        mAckTracker = new BlufiAckTracker();
 
         mSecurityCallback = new SecurityCallback();
         mDevicePublicKeyQueue = new LinkedBlockingQueue<>();
 
         mThreadPool = Executors.newSingleThreadExecutor();
-        mUIHandler = new Handler(Looper.getMainLooper());
+        mProtocolCallbackExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "BlufiCallback");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mCallbackExecutor = mProtocolCallbackExecutor;
 
         mWriteResultQueue = new LinkedBlockingQueue<>();
+
+        // Generate the key pair while connecting
+        getDHPool().prefill();
+    }
+
+    /**
+     * The client runs on the transport, which is connected already
+     */
+    BlufiClientImpl(BlufiClient client, BlufiTransport transport) {
+        this(client, null, null);
+        int packageLength = transport.getMaxPackageLength();
+        if (packageLength > 0) {
+            mBlufiMTU = Math.min(packageLength, MAX_PACKAGE_LENGTH);
+        }
+        mTransport = transport;
+        transport.setListener(mTransportListener);
+        mConnectState = BluetoothGatt.STATE_CONNECTED;
+    }
+
+    static synchronized BlufiDHPool getDHPool() {
+        if (sDHPool == null) {
+            sDHPool = new BlufiDHPool(new BigInteger(DH_P, 16), new BigInteger(DH_G), DH_LENGTH, DH_POOL_CAPACITY);
+        }
+        return sDHPool;
+    }
+
+    static synchronized BlufiNegotiationTuner getNegotiationTuner() {
+        if (sNegotiationTuner == null) {
+            sNegotiationTuner = new BlufiNegotiationTuner();
+        }
+        return sNegotiationTuner;
     }
 
     void printDebugLog(boolean enable) {
@@ -139,6 +222,10 @@ class BlufiClientImpl implements BlufiParameter {
         if (mThreadPool == null) {
             throw new IllegalStateException("The BlufiClient has closed");
         }
+        if (mDevice == null) {
+            Log.d(TAG, "connect: the client runs on a connected transport");
+            return;
+        }
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             mGatt = mDevice.connectGatt(mContext, false, mInnerGattCallback, BluetoothDevice.TRANSPORT_LE);
@@ -158,6 +245,11 @@ class BlufiClientImpl implements BlufiParameter {
             mThreadPool.shutdownNow();
             mThreadPool = null;
         }
+        BlufiTransport transport = mTransport;
+        if (transport != null) {
+            transport.close();
+            mTransport = null;
+        }
         if (mGatt != null) {
             Log.d(TAG, "Closing GATT connection");
             mGatt.close();
@@ -168,20 +260,27 @@ class BlufiClientImpl implements BlufiParameter {
 
         mNotifyChar = null;
         mWriteChar = null;
-        if (mAck != null) {
-            mAck.clear();
-            mAck = null;
-        }
+        mCryptoSession = null;
+        mFrameEncoder.setCryptoSession(null);
+        mAESKey = null;
+        // Wake up the post waiting for an ACK
+        mAckTracker.close();
         mClient = null;
         mUserBlufiCallback = null;
         mInnerGattCallback = null;
         mUserGattCallback = null;
         mContext = null;
         mDevice = null;
+        // Let the callbacks already queued finish
+        mProtocolCallbackExecutor.shutdown();
 
         Log.d(TAG, "BlufiClient close() completed");
     }
 
+    void setCallbackExecutor(Executor executor) {
+        mCallbackExecutor = executor != null ? executor : mProtocolCallbackExecutor;
+    }
+
     void setGattWriteTimeout(long timeout) {
         mWriteTimeout = timeout;
     }
@@ -194,6 +293,22 @@ class BlufiClientImpl implements BlufiParameter {
         }
     }
 
+    void setRequestMtu(int mtu) {
+        if (mtu <= 0) {
+            mRequestMtu = -1;
+        } else {
+            mRequestMtu = Math.max(BlufiConstants.MIN_MTU_LENGTH, Math.min(mtu, BlufiConstants.MAX_MTU_LENGTH));
+        }
+    }
+
+    void setSessionCache(BlufiSessionCache cache) {
+        mSessionCache = cache;
+    }
+
+    void setNegotiationVersionProbe(boolean enable) {
+        mNegotiationVersionProbe = enable;
+    }
+
     void requestDeviceVersion() {
         mThreadPool.submit(new ThrowableRunnable() {
             @Override
@@ -289,38 +404,35 @@ class BlufiClientImpl implements BlufiParameter {
         return (subtype << 2) | type;
     }
 
-    private int getPackageType(int typeValue) {
-        return typeValue & 0b11;
-    }
-
-    private int getSubType(int typeValue) {
-        return ((typeValue & 0b11111100) >> 2);
-    }
-
     private int generateSendSequence() {
         return mSendSequence.incrementAndGet() & 0xff;
     }
 
-    private byte[] generateAESIV(int sequence) {
-        byte[] result = new byte[16];
-        result[0] = (byte) sequence;
-
-        return result;
-    }
-
     private boolean isConnected() {
         return mConnectState == BluetoothGatt.STATE_CONNECTED;
     }
 
-    private boolean gattWrite(byte[] data) throws InterruptedException {
-        if (!isConnected()) {
+    private String getDeviceAddress() {
+        BluetoothDevice device = mDevice;
+        if (device != null) {
+            return device.getAddress();
+        }
+        BlufiTransport transport = mTransport;
+        return transport == null ? null : transport.getAddress();
+    }
+
+    private boolean writeFrame(byte[] data) throws InterruptedException {
+        mWriteRejected = false;
+        BlufiTransport transport = mTransport;
+        if (!isConnected() || transport == null) {
             return false;
         }
         if (mPrintDebug) {
-            Log.i(TAG, "gattWrite= " + Arrays.toString(data));
+            Log.i(TAG, "writeFrame= " + Arrays.toString(data));
         }
-        mWriteChar.setValue(data);
-        mGatt.writeCharacteristic(mWriteChar);
+        // The result of an earlier write that timed out must not be taken for this one
+        mWriteResultQueue.clear();
+        transport.write(data);
         Boolean result;
         if (mWriteTimeout > 0) {
             result = mWriteResultQueue.poll(mWriteTimeout, TimeUnit.MILLISECONDS);
@@ -338,18 +450,21 @@ class BlufiClientImpl implements BlufiParameter {
         } else {
             result = mWriteResultQueue.take();
         }
+        mWriteRejected = result != null && !result;
         return result != null && result;
     }
 
-    private boolean receiveAck(int expectAck) {
-        try {
-            int ack = mAck.take();
-            return ack == expectAck;
-        } catch (InterruptedException e) {
-            Log.w(TAG, "receiveAck: interrupted");
-            Thread.currentThread().interrupt();
-            return false;
+    /**
+     * Wait for the ACK of a sequence armed before its frame was written
+     *
+     * @return false if the ACK did not arrive within {@link #ACK_TIMEOUT}
+     */
+    private boolean receiveAck(int sequence) throws InterruptedException {
+        if (mAckTracker.await(sequence, ACK_TIMEOUT)) {
+            return true;
         }
+        Log.w(TAG, "receiveAck: no ACK for sequence " + sequence);
+        return false;
     }
 
     private boolean post(boolean encrypt, boolean checksum, boolean requireAck, int type, byte[] data)
@@ -367,55 +482,59 @@ class BlufiClientImpl implements BlufiParameter {
             throws InterruptedException {
         int sequence = generateSendSequence();
 
-        byte[] postBytes = getPostBytes(type, encrypt, checksum, requireAck, false, sequence, null);
-        boolean posted = gattWrite(postBytes);
+        byte[] postBytes = mFrameEncoder.encode(type, encrypt, checksum, requireAck, sequence, null, 0, 0, -1);
+        if (postBytes == null) {
+            return false;
+        }
+        if (requireAck) {
+            mAckTracker.arm(sequence);
+        }
+        if (!writeFrame(postBytes)) {
+            mAckTracker.disarm(sequence);
+            return false;
+        }
 
-        return posted && (!requireAck || receiveAck(sequence));
+        return !requireAck || receiveAck(sequence);
     }
 
     private boolean postContainData(boolean encrypt, boolean checksum, boolean requireAck, int type, byte[] data)
             throws InterruptedException {
-        ByteArrayInputStream dataIS = new ByteArrayInputStream(data);
-        ByteArrayOutputStream dataContent = new ByteArrayOutputStream();
-        int pkgLengthLimit = mPackageLengthLimit > 0 ? mPackageLengthLimit :
-                (mBlufiMTU > 0 ? mBlufiMTU : DEFAULT_PACKAGE_LENGTH);
-        int postDataLengthLimit = pkgLengthLimit - PACKAGE_HEADER_LENGTH;
-        postDataLengthLimit -= 2; // if frag, two bytes total length in data
-        if (checksum) {
-            postDataLengthLimit -= 2;
-        }
-        byte[] dataBuf = new byte[postDataLengthLimit];
-        while (true) {
-            int read = dataIS.read(dataBuf, 0, dataBuf.length);
-            if (read == -1) {
-                break;
+        int offset = 0;
+        int sequence = -1;
+        while (offset < data.length) {
+            int remain = data.length - offset;
+            int read = Math.min(getPostDataLengthLimit(checksum), remain);
+            if (remain - read > 0 && remain - read <= 2) {
+                read = remain;
+            }
+            boolean frag = read < remain;
+            if (sequence < 0) {
+                sequence = generateSendSequence();
+            }
+            byte[] postBytes = mFrameEncoder.encode(type, encrypt, checksum, requireAck, sequence,
+                    data, offset, read, frag ? remain : -1);
+            if (postBytes == null) {
+                return false;
             }
-
-            dataContent.write(dataBuf, 0, read);
-            if (dataIS.available() > 0 && dataIS.available() <= 2) {
-                read = dataIS.read(dataBuf, 0, dataIS.available());
-                dataContent.write(dataBuf, 0, read);
+            if (requireAck) {
+                mAckTracker.arm(sequence);
             }
-            boolean frag = dataIS.available() > 0;
-            int sequence = generateSendSequence();
-            if (frag) {
-                int totalLen = dataContent.size() + dataIS.available();
-                byte[] tempData = dataContent.toByteArray();
-                dataContent.reset();
-                dataContent.write(totalLen & 0xff);
-                dataContent.write(totalLen >> 8 & 0xff);
-                dataContent.write(tempData, 0, tempData.length);
-            }
-            byte[] postBytes = getPostBytes(type, encrypt, checksum, requireAck, frag, sequence, dataContent.toByteArray());
-            dataContent.reset();
-            boolean posted = gattWrite(postBytes);
+            boolean posted = writeFrame(postBytes);
             if (!posted) {
+                mAckTracker.disarm(sequence);
+                // Only a rejected write is posted again, after a timeout the write may still complete
+                if (mWriteRejected && stepDownPackageLength(postBytes.length)) {
+                    // Post the same sequence again with smaller fragments
+                    continue;
+                }
                 return false;
             }
+            offset += read;
             if (frag) {
                 if (requireAck && !receiveAck(sequence)) {
                     return false;
                 }
+                sequence = -1;
                 sleep(10L);
             } else {
                 return !requireAck || receiveAck(sequence);
@@ -425,41 +544,39 @@ class BlufiClientImpl implements BlufiParameter {
         return true;
     }
 
-    private byte[] getPostBytes(int type, boolean encrypt, boolean checksum, boolean requireAck, boolean hasFrag, int sequence, byte[] data) {
-        ByteArrayOutputStream byteOS = new ByteArrayOutputStream();
-
-        int dataLength = data == null ? 0 : data.length;
-        int frameCtrl = FrameCtrlData.getFrameCTRLValue(encrypt, checksum, DIRECTION_OUTPUT, requireAck, hasFrag);
-
-        byteOS.write(type);
-        byteOS.write(frameCtrl);
-        byteOS.write(sequence);
-        byteOS.write(dataLength);
-
-        byte[] checksumBytes = null;
-        if (checksum) {
-            byte[] willCheckBytes = new byte[]{(byte) sequence, (byte) dataLength};
-            int crc = BlufiCRC.calcCRC(0, willCheckBytes);
-            if (dataLength > 0) {
-                crc = BlufiCRC.calcCRC(crc, data);
-            }
-            checksumBytes = new byte[]{(byte) (crc & 0xff), (byte) (crc >> 8 & 0xff)};
+    private int getPackageLength() {
+        int pkgLengthLimit = mPackageLengthLimit > 0 ? mPackageLengthLimit :
+                (mBlufiMTU > 0 ? mBlufiMTU : DEFAULT_PACKAGE_LENGTH);
+        if (mPackageLengthBackoff > 0) {
+            pkgLengthLimit = Math.min(pkgLengthLimit, mPackageLengthBackoff);
         }
+        return pkgLengthLimit;
+    }
 
-        if (encrypt && data != null && data.length > 0) {
-            BlufiAES aes = new BlufiAES(mAESKey, AES_TRANSFORMATION, generateAESIV(sequence));
-            data = aes.encrypt(data);
-        }
-        if (data != null) {
-            byteOS.write(data, 0, data.length);
+    private int getPostDataLengthLimit(boolean checksum) {
+        int postDataLengthLimit = getPackageLength() - PACKAGE_HEADER_LENGTH;
+        postDataLengthLimit -= 2; // if frag, two bytes total length in data
+        if (checksum) {
+            postDataLengthLimit -= 2;
         }
+        // The data length in the header is one byte
+        return Math.min(postDataLengthLimit, BlufiFrameEncoder.MAX_DATA_LENGTH - BlufiFrameEncoder.FRAG_LENGTH);
+    }
 
-        if (checksumBytes != null) {
-            byteOS.write(checksumBytes[0]);
-            byteOS.write(checksumBytes[1]);
+    /**
+     * Called when the device rejected a write, try smaller packages for the rest of the connection.
+     *
+     * @param rejectedLength the length of the rejected package
+     * @return true if the package length is reduced and the package should be posted again
+     */
+    private boolean stepDownPackageLength(int rejectedLength) {
+        if (!isConnected() || rejectedLength <= DEFAULT_PACKAGE_LENGTH) {
+            return false;
         }
-
-        return byteOS.toByteArray();
+        int length = Math.max(DEFAULT_PACKAGE_LENGTH, Math.min(rejectedLength, getPackageLength()) / 2);
+        mPackageLengthBackoff = length;
+        Log.w(TAG, "Write of " + rejectedLength + " bytes rejected, reduce package length to " + length);
+        return true;
     }
 
     private int parseNotification(byte[] response, BlufiNotifyData notification) {
@@ -482,67 +599,25 @@ class BlufiClientImpl implements BlufiParameter {
             return -3;
         }
 
-        int type = toInt(response[0]);
-        int pkgType = getPackageType(type);
-        int subType = getSubType(type);
-        notification.setType(type);
-        notification.setPkgType(pkgType);
-        notification.setSubType(subType);
-
-        int frameCtrl = toInt(response[1]);
-        notification.setFrameCtrl(frameCtrl);
-        FrameCtrlData frameCtrlData = new FrameCtrlData(frameCtrl);
-
-        int dataLen = toInt(response[3]);
-        byte[] dataBytes = new byte[dataLen];
-        int dataOffset = 4;
-        try {
-            System.arraycopy(response, dataOffset, dataBytes, 0, dataLen);
-        } catch (Exception e) {
-            Log.e(TAG, "Error copying notification data", e);
-            return -100;
-        }
-        if (frameCtrlData.isEncrypted()) {
-            BlufiAES aes = new BlufiAES(mAESKey, AES_TRANSFORMATION, generateAESIV(sequence));
-            dataBytes = aes.decrypt(dataBytes);
-        }
-
-        if (frameCtrlData.isChecksum()) {
-            int respChecksum1 = toInt(response[response.length - 1]);
-            int respChecksum2 = toInt(response[response.length - 2]);
-
-            int crc = BlufiCRC.calcCRC(0, new byte[]{(byte) sequence, (byte) dataLen});
-            crc = BlufiCRC.calcCRC(crc, dataBytes);
-            int calcChecksum1 = crc >> 8 & 0xff;
-            int calcChecksum2 = crc & 0xff;
-
-            if (respChecksum1 != calcChecksum1 || respChecksum2 != calcChecksum2) {
-                Log.w(TAG, "parseNotification: read invalid checksum");
-                if (mPrintDebug) {
-                    Log.d(TAG, "expect   checksum: " + respChecksum1 + ", " + respChecksum2);
-                    Log.d(TAG, "received checksum: " + calcChecksum1 + ", " + calcChecksum2);
-                }
-                return -4;
-            }
-        }
-
-        if (frameCtrlData.hasFrag()) {
-//            int totalLen = dataBytes[0] | (dataBytes[1] << 8);
-            dataOffset = 2;
-        } else {
-            dataOffset = 0;
-        }
-        notification.addData(dataBytes, dataOffset);
-
-        return frameCtrlData.hasFrag() ? 1 : 0;
+        return mFrameDecoder.decode(response, mCryptoSession, notification);
     }
 
     private void parseBlufiNotifyData(BlufiNotifyData data) {
         int pkgType = data.getPkgType();
         int subType = data.getSubType();
-        byte[] dataBytes = data.getDataArray();
+        LinkedBlockingQueue<Boolean> resumeProbeQueue = mResumeProbeQueue;
+        if (resumeProbeQueue != null && pkgType == Type.Data.PACKAGE_VALUE && subType == Type.Data.SUBTYPE_VERSION) {
+            resumeProbeQueue.add(new FrameCtrlData(data.getFrameCtrl()).isEncrypted());
+            parseVersion(data.getDataArray());
+            return;
+        }
+        // Custom data is posted to the callback thread, so its buffer must not go back to the pool
+        boolean detached = pkgType == Type.Data.PACKAGE_VALUE && subType == Type.Data.SUBTYPE_CUSTOM_DATA;
+        byte[] dataBytes = detached ? data.detachDataArray() : data.getDataArray();
         if (mUserBlufiCallback != null) {
-            boolean complete = mUserBlufiCallback.onGattNotification(mClient, pkgType, subType, dataBytes);
+            // The callback may keep the array, a pooled buffer is reused after this notification
+            byte[] callbackData = detached ? dataBytes : dataBytes.clone();
+            boolean complete = mUserBlufiCallback.onGattNotification(mClient, pkgType, subType, callbackData);
             if (complete) {
                 return;
             }
@@ -594,16 +669,24 @@ class BlufiClientImpl implements BlufiParameter {
             ack = data[0] & 0xff;
         }
 
-        mAck.add(ack);
+        mAckTracker.onAck(ack);
     }
 
     private void parseVersion(byte[] data) {
         if (data.length != 2) {
             onVersionResponse(BlufiCallback.CODE_INVALID_DATA, null);
+            return;
         }
 
         BlufiVersionResponse response = new BlufiVersionResponse();
         response.setVersionValues(toInt(data[0]), toInt(data[1]));
+        mDeviceVersion = response;
+        LinkedBlockingQueue<BlufiVersionResponse> probeQueue = mVersionProbeQueue;
+        if (probeQueue != null) {
+            // Read by the negotiation, not requested by the user
+            probeQueue.add(response);
+            return;
+        }
         onVersionResponse(BlufiCallback.STATUS_SUCCESS, response);
     }
 
@@ -614,115 +697,68 @@ class BlufiClientImpl implements BlufiParameter {
         }
 
         BlufiStatusResponse response = new BlufiStatusResponse();
-
-        ByteArrayInputStream dataIS = new ByteArrayInputStream(data);
-
-        int opMode = dataIS.read() & 0xff;
-        response.setOpMode(opMode);
-
-        int staConn = dataIS.read() & 0xff;
-        response.setStaConnectionStatus(staConn);
-
-        int softAPConn = dataIS.read() & 0xff;
-        response.setSoftAPConnectionCount(softAPConn);
-
-        int callbackStatus = BlufiCallback.STATUS_SUCCESS;
-        while (dataIS.available() > 0) {
-            int infoType = dataIS.read() & 0xff;
-            int len = dataIS.read() & 0xff;
-            byte[] stateBytes = new byte[len];
-            int read = dataIS.read(stateBytes, 0, len);
-            if (read != len) {
-                callbackStatus = BlufiCallback.CODE_INVALID_DATA;
-                break;
-            }
-            parseWifiStateData(response, infoType, stateBytes);
+        int status = BlufiCallback.STATUS_SUCCESS;
+        try {
+            BlufiResponseParser.parseWifiState(mTlvReader.reset(data, 0, data.length), response);
+        } catch (BlufiParseException e) {
+            Log.w(TAG, "parseWifiState: " + e.getMessage());
+            status = BlufiCallback.CODE_INVALID_DATA;
+        }
+        onStatusResponse(status, response);
+    }
+
+    /**
+     * Report the complete entries of a scan list fragment by fragment, while the rest is being received
+     */
+    private void streamWifiScanList(BlufiNotifyData notification) {
+        if (notification.getPkgType() != Type.Data.PACKAGE_VALUE
+                || notification.getSubType() != Type.Data.SUBTYPE_WIFI_LIST
+                || notification.peekDataArray() == null
+                || mScanListOffset < 0) {
+            return;
         }
-
-        onStatusResponse(callbackStatus, response);
-    }
-
-    private void parseWifiStateData(BlufiStatusResponse response, int infoType, byte[] data) {
-        switch (infoType) {
-            case BlufiParameter.Type.Data.SUBTYPE_STA_WIFI_BSSID:
-                String staBssid = toHex(data);
-                response.setStaBSSID(staBssid);
-                break;
-            case BlufiParameter.Type.Data.SUBTYPE_STA_WIFI_SSID:
-                String staSsid = new String(data);
-                response.setStaSSID(staSsid);
-                break;
-            case BlufiParameter.Type.Data.SUBTYPE_STA_WIFI_PASSWORD:
-                String staPassword = new String(data);
-                response.setStaPassword(staPassword);
-                break;
-            case BlufiParameter.Type.Data.SUBTYPE_SOFTAP_AUTH_MODE:
-                int authMode = toInt(data[0]);
-                response.setSoftAPSecrity(authMode);
-                break;
-            case BlufiParameter.Type.Data.SUBTYPE_SOFTAP_CHANNEL:
-                int softAPChannel = toInt(data[0]);
-                response.setSoftAPChannel(softAPChannel);
-                break;
-            case BlufiParameter.Type.Data.SUBTYPE_SOFTAP_MAX_CONNECTION_COUNT:
-                int softAPMaxConnCount = toInt(data[0]);
-                response.setSoftAPMaxConnectionCount(softAPMaxConnCount);
-                break;
-            case BlufiParameter.Type.Data.SUBTYPE_SOFTAP_WIFI_PASSWORD:
-                String softapPassword = new String(data);
-                response.setSoftAPPassword(softapPassword);
-                break;
-            case BlufiParameter.Type.Data.SUBTYPE_SOFTAP_WIFI_SSID:
-                String softapSSID = new String(data);
-                response.setSoftAPSSID(softapSSID);
-                break;
-            case BlufiParameter.Type.Data.SUBTYPE_WIFI_STA_MAX_CONN_RETRY:
-                int maxRetry = toInt(data[0]);
-                response.setMaxRetry(maxRetry);
-                break;
-            case BlufiParameter.Type.Data.SUBTYPE_WIFI_STA_CONN_END_REASON:
-                int endReason = toInt(data[0]);
-                response.setEndReason(endReason);
-                break;
-            case BlufiParameter.Type.Data.SUBTYPE_WIFI_STA_CONN_RSSI:
-                int rssi = data[0];
-                response.setRssi(rssi);
-                break;
-
+        if (mScanListResults == null) {
+            mScanListResults = new ArrayList<>();
+        }
+        int count = mScanListResults.size();
+        try {
+            mTlvReader.reset(notification.peekDataArray(), mScanListOffset,
+                    notification.getDataLength() - mScanListOffset);
+            BlufiResponseParser.parseWifiScanEntries(mTlvReader, mScanListResults, false);
+            mScanListOffset = mTlvReader.position();
+        } catch (BlufiParseException e) {
+            // Parsed again and reported when the list is complete
+            mScanListOffset = -1;
+            return;
+        }
+        if (mScanListResults.size() > count) {
+            onDeviceScanProgress(new ArrayList<>(mScanListResults.subList(count, mScanListResults.size())));
         }
     }
 
     private void parseWifiScanList(byte[] data) {
-        List<BlufiScanResult> result = new LinkedList<>();
-
-        ByteArrayInputStream dataReader = new ByteArrayInputStream(data);
-        while (dataReader.available() > 0) {
-            int length = dataReader.read() & 0xff;
-            if (length < 1) {
-                Log.w(TAG, "Parse WifiScan invalid length");
-                break;
-            }
-            byte rssi = (byte) dataReader.read();
-            byte[] ssidBytes = new byte[length - 1];
-            int ssidRead = dataReader.read(ssidBytes, 0, ssidBytes.length);
-            if (ssidRead != ssidBytes.length) {
-                Log.w(TAG, "Parse WifiScan parse ssid failed");
-                break;
-            }
-
-            BlufiScanResult sr = new BlufiScanResult();
-            sr.setType(BlufiScanResult.TYPE_WIFI);
-            sr.setRssi(rssi);
-            String ssid = new String(ssidBytes);
-            sr.setSsid(ssid);
-            result.add(sr);
+        // Resume after the entries reported while the fragments were received
+        ArrayList<BlufiScanResult> results = mScanListResults;
+        int offset = mScanListOffset;
+        mScanListResults = null;
+        mScanListOffset = 0;
+        if (results == null || offset < 0) {
+            results = new ArrayList<>();
+            offset = 0;
+        }
+        int status = BlufiCallback.STATUS_SUCCESS;
+        try {
+            BlufiResponseParser.parseWifiScanList(mTlvReader.reset(data, offset, data.length - offset), results);
+        } catch (BlufiParseException e) {
+            // The entries before the invalid one are still reported
+            Log.w(TAG, "parseWifiScanList: " + e.getMessage());
+            status = BlufiCallback.CODE_INVALID_DATA;
         }
-
-        onDeviceScanResult(BlufiCallback.STATUS_SUCCESS, result);
+        onDeviceScanResult(status, results);
     }
 
     private void onError(final int errCode) {
-        mUIHandler.post(() -> {
+        postCallback(() -> {
             if (mUserBlufiCallback != null) {
                 mUserBlufiCallback.onError(mClient, errCode);
             }
@@ -797,48 +833,96 @@ class BlufiClientImpl implements BlufiParameter {
     }*/
     private void __negotiateSecurity() {
         Log.i(TAG, "Starting security negotiation process");
-        BlufiDH espDH = postNegotiateSecurity();
-        if (espDH == null) {
-            Log.e(TAG, "negotiateSecurity postNegotiateSecurity failed - DH object is null");
-            mUIHandler.post(() -> onNegotiateSecurityResult(BlufiCallback.CODE_NEG_POST_FAILED));
+        mDevicePublicKeyQueue.clear();
+        BlufiNegotiationReport report = new BlufiNegotiationReport();
+        long deadline = SystemClock.elapsedRealtime() + BlufiClient.NEGOTIATE_SECURITY_TIMEOUT;
+
+        long versionStart = SystemClock.elapsedRealtime();
+        try {
+            report.setFirmwareVersion(probeDeviceVersion());
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Reading device version was interrupted", e);
+            Thread.currentThread().interrupt();
             return;
         }
+        report.setPhaseTime(BlufiNegotiationReport.Phase.VERSION, SystemClock.elapsedRealtime() - versionStart);
 
-        Log.i(TAG, "DH generation successful, waiting for device public key");
+        if (resumeSession(report)) {
+            Log.i(TAG, "Security session resumed");
+            onNegotiateSecurityFinished(report, BlufiCallback.STATUS_SUCCESS);
+            return;
+        }
 
+        BlufiDH espDH;
         BigInteger devicePublicKey;
-        try {
-            devicePublicKey = mDevicePublicKeyQueue.take();
-            if (devicePublicKey.bitLength() == 0) {
-                Log.e(TAG, "Received invalid device public key with bit length 0");
-                mUIHandler.post(() -> onNegotiateSecurityResult(BlufiCallback.CODE_NEG_ERR_DEV_KEY));
+        while (true) {
+            espDH = postNegotiateSecurity(report);
+            if (espDH == null) {
+                Log.e(TAG, "negotiateSecurity postNegotiateSecurity failed - DH object is null");
+                onNegotiateSecurityFinished(report, BlufiCallback.CODE_NEG_POST_FAILED);
                 return;
             }
-            Log.d(TAG, "Successfully obtained device public key, bit length: " + devicePublicKey.bitLength());
-        } catch (InterruptedException e) {
-            Log.w(TAG, "Waiting for device public key was interrupted", e);
-            Thread.currentThread().interrupt();
-            return;
+
+            Log.i(TAG, "DH parameters posted, waiting for device public key");
+
+            // Without the ACK the device may have dropped the parameters, do not wait the whole timeout for it
+            boolean retryable = !report.isReadyByAck() && !report.isRetried();
+            long keyTimeout = retryable
+                    ? Math.min(NEG_DEVICE_KEY_TIMEOUT, Math.max(report.getReadyDelay() * 2, NEG_DEVICE_KEY_RETRY_WAIT))
+                    : NEG_DEVICE_KEY_TIMEOUT;
+            long phaseStart = SystemClock.elapsedRealtime();
+            keyTimeout = Math.max(0L, Math.min(keyTimeout, deadline - phaseStart));
+            try {
+                devicePublicKey = mDevicePublicKeyQueue.poll(keyTimeout, TimeUnit.MILLISECONDS);
+                report.setPhaseTime(BlufiNegotiationReport.Phase.DEVICE_KEY, SystemClock.elapsedRealtime() - phaseStart);
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Waiting for device public key was interrupted", e);
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (devicePublicKey != null && devicePublicKey.bitLength() > 0) {
+                Log.d(TAG, "Successfully obtained device public key, bit length: " + devicePublicKey.bitLength());
+                break;
+            }
+            long retryDelay = 0L;
+            if (retryable) {
+                // The learned delay may have been too short, post the DH parameters again with a longer one
+                getNegotiationTuner().onFailure(report.getFirmwareVersion(), report.getReadyDelay());
+                retryDelay = getNegotiationTuner().getReadyDelay(report.getFirmwareVersion());
+            }
+            if (!retryable || deadline - SystemClock.elapsedRealtime() < retryDelay + NEG_DEVICE_KEY_RETRY_WAIT) {
+                Log.e(TAG, "Received no valid device public key");
+                onNegotiateSecurityFinished(report, BlufiCallback.CODE_NEG_ERR_DEV_KEY);
+                return;
+            }
+            Log.w(TAG, "Received no device public key after " + report.getReadyDelay() + "ms delay, retry");
+            report.setRetried(true);
+            mDevicePublicKeyQueue.clear();
         }
 
+        long phaseStart = SystemClock.elapsedRealtime();
         try {
             Log.d(TAG, "Starting key generation based on device public key");
             espDH.generateSecretKey(devicePublicKey);
             if (espDH.getSecretKey() == null) {
                 Log.e(TAG, "Key generation failed - key is null");
-                mUIHandler.post(() -> onNegotiateSecurityResult(BlufiCallback.CODE_NEG_ERR_SECURITY));
+                onNegotiateSecurityFinished(report, BlufiCallback.CODE_NEG_ERR_SECURITY);
                 return;
             }
             Log.d(TAG, "Key generation successful, length: " + espDH.getSecretKey().length);
 
             mAESKey = BlufiMD5.getMD5Bytes(espDH.getSecretKey());
             Log.d(TAG, "MD5 key generation successful, length: " + (mAESKey != null ? mAESKey.length : "null"));
+            mCryptoSession = new BlufiCryptoSession(mAESKey, AES_TRANSFORMATION);
+            mFrameEncoder.setCryptoSession(mCryptoSession);
         } catch (Exception e) {
             Log.e(TAG, "Exception during key generation", e);
-            mUIHandler.post(() -> onNegotiateSecurityResult(BlufiCallback.CODE_NEG_ERR_SECURITY));
+            onNegotiateSecurityFinished(report, BlufiCallback.CODE_NEG_ERR_SECURITY);
             return;
         }
+        report.setPhaseTime(BlufiNegotiationReport.Phase.SECRET, SystemClock.elapsedRealtime() - phaseStart);
 
+        phaseStart = SystemClock.elapsedRealtime();
         boolean setSecurity = false;
         try {
             Log.d(TAG, "Starting to set security mode");
@@ -847,48 +931,190 @@ class BlufiClientImpl implements BlufiParameter {
         } catch (Exception e) {
             Log.e(TAG, "Exception when setting security mode", e);
         }
+        report.setPhaseTime(BlufiNegotiationReport.Phase.SET_SECURITY, SystemClock.elapsedRealtime() - phaseStart);
 
         if (setSecurity) {
             mEncrypted = true;
             mChecksum = true;
             Log.i(TAG, "Security negotiation completed successfully");
+            BlufiSessionCache sessionCache = mSessionCache;
+            String address = getDeviceAddress();
+            if (sessionCache != null && address != null && report.getFirmwareVersion() != null) {
+                sessionCache.put(address, report.getFirmwareVersion(), mAESKey,
+                        false, false, true, true);
+            }
             // 记录当前的MTU值
             Log.d(TAG, "Current MTU value during security negotiation: " + mBlufiMTU);
-            mUIHandler.post(() -> onNegotiateSecurityResult(BlufiCallback.STATUS_SUCCESS));
+            onNegotiateSecurityFinished(report, BlufiCallback.STATUS_SUCCESS);
         } else {
             mEncrypted = false;
             mChecksum = false;
             Log.e(TAG, "Setting security mode failed");
-            mUIHandler.post(() -> onNegotiateSecurityResult(BlufiCallback.CODE_NEG_ERR_SET_SECURITY));
+            onNegotiateSecurityFinished(report, BlufiCallback.CODE_NEG_ERR_SET_SECURITY);
         }
     }
+
+    /**
+     * Try the AES key cached for the device. The device must answer an encrypted version request
+     * with a frame that is encrypted and passes the checksum, otherwise the full negotiation is needed.
+     *
+     * @return true if the cached session is used
+     */
+    private boolean resumeSession(BlufiNegotiationReport report) {
+        BlufiSessionCache sessionCache = mSessionCache;
+        String mac = getDeviceAddress();
+        // Without the version a firmware update would not invalidate the cached key
+        if (sessionCache == null || mac == null || report.getFirmwareVersion() == null) {
+            return false;
+        }
+        BlufiSessionCache.Entry entry = sessionCache.get(mac, report.getFirmwareVersion());
+        if (entry == null) {
+            return false;
+        }
+
+        long phaseStart = SystemClock.elapsedRealtime();
+        boolean resumed = false;
+        LinkedBlockingQueue<Boolean> probeQueue = new LinkedBlockingQueue<>();
+        try {
+            byte[] key = entry.getKey();
+            BlufiCryptoSession cryptoSession = new BlufiCryptoSession(key, AES_TRANSFORMATION);
+            mAESKey = key;
+            mCryptoSession = cryptoSession;
+            mFrameEncoder.setCryptoSession(cryptoSession);
+
+            mResumeProbeQueue = probeQueue;
+            int type = getTypeValue(Type.Ctrl.PACKAGE_VALUE, Type.Ctrl.SUBTYPE_GET_VERSION);
+            if (post(entry.isCtrlEncrypted(), entry.isCtrlChecksum(), false, type, null)) {
+                Boolean encrypted = probeQueue.poll(NEG_RESUME_PROBE_TIMEOUT, TimeUnit.MILLISECONDS);
+                resumed = encrypted != null && encrypted;
+            }
+        } catch (GeneralSecurityException e) {
+            Log.w(TAG, "resumeSession: create cipher failed", e);
+        } catch (InterruptedException e) {
+            Log.w(TAG, "resumeSession: interrupted");
+            Thread.currentThread().interrupt();
+        } finally {
+            mResumeProbeQueue = null;
+        }
+        report.setPhaseTime(BlufiNegotiationReport.Phase.RESUME, SystemClock.elapsedRealtime() - phaseStart);
+        report.setResumed(resumed);
+
+        if (resumed) {
+            mEncrypted = entry.isDataEncrypted();
+            mChecksum = entry.isDataChecksum();
+        } else {
+            Log.d(TAG, "resumeSession: device did not resume the session, negotiate again");
+            sessionCache.remove(mac, report.getFirmwareVersion());
+            mCryptoSession = null;
+            mFrameEncoder.setCryptoSession(null);
+            mAESKey = null;
+        }
+        return resumed;
+    }
+
+    private void onNegotiateSecurityFinished(BlufiNegotiationReport report, int status) {
+        report.setStatus(status);
+        if (!report.isReadyByAck() && report.getPhaseTime(BlufiNegotiationReport.Phase.DEVICE_READY) >= 0) {
+            // Only the delay waited without ACK is learned
+            if (status == BlufiCallback.STATUS_SUCCESS) {
+                getNegotiationTuner().onSuccess(report.getFirmwareVersion(), report.getReadyDelay());
+            } else if (status == BlufiCallback.CODE_NEG_ERR_DEV_KEY) {
+                getNegotiationTuner().onFailure(report.getFirmwareVersion(), report.getReadyDelay());
+            }
+        }
+        Log.i(TAG, "Negotiation report: " + report);
+
+        postCallback(() -> {
+            if (mUserBlufiCallback != null) {
+                mUserBlufiCallback.onNegotiateSecurityReport(mClient, report);
+            }
+        });
+        onNegotiateSecurityResult(status);
+    }
+
     private void onNegotiateSecurityResult(final int status) {
-        mUIHandler.post(() -> {
+        postCallback(() -> {
             if (mUserBlufiCallback != null) {
                 mUserBlufiCallback.onNegotiateSecurityResult(mClient, status);
             }
         });
     }
 
-    private BlufiDH postNegotiateSecurity() {
+    /**
+     * @return the firmware version, read from the device if it is unknown and the probe is enabled,
+     * and either a session cache is set or the tuner has seen a device that does not ACK the length frame
+     */
+    private String probeDeviceVersion() throws InterruptedException {
+        BlufiVersionResponse version = mDeviceVersion;
+        boolean needed = mSessionCache != null || getNegotiationTuner().isVersionNeeded();
+        if (version == null && mNegotiationVersionProbe && needed) {
+            LinkedBlockingQueue<BlufiVersionResponse> probeQueue = new LinkedBlockingQueue<>();
+            mVersionProbeQueue = probeQueue;
+            try {
+                int type = getTypeValue(Type.Ctrl.PACKAGE_VALUE, Type.Ctrl.SUBTYPE_GET_VERSION);
+                if (post(false, false, false, type, null)) {
+                    version = probeQueue.poll(NEG_VERSION_PROBE_TIMEOUT, TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                mVersionProbeQueue = null;
+            }
+        }
+        return version != null ? version.getVersionString() : null;
+    }
+
+    /**
+     * Post the total length frame requiring ACK, and wait until the device acknowledges it,
+     * or until the ready delay learned for the firmware version elapses.
+     *
+     * @return false if the frame could not be written
+     */
+    private boolean postNegotiateLength(int type, byte[] data, BlufiNegotiationReport report)
+            throws InterruptedException {
+        long phaseStart = SystemClock.elapsedRealtime();
+        int sequence = generateSendSequence();
+        byte[] frame = mFrameEncoder.encode(type, false, false, true, sequence, data, 0, data.length, -1);
+        if (frame != null) {
+            mAckTracker.arm(sequence);
+        }
+        if (frame == null || !writeFrame(frame)) {
+            mAckTracker.disarm(sequence);
+            report.setPhaseTime(BlufiNegotiationReport.Phase.LENGTH, SystemClock.elapsedRealtime() - phaseStart);
+            return false;
+        }
+        long posted = SystemClock.elapsedRealtime();
+        report.setPhaseTime(BlufiNegotiationReport.Phase.LENGTH, posted - phaseStart);
+
+        long readyDelay = getNegotiationTuner().getReadyDelay(report.getFirmwareVersion());
+        report.setReadyDelay(readyDelay);
+        boolean acked = mAckTracker.await(sequence, readyDelay);
+        long waited = SystemClock.elapsedRealtime() - posted;
+        report.setReadyByAck(acked);
+        report.setPhaseTime(BlufiNegotiationReport.Phase.DEVICE_READY, waited);
+        if (acked) {
+            getNegotiationTuner().onReadyByAck(report.getFirmwareVersion(), waited);
+        }
+        Log.d(TAG, "Device ready for DH parameters after " + waited + "ms, " + (acked ? "ACK" : "delay"));
+        return true;
+    }
+
+    private BlufiDH postNegotiateSecurity(BlufiNegotiationReport report) {
         Log.d(TAG, "Starting postNegotiateSecurity process");
         int type = getTypeValue(Type.Data.PACKAGE_VALUE, Type.Data.SUBTYPE_NEG);
 
+        long phaseStart = SystemClock.elapsedRealtime();
         final int radix = 16;
-        final int dhLength = 1024;
-        final BigInteger dhP = new BigInteger(DH_P, radix);
-        final BigInteger dhG = new BigInteger(DH_G);
         BlufiDH blufiDH;
         String p;
         String g;
         String k;
         do {
-            Log.d(TAG, "Generating DH parameters");
-            blufiDH = new BlufiDH(dhP, dhG, dhLength);
+            Log.d(TAG, "Taking DH parameters from pool");
+            blufiDH = getDHPool().take();
             p = blufiDH.getP().toString(radix);
             g = blufiDH.getG().toString(radix);
             k = getPublicValue(blufiDH);
         } while (k == null);
+        report.setPhaseTime(BlufiNegotiationReport.Phase.KEY_PAIR, SystemClock.elapsedRealtime() - phaseStart);
 
         Log.d(TAG, "DH parameters generation successful - P length:" + p.length() + ", G length:" + g.length() + ", K length:" + k.length());
 
@@ -910,36 +1136,25 @@ class BlufiClientImpl implements BlufiParameter {
         Log.d(TAG, "Preparing to send total length information - Total length:" + pgkLength + " bytes");
 
         try {
-            boolean postLength = post(false, false, mRequireAck, type, dataOS.toByteArray());
+            boolean postLength = postNegotiateLength(type, dataOS.toByteArray(), report);
             if (!postLength) {
                 if (Build.VERSION.SDK_INT >= 34) {
-                    // Android 14特定处理，尝试减小数据包大小后重试
-                    Log.e(TAG, "Failed to send length information, trying with smaller packet");
-                    // 直接跳过发送长度信息，继续执行
+                    // Android 14特定处理，发送长度信息失败时继续执行
                     // 这是一个妥协方案，因为成功日志显示即使timeout也能继续执行
+                    Log.e(TAG, "Failed to send length information, continue anyway");
                 } else {
                     Log.e(TAG, "Failed to send length information");
-                    return null;}
+                    return null;
+                }
+            } else {
+                Log.d(TAG, "Successfully sent length information");
             }
-            Log.d(TAG, "Successfully sent length information");
         } catch (InterruptedException e) {
             Log.e(TAG, "Sending length information was interrupted", e);
             Thread.currentThread().interrupt();
             return null;
         }
 
-        // Use CountDownLatch instead of simple sleep
-        CountDownLatch latch = new CountDownLatch(1);
-        try {
-            Log.d(TAG, "Waiting for device to process length information...");
-            boolean waited = latch.await(NegotiateSecurity_timeout, TimeUnit.MILLISECONDS); // Increased to 500ms
-            Log.d(TAG, "Wait completed, status:" + (waited ? "completed" : "timeout"));
-        } catch (InterruptedException e) {
-            Log.e(TAG, "Wait process was interrupted", e);
-            Thread.currentThread().interrupt();
-            return null;
-        }
-
         dataOS.reset();
         dataOS.write(NEG_SECURITY_SET_ALL_DATA);
 
@@ -966,6 +1181,7 @@ class BlufiClientImpl implements BlufiParameter {
 
         Log.d(TAG, "Preparing to send DH parameter data - Total data length:" + dataOS.size() + " bytes");
 
+        phaseStart = SystemClock.elapsedRealtime();
         try {
             boolean postPGK = post(false, false, mRequireAck, type, dataOS.toByteArray());
             if (!postPGK) {
@@ -977,6 +1193,8 @@ class BlufiClientImpl implements BlufiParameter {
             Log.e(TAG, "Sending DH parameter data was interrupted", e);
             Thread.currentThread().interrupt();
             return null;
+        } finally {
+            report.setPhaseTime(BlufiNegotiationReport.Phase.PARAMETERS, SystemClock.elapsedRealtime() - phaseStart);
         }
 
         dataOS.reset();
@@ -1101,7 +1319,7 @@ class BlufiClientImpl implements BlufiParameter {
     }
 
     private void onPostConfigureParams(final int status) {
-        mUIHandler.post(() -> {
+        postCallback(() -> {
             if (mUserBlufiCallback != null) {
                 mUserBlufiCallback.onPostConfigureParams(mClient, status);
             }
@@ -1228,7 +1446,7 @@ class BlufiClientImpl implements BlufiParameter {
     }
 
     private void onVersionResponse(final int status, final BlufiVersionResponse response) {
-        mUIHandler.post(() -> {
+        postCallback(() -> {
             if (mUserBlufiCallback != null) {
                 mUserBlufiCallback.onDeviceVersionResponse(mClient, status, response);
             }
@@ -1252,7 +1470,7 @@ class BlufiClientImpl implements BlufiParameter {
     }
 
     private void onStatusResponse(final int status, final BlufiStatusResponse response) {
-        mUIHandler.post(() -> {
+        postCallback(() -> {
             if (mUserBlufiCallback != null) {
                 mUserBlufiCallback.onDeviceStatusResponse(mClient, status, response);
             }
@@ -1275,8 +1493,16 @@ class BlufiClientImpl implements BlufiParameter {
         }
     }
 
+    private void onDeviceScanProgress(final List<BlufiScanResult> results) {
+        postCallback(() -> {
+            if (mUserBlufiCallback != null) {
+                mUserBlufiCallback.onDeviceScanProgress(mClient, results);
+            }
+        });
+    }
+
     private void onDeviceScanResult(final int status, final List<BlufiScanResult> results) {
-        mUIHandler.post(() -> {
+        postCallback(() -> {
             if (mUserBlufiCallback != null) {
                 mUserBlufiCallback.onDeviceScanResult(mClient, status, results);
             }
@@ -1296,7 +1522,7 @@ class BlufiClientImpl implements BlufiParameter {
     }
 
     private void onPostCustomDataResult(final int status, final byte[] data) {
-        mUIHandler.post(() -> {
+        postCallback(() -> {
             if (mUserBlufiCallback != null) {
                 mUserBlufiCallback.onPostCustomDataResult(mClient, status, data);
             }
@@ -1304,7 +1530,7 @@ class BlufiClientImpl implements BlufiParameter {
     }
 
     private void onReceiveCustomData(final byte[] data) {
-        mUIHandler.post(() -> {
+        postCallback(() -> {
             if (mUserBlufiCallback != null) {
                 int status = BlufiCallback.STATUS_SUCCESS;
                 mUserBlufiCallback.onReceiveCustomData(mClient, status, data);
@@ -1339,33 +1565,74 @@ class BlufiClientImpl implements BlufiParameter {
         }
     }
 
-    /*
-    private void sleep(long timeout) {
+    /**
+     * Pace the posting thread, does not depend on any looper
+     *
+     * @return false if interrupted
+     */
+    private boolean sleep(long timeout) {
         try {
             Thread.sleep(timeout);
+            return true;
         } catch (InterruptedException e) {
             Log.w(TAG, "sleep: interrupted");
             Thread.currentThread().interrupt();
+            return false;
         }
-    }*/
-    private boolean sleep(long timeout) {
-        final CountDownLatch latch = new CountDownLatch(1);
-        mUIHandler.postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                latch.countDown();
-            }
-        }, timeout);
+    }
 
+    private void postCallback(Runnable runnable) {
         try {
-            return latch.await(timeout + 50, TimeUnit.MILLISECONDS); // 设置略长的超时时间50ms
-        } catch (InterruptedException e) {
-            Log.w(TAG, "sleep: latch wait interrupted");
-            return false;
+            mCallbackExecutor.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "postCallback: callback executor rejected the callback");
         }
     }
 
+    private class TransportListener implements BlufiTransport.Listener {
+        @Override
+        public void onNotification(byte[] data) {
+            if (mNotifyData == null) {
+                mNotifyData = new BlufiNotifyData(mNotifyBufferPool);
+            }
+            if (mPrintDebug) {
+                Log.i(TAG, "Notification: " + Arrays.toString(data));
+            }
+            // lt 0 is error, eq 0 is complete, gt 0 is continue
+            int parse = parseNotification(data, mNotifyData);
+            LinkedBlockingQueue<Boolean> resumeProbeQueue = mResumeProbeQueue;
+            if (parse < 0 && resumeProbeQueue != null) {
+                // The device does not know the cached key, the negotiation falls back to DH
+                mNotifyData.recycle();
+                resumeProbeQueue.add(false);
+            } else if (parse < 0) {
+                // Drop the partial message
+                mNotifyData.recycle();
+                onError(BlufiCallback.CODE_INVALID_NOTIFICATION);
+            } else if (parse == 0) {
+                parseBlufiNotifyData(mNotifyData);
+                mNotifyData.recycle();
+            } else {
+                streamWifiScanList(mNotifyData);
+                return;
+            }
+            mScanListResults = null;
+            mScanListOffset = 0;
+        }
+
+        @Override
+        public void onWriteComplete(boolean success) {
+            mWriteResultQueue.add(success);
+        }
 
+        @Override
+        public void onClosed() {
+            Log.d(TAG, "Transport closed");
+            mConnectState = BluetoothGatt.STATE_DISCONNECTED;
+            // Wake up the write waiting for its result
+            mWriteResultQueue.add(false);
+        }
+    }
 
     private class InnerGattCallback extends BluetoothGattCallback {
 
@@ -1373,6 +1640,8 @@ class BlufiClientImpl implements BlufiParameter {
         public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
             mConnectState = newState;
             mBlufiMTU = -1;
+            mPackageLengthBackoff = -1;
+            mMtuNegotiating = false;
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 if (newState == BluetoothProfile.STATE_CONNECTED) {
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
@@ -1402,64 +1671,57 @@ class BlufiClientImpl implements BlufiParameter {
                     if (notifyChar != null) {
                         gatt.setCharacteristicNotification(notifyChar, true);
                     }
-                    // 添加 MTU 请求 for andriod14
-                    if (Build.VERSION.SDK_INT >= 34) { // Android 14
-                        try {
-                            // 直接为 Android 14 设置 MTU 大小
-                            int mtuSize = 64; // 对于 Android 14，使用较小的值提高稳定性
-                            Log.d(TAG, "Requesting MTU: " + mtuSize);
-                            gatt.requestMtu(mtuSize);
-                        } catch (Exception e) {
-                            Log.e(TAG, "MTU request failed", e);
-                        }
-                    }
-        }
+                }
 
-        mWriteChar = writeChar;
-        mNotifyChar = notifyChar;
-    }
+                mWriteChar = writeChar;
+                mNotifyChar = notifyChar;
+                BlufiGattTransport transport = null;
+                if (writeChar != null) {
+                    transport = new BlufiGattTransport(gatt, writeChar);
+                    transport.setListener(mTransportListener);
+                }
+                mTransport = transport;
+            }
 
             if (mUserGattCallback != null) {
-        mUserGattCallback.onServicesDiscovered(gatt, status);
-    }
+                mUserGattCallback.onServicesDiscovered(gatt, status);
+            }
+
+            if (service != null && writeChar != null && notifyChar != null && mRequestMtu > 0) {
+                // Negotiate MTU first, the notification is enabled after onMtuChanged
+                Log.d(TAG, "Requesting MTU: " + mRequestMtu);
+                mMtuNegotiating = gatt.requestMtu(mRequestMtu);
+                if (mMtuNegotiating) {
+                    return;
+                }
+                Log.w(TAG, "MTU request failed, use default MTU");
+            }
+            prepareGatt(gatt, service, writeChar, notifyChar);
+        }
+
+        private void prepareGatt(BluetoothGatt gatt, BluetoothGattService service,
+                                 BluetoothGattCharacteristic writeChar, BluetoothGattCharacteristic notifyChar) {
             if (mUserBlufiCallback != null) {
-        final BluetoothGattService cbService = service;
-        final BluetoothGattCharacteristic cbWriteChar = writeChar;
-        final BluetoothGattCharacteristic cbNotifyChar = notifyChar;
-        final BluetoothGattDescriptor notifyDesc = notifyChar == null ? null :
+                final BluetoothGattDescriptor notifyDesc = notifyChar == null ? null :
                         notifyChar.getDescriptor(BlufiParameter.UUID_NOTIFICATION_DESCRIPTOR);
                 if (service != null && writeChar != null && notifyChar != null && notifyDesc != null) {
                     Log.d(TAG, "Write ENABLE_NOTIFICATION_VALUE");
                     notifyDesc.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
                     gatt.writeDescriptor(notifyDesc);
                 } else {
-                    mUIHandler.post(() -> {
+                    postCallback(() -> {
                         if (mUserBlufiCallback != null) {
-                            mUserBlufiCallback.onGattPrepared(mClient, gatt, cbService, cbWriteChar, cbNotifyChar);
+                            mUserBlufiCallback.onGattPrepared(mClient, gatt, service, writeChar, notifyChar);
                         }
                     });
                 }
-
             }
         }
 
         public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-            if (characteristic.equals(mNotifyChar)) {
-                if (mNotifyData == null) {
-                    mNotifyData = new BlufiNotifyData();
-                }
-                byte[] data = characteristic.getValue();
-                if (mPrintDebug) {
-                    Log.i(TAG, "Gatt Notification: " + Arrays.toString(data));
-                }
-                // lt 0 is error, eq 0 is complete, gt 0 is continue
-                int parse = parseNotification(data, mNotifyData);
-                if (parse < 0) {
-                    onError(BlufiCallback.CODE_INVALID_NOTIFICATION);
-                } else if (parse == 0) {
-                    parseBlufiNotifyData(mNotifyData);
-                    mNotifyData = null;
-                }
+            BlufiTransport.Listener listener = getGattTransportListener();
+            if (listener != null && characteristic.equals(mNotifyChar)) {
+                listener.onNotification(characteristic.getValue());
             }
 
             if (mUserGattCallback != null) {
@@ -1468,11 +1730,12 @@ class BlufiClientImpl implements BlufiParameter {
         }
 
         public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            if (characteristic.equals(mWriteChar)) {
+            BlufiTransport.Listener listener = getGattTransportListener();
+            if (listener != null && characteristic.equals(mWriteChar)) {
                 if (status != BluetoothGatt.GATT_SUCCESS) {
                     Log.w(TAG, "onCharacteristicWrite: status=" + status);
                 }
-                mWriteResultQueue.add(status == BluetoothGatt.GATT_SUCCESS);
+                listener.onWriteComplete(status == BluetoothGatt.GATT_SUCCESS);
             }
 
             if (mUserGattCallback != null) {
@@ -1480,6 +1743,11 @@ class BlufiClientImpl implements BlufiParameter {
             }
         }
 
+        private BlufiTransport.Listener getGattTransportListener() {
+            BlufiTransport transport = mTransport;
+            return transport instanceof BlufiGattTransport ? ((BlufiGattTransport) transport).getListener() : null;
+        }
+
         public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
             if (mUserGattCallback != null) {
                 mUserGattCallback.onCharacteristicRead(gatt, characteristic, status);
@@ -1498,7 +1766,7 @@ class BlufiClientImpl implements BlufiParameter {
                 BluetoothGattService service = descriptor.getCharacteristic().getService();
                 BluetoothGattCharacteristic notifyChar = descriptor.getCharacteristic();
                 BluetoothGattCharacteristic writeChar = mWriteChar;
-                mUIHandler.post(() -> {
+                postCallback(() -> {
                     if (mUserBlufiCallback != null) {
                         mUserBlufiCallback.onGattPrepared(mClient, gatt, service, writeChar, notifyChar);
                     }
@@ -1525,13 +1793,22 @@ class BlufiClientImpl implements BlufiParameter {
        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
         public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
             if (status == BluetoothGatt.GATT_SUCCESS) {
-                mBlufiMTU = mtu - 4; // Three bytes BLE header, one byte reserved
-                Log.d(TAG, "MTU changed to: " + mBlufiMTU);
-
+                mBlufiMTU = Math.min(mtu - 4, MAX_PACKAGE_LENGTH); // Three bytes BLE header, one byte reserved
+                Log.d(TAG, "MTU changed to: " + mtu + ", package length: " + mBlufiMTU);
+            } else {
+                Log.w(TAG, "MTU request rejected, status=" + status);
             }
             if (mUserGattCallback != null) {
                 mUserGattCallback.onMtuChanged(gatt, mtu, status);
             }
+
+            if (mMtuNegotiating) {
+                mMtuNegotiating = false;
+                BluetoothGattCharacteristic writeChar = mWriteChar;
+                BluetoothGattCharacteristic notifyChar = mNotifyChar;
+                BluetoothGattService service = notifyChar == null ? null : notifyChar.getService();
+                prepareGatt(gatt, service, writeChar, notifyChar);
+            }
         }
 
         @TargetApi(Build.VERSION_CODES.O)
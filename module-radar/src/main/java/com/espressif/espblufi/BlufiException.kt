@@ -0,0 +1,20 @@
+/**
+ * File: BlufiException.kt
+ * Path: module-radar/src/main/java/com/espressif/espblufi/BlufiException.kt
+ *
+ * BlufiClient 操作失败的异常
+ * */
+package com.espressif.espblufi
+
+/**
+ * BlufiClient 操作失败
+ *
+ * @param code [BlufiCallback] 中的状态码或错误码，或 [CODE_DISCONNECTED]、[CODE_TIMEOUT]
+ */
+class BlufiException(val code: Int, message: String) : Exception("$message: $code") {
+    companion object {
+        const val CODE_DISCONNECTED = -5000
+        // 等待设备响应超时
+        const val CODE_TIMEOUT = -5001
+    }
+}
@@ -0,0 +1,97 @@
+package com.espressif.espblufi;
+
+import android.util.Log;
+
+import com.espressif.espblufi.security.BlufiCRC;
+import com.espressif.espblufi.security.BlufiCryptoSession;
+
+/**
+ * Reads one notified BluFi frame into a {@link BlufiNotifyData}:
+ * checks the length, decrypts the data into a scratch array, verifies the checksum
+ * and strips the two bytes total length of a fragment.
+ * Not thread safe, a client decodes its notifications on the GATT callback thread.
+ */
+class BlufiFrameDecoder {
+    private static final String TAG = "BlufiFrameDecoder";
+
+    static final int RESULT_COMPLETE = 0;
+    static final int RESULT_FRAGMENT = 1;
+    static final int ERR_LENGTH = -2;
+    static final int ERR_CHECKSUM = -4;
+    static final int ERR_DECRYPT = -5;
+    static final int ERR_DATA_LENGTH = -100;
+
+    private final byte[] mScratch = new byte[BlufiFrameEncoder.MAX_DATA_LENGTH];
+
+    /**
+     * The sequence is checked by the caller, the frame must be at least the header long.
+     *
+     * @param cryptoSession decrypts the frame if it is encrypted, may be null before the negotiation
+     * @return {@link #RESULT_COMPLETE} if the message is complete, {@link #RESULT_FRAGMENT} if more fragments
+     * follow, a negative error code otherwise
+     */
+    int decode(byte[] response, BlufiCryptoSession cryptoSession, BlufiNotifyData notification) {
+        if (response.length < BlufiFrameEncoder.HEADER_LENGTH) {
+            Log.w(TAG, "decode: data length less than " + BlufiFrameEncoder.HEADER_LENGTH);
+            return ERR_LENGTH;
+        }
+
+        int type = response[0] & 0xff;
+        notification.setType(type);
+        notification.setPkgType(type & 0b11);
+        notification.setSubType((type & 0b11111100) >> 2);
+
+        int frameCtrl = response[1] & 0xff;
+        notification.setFrameCtrl(frameCtrl);
+        FrameCtrlData frameCtrlData = new FrameCtrlData(frameCtrl);
+
+        int sequence = response[2] & 0xff;
+        int dataLen = response[3] & 0xff;
+        int dataOffset = BlufiFrameEncoder.HEADER_LENGTH;
+        if (response.length < dataOffset + dataLen) {
+            Log.w(TAG, "decode: data length less than " + dataLen);
+            return ERR_DATA_LENGTH;
+        }
+        byte[] dataBytes = response;
+        if (frameCtrlData.isEncrypted()) {
+            if (cryptoSession == null
+                    || !cryptoSession.decrypt(sequence, response, dataOffset, dataLen, mScratch, 0)) {
+                Log.w(TAG, "decode: decrypt failed");
+                return ERR_DECRYPT;
+            }
+            dataBytes = mScratch;
+            dataOffset = 0;
+        }
+
+        if (frameCtrlData.isChecksum()) {
+            int respChecksum1 = response[response.length - 1] & 0xff;
+            int respChecksum2 = response[response.length - 2] & 0xff;
+
+            // Sequence and data length, then the plain data
+            int crc = BlufiCRC.calcCRC(0, response, 2, 2);
+            crc = BlufiCRC.calcCRC(crc, dataBytes, dataOffset, dataLen);
+            int calcChecksum1 = crc >> 8 & 0xff;
+            int calcChecksum2 = crc & 0xff;
+
+            if (respChecksum1 != calcChecksum1 || respChecksum2 != calcChecksum2) {
+                Log.w(TAG, "decode: invalid checksum, expect " + respChecksum1 + ", " + respChecksum2
+                        + ", received " + calcChecksum1 + ", " + calcChecksum2);
+                return ERR_CHECKSUM;
+            }
+        }
+
+        int totalLen = dataLen;
+        if (frameCtrlData.hasFrag()) {
+            if (dataLen < BlufiFrameEncoder.FRAG_LENGTH) {
+                Log.w(TAG, "decode: fragment without total length");
+                return ERR_DATA_LENGTH;
+            }
+            totalLen = (dataBytes[dataOffset] & 0xff) | ((dataBytes[dataOffset + 1] & 0xff) << 8);
+            dataOffset += BlufiFrameEncoder.FRAG_LENGTH;
+            dataLen -= BlufiFrameEncoder.FRAG_LENGTH;
+        }
+        notification.addData(dataBytes, dataOffset, dataLen, totalLen);
+
+        return frameCtrlData.hasFrag() ? RESULT_FRAGMENT : RESULT_COMPLETE;
+    }
+}
@@ -0,0 +1,100 @@
+package com.espressif.espblufi;
+
+import com.espressif.espblufi.params.BlufiParameter;
+import com.espressif.espblufi.security.BlufiCRC;
+import com.espressif.espblufi.security.BlufiCryptoSession;
+
+/**
+ * Writes BluFi frames straight into a frame array:
+ * header, the two bytes total length if the frame is a fragment, the data (encrypted in place) and the checksum.
+ * The frame arrays are cached by length and reused, so posting fragments of the same size creates no garbage.
+ * Not thread safe, a client encodes its frames on its single worker thread.
+ */
+class BlufiFrameEncoder {
+    static final int HEADER_LENGTH = 4;
+    static final int FRAG_LENGTH = 2;
+    static final int CHECKSUM_LENGTH = 2;
+    static final int MAX_DATA_LENGTH = 0xff;
+    static final int MAX_FRAME_LENGTH = HEADER_LENGTH + MAX_DATA_LENGTH + CHECKSUM_LENGTH;
+
+    private final byte[][] mFrames = new byte[MAX_FRAME_LENGTH + 1][];
+
+    private BlufiCryptoSession mCryptoSession;
+
+    void setCryptoSession(BlufiCryptoSession cryptoSession) {
+        mCryptoSession = cryptoSession;
+    }
+
+    /**
+     * @param length the length of the data carried by the frame, without the fragment total length
+     */
+    static int getFrameLength(boolean checksum, boolean frag, int length) {
+        return HEADER_LENGTH + (frag ? FRAG_LENGTH : 0) + length + (checksum ? CHECKSUM_LENGTH : 0);
+    }
+
+    /**
+     * Encode a frame into a cached array. The array is reused by the next frame of the same length.
+     *
+     * @param totalLength the remaining data length including this frame if the frame is a fragment, -1 if it is not
+     * @return the frame, null if encrypt failed
+     */
+    byte[] encode(int type, boolean encrypt, boolean checksum, boolean requireAck, int sequence,
+                  byte[] data, int offset, int length, int totalLength) {
+        int frameLength = getFrameLength(checksum, totalLength >= 0, length);
+        byte[] frame = mFrames[frameLength];
+        if (frame == null) {
+            frame = new byte[frameLength];
+            mFrames[frameLength] = frame;
+        }
+        return encode(frame, type, encrypt, checksum, requireAck, sequence, data, offset, length, totalLength) ?
+                frame : null;
+    }
+
+    /**
+     * Encode a frame into the given array, the array length must be
+     * {@link #getFrameLength(boolean, boolean, int)}
+     *
+     * @param totalLength the remaining data length including this frame if the frame is a fragment, -1 if it is not
+     * @return false if encrypt failed
+     */
+    boolean encode(byte[] frame, int type, boolean encrypt, boolean checksum, boolean requireAck, int sequence,
+                   byte[] data, int offset, int length, int totalLength) {
+        boolean frag = totalLength >= 0;
+        int dataLength = frag ? length + FRAG_LENGTH : length;
+        if (dataLength > MAX_DATA_LENGTH) {
+            throw new IllegalArgumentException("Frame data length " + dataLength + " is over " + MAX_DATA_LENGTH);
+        }
+
+        frame[0] = (byte) type;
+        frame[1] = (byte) FrameCtrlData.getFrameCTRLValue(encrypt, checksum, BlufiParameter.DIRECTION_OUTPUT,
+                requireAck, frag);
+        frame[2] = (byte) sequence;
+        frame[3] = (byte) dataLength;
+
+        int position = HEADER_LENGTH;
+        if (frag) {
+            frame[position++] = (byte) (totalLength & 0xff);
+            frame[position++] = (byte) (totalLength >> 8 & 0xff);
+        }
+        if (length > 0) {
+            System.arraycopy(data, offset, frame, position, length);
+        }
+
+        int crc = 0;
+        if (checksum) {
+            // Checksum of sequence, data length and the plain data
+            crc = BlufiCRC.calcCRC(0, frame, 2, 2 + dataLength);
+        }
+        if (encrypt && dataLength > 0) {
+            if (mCryptoSession == null || !mCryptoSession.encrypt(sequence, frame, HEADER_LENGTH, dataLength)) {
+                return false;
+            }
+        }
+        if (checksum) {
+            frame[HEADER_LENGTH + dataLength] = (byte) (crc & 0xff);
+            frame[HEADER_LENGTH + dataLength + 1] = (byte) (crc >> 8 & 0xff);
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,51 @@
+package com.espressif.espblufi;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+/**
+ * Writes the frames to the BluFi write characteristic. The GATT callback of the client
+ * feeds the notifications and the write results to {@link #getListener()}.
+ */
+class BlufiGattTransport implements BlufiTransport {
+    private final BluetoothGatt mGatt;
+    private final BluetoothGattCharacteristic mWriteChar;
+    private volatile Listener mListener;
+
+    BlufiGattTransport(BluetoothGatt gatt, BluetoothGattCharacteristic writeChar) {
+        mGatt = gatt;
+        mWriteChar = writeChar;
+    }
+
+    Listener getListener() {
+        return mListener;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void write(byte[] data) {
+        // The result comes in onCharacteristicWrite
+        mWriteChar.setValue(data);
+        mGatt.writeCharacteristic(mWriteChar);
+    }
+
+    @Override
+    public int getMaxPackageLength() {
+        // Learned in onMtuChanged
+        return -1;
+    }
+
+    @Override
+    public String getAddress() {
+        return mGatt.getDevice() == null ? null : mGatt.getDevice().getAddress();
+    }
+
+    @Override
+    public void close() {
+        mListener = null;
+    }
+}
@@ -0,0 +1,84 @@
+package com.espressif.espblufi;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Learns per firmware version how long the device needs after the negotiation length frame
+ * before it accepts the DH parameters. Only used when the device does not ACK the length frame.
+ * The delay shrinks after each successful negotiation and doubles after each failure. After a
+ * failure it never shrinks below the last delay that worked again.
+ */
+class BlufiNegotiationTuner {
+    static final long INITIAL_READY_DELAY = 1000L;
+    static final long MIN_READY_DELAY = 100L;
+    static final long MAX_READY_DELAY = 8000L;
+
+    private static final String UNKNOWN_VERSION = "unknown";
+
+    private static class Delay {
+        long mCurrent = INITIAL_READY_DELAY;
+        // The last delay a negotiation succeeded with, 0 before the first success
+        long mWorked;
+        long mFloor = MIN_READY_DELAY;
+    }
+
+    private final Map<String, Delay> mDelays = new HashMap<>();
+    private volatile boolean mDelayUsed;
+
+    synchronized long getReadyDelay(String version) {
+        Delay delay = mDelays.get(key(version));
+        return delay != null ? delay.mCurrent : INITIAL_READY_DELAY;
+    }
+
+    /**
+     * @return true once a device did not ACK the length frame, before that the delay per
+     * firmware version is never used and reading the version is not needed
+     */
+    boolean isVersionNeeded() {
+        return mDelayUsed;
+    }
+
+    /**
+     * The device acknowledged the length frame, waiting twice as long covers it without the ACK
+     */
+    synchronized void onReadyByAck(String version, long latency) {
+        Delay delay = delay(version);
+        delay.mCurrent = clamp(Math.max(delay.mFloor, Math.min(delay.mCurrent, latency * 2)));
+    }
+
+    synchronized void onSuccess(String version, long usedDelay) {
+        mDelayUsed = true;
+        Delay delay = delay(version);
+        delay.mWorked = usedDelay;
+        delay.mCurrent = clamp(Math.max(delay.mFloor, usedDelay * 3 / 4));
+    }
+
+    synchronized void onFailure(String version, long usedDelay) {
+        mDelayUsed = true;
+        Delay delay = delay(version);
+        if (delay.mWorked > usedDelay) {
+            // The shrink went too far, stop at the delay that worked
+            delay.mFloor = Math.max(delay.mFloor, delay.mWorked);
+        }
+        delay.mCurrent = clamp(Math.max(delay.mFloor, usedDelay * 2));
+    }
+
+    private Delay delay(String version) {
+        String key = key(version);
+        Delay delay = mDelays.get(key);
+        if (delay == null) {
+            delay = new Delay();
+            mDelays.put(key, delay);
+        }
+        return delay;
+    }
+
+    private static String key(String version) {
+        return version != null ? version : UNKNOWN_VERSION;
+    }
+
+    private static long clamp(long delay) {
+        return Math.max(MIN_READY_DELAY, Math.min(delay, MAX_READY_DELAY));
+    }
+}
@@ -1,18 +1,30 @@
 package com.espressif.espblufi;
 
-import java.io.ByteArrayOutputStream;
+import android.util.Log;
 
+import java.util.Arrays;
+
+/**
+ * Reassembles the fragments of one notification message.
+ * The buffer is allocated from the total length carried by the first fragment, and every
+ * fragment is written into place. Call {@link #recycle()} once the message is dispatched.
+ */
 class BlufiNotifyData {
+    private static final String TAG = "BlufiNotifyData";
+
     private int mTypeValue;
     private int mPkgType;
     private int mSubType;
 
     private int mFrameCtrlValue;
 
-    private final ByteArrayOutputStream mDataOS;
+    private final BlufiBufferPool mBufferPool;
+    private byte[] mData;
+    private int mDataLength;
+    private boolean mDetached;
 
-    BlufiNotifyData() {
-        mDataOS = new ByteArrayOutputStream();
+    BlufiNotifyData(BlufiBufferPool bufferPool) {
+        mBufferPool = bufferPool;
     }
 
     int getType() {
@@ -47,11 +59,78 @@ class BlufiNotifyData {
         mFrameCtrlValue = frameCtrl;
     }
 
-    void addData(byte[] bytes, int offset) {
-        mDataOS.write(bytes, offset, bytes.length - offset);
+    /**
+     * Write the payload of a fragment after the data received before.
+     *
+     * @param totalLength the length of the whole message, only read for the first fragment
+     */
+    void addData(byte[] bytes, int offset, int length, int totalLength) {
+        if (mData == null) {
+            mData = mBufferPool.obtain(Math.max(totalLength, length));
+        } else if (mDataLength + length > mData.length) {
+            Log.w(TAG, "Notification data exceeds the total length " + mData.length);
+            byte[] grown = Arrays.copyOf(mData, mDataLength + length);
+            mBufferPool.recycle(mData);
+            mData = grown;
+        }
+        System.arraycopy(bytes, offset, mData, mDataLength, length);
+        mDataLength += length;
+    }
+
+    /**
+     * @return the length of the data received so far
+     */
+    int getDataLength() {
+        return mDataLength;
+    }
+
+    /**
+     * @return the data received so far, in the first {@link #getDataLength()} bytes, without copy.
+     * It may be null before the first fragment and is only valid until the next fragment or {@link #recycle()}
+     */
+    byte[] peekDataArray() {
+        return mData;
     }
 
+    /**
+     * @return the reassembled data without copy. It is only valid until {@link #recycle()}
+     */
     byte[] getDataArray() {
-        return mDataOS.toByteArray();
+        if (mData == null) {
+            mData = mBufferPool.obtain(0);
+        } else if (mDataLength < mData.length) {
+            // The device announced more than it sent
+            Log.w(TAG, "Notification data is shorter than the total length " + mData.length);
+            byte[] trimmed = mBufferPool.obtain(mDataLength);
+            System.arraycopy(mData, 0, trimmed, 0, mDataLength);
+            mBufferPool.recycle(mData);
+            mData = trimmed;
+        }
+        return mData;
+    }
+
+    /**
+     * @return the reassembled data, which will not be returned to the pool
+     */
+    byte[] detachDataArray() {
+        byte[] result = getDataArray();
+        mDetached = true;
+        return result;
+    }
+
+    /**
+     * Return the buffer to the pool unless it is detached, and reset for the next message
+     */
+    void recycle() {
+        if (mData != null && !mDetached) {
+            mBufferPool.recycle(mData);
+        }
+        mData = null;
+        mDataLength = 0;
+        mDetached = false;
+        mTypeValue = 0;
+        mPkgType = 0;
+        mSubType = 0;
+        mFrameCtrlValue = 0;
     }
 }
@@ -0,0 +1,44 @@
+package com.espressif.espblufi;
+
+import java.util.Locale;
+
+/**
+ * Thrown when a device response is shorter than its own length fields say, or a field is invalid.
+ */
+class BlufiParseException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final int mOffset;
+    private final int mRequired;
+    private final int mAvailable;
+
+    BlufiParseException(String field, int offset, int required, int available) {
+        super(String.format(Locale.ENGLISH, "%s truncated at offset %d: required %d, available %d",
+                field, offset, required, available));
+        mOffset = offset;
+        mRequired = required;
+        mAvailable = available;
+    }
+
+    BlufiParseException(String message, int offset) {
+        super(message);
+        mOffset = offset;
+        mRequired = 0;
+        mAvailable = 0;
+    }
+
+    /**
+     * @return the offset in the data of the truncated field
+     */
+    int getOffset() {
+        return mOffset;
+    }
+
+    int getRequired() {
+        return mRequired;
+    }
+
+    int getAvailable() {
+        return mAvailable;
+    }
+}
@@ -0,0 +1,123 @@
+package com.espressif.espblufi;
+
+import com.espressif.espblufi.params.BlufiParameter;
+import com.espressif.espblufi.response.BlufiScanResult;
+import com.espressif.espblufi.response.BlufiStatusResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the data of the device responses with a {@link BlufiTlvReader}, without Android dependencies
+ */
+final class BlufiResponseParser {
+    private BlufiResponseParser() {
+    }
+
+    static void parseWifiState(byte[] data, BlufiStatusResponse response) throws BlufiParseException {
+        parseWifiState(new BlufiTlvReader(data), response);
+    }
+
+    /**
+     * Fills the response while parsing, the fields before a truncated one are kept.
+     *
+     * @param reader positioned at the start of the data
+     */
+    static void parseWifiState(BlufiTlvReader reader, BlufiStatusResponse response) throws BlufiParseException {
+        response.setOpMode(reader.readUnsignedByte("op mode"));
+        response.setStaConnectionStatus(reader.readUnsignedByte("station connection status"));
+        response.setSoftAPConnectionCount(reader.readUnsignedByte("softAP connection count"));
+
+        while (reader.hasRemaining()) {
+            reader.nextTlv();
+            parseWifiStateData(reader, response);
+        }
+    }
+
+    private static void parseWifiStateData(BlufiTlvReader reader, BlufiStatusResponse response)
+            throws BlufiParseException {
+        switch (reader.type()) {
+            case BlufiParameter.Type.Data.SUBTYPE_STA_WIFI_BSSID:
+                response.setStaBSSID(reader.valueHex());
+                break;
+            case BlufiParameter.Type.Data.SUBTYPE_STA_WIFI_SSID:
+                response.setStaSSID(reader.valueString());
+                break;
+            case BlufiParameter.Type.Data.SUBTYPE_STA_WIFI_PASSWORD:
+                response.setStaPassword(reader.valueString());
+                break;
+            case BlufiParameter.Type.Data.SUBTYPE_SOFTAP_AUTH_MODE:
+                response.setSoftAPSecrity(reader.valueUnsignedByte());
+                break;
+            case BlufiParameter.Type.Data.SUBTYPE_SOFTAP_CHANNEL:
+                response.setSoftAPChannel(reader.valueUnsignedByte());
+                break;
+            case BlufiParameter.Type.Data.SUBTYPE_SOFTAP_MAX_CONNECTION_COUNT:
+                response.setSoftAPMaxConnectionCount(reader.valueUnsignedByte());
+                break;
+            case BlufiParameter.Type.Data.SUBTYPE_SOFTAP_WIFI_PASSWORD:
+                response.setSoftAPPassword(reader.valueString());
+                break;
+            case BlufiParameter.Type.Data.SUBTYPE_SOFTAP_WIFI_SSID:
+                response.setSoftAPSSID(reader.valueString());
+                break;
+            case BlufiParameter.Type.Data.SUBTYPE_WIFI_STA_MAX_CONN_RETRY:
+                response.setMaxRetry(reader.valueUnsignedByte());
+                break;
+            case BlufiParameter.Type.Data.SUBTYPE_WIFI_STA_CONN_END_REASON:
+                response.setEndReason(reader.valueUnsignedByte());
+                break;
+            case BlufiParameter.Type.Data.SUBTYPE_WIFI_STA_CONN_RSSI:
+                response.setRssi(reader.valueByte());
+                break;
+        }
+    }
+
+    static List<BlufiScanResult> parseWifiScanList(byte[] data) throws BlufiParseException {
+        ArrayList<BlufiScanResult> results = new ArrayList<>();
+        parseWifiScanList(new BlufiTlvReader(data), results);
+        return results;
+    }
+
+    /**
+     * Each entry is a length byte, the RSSI and the SSID, the length counts the RSSI and the SSID.
+     * The entries before a truncated or invalid one are kept in the results.
+     *
+     * @param reader positioned at the start of the data
+     * @param results receives the entries, its capacity is grown once for all of them
+     */
+    static void parseWifiScanList(BlufiTlvReader reader, ArrayList<BlufiScanResult> results)
+            throws BlufiParseException {
+        parseWifiScanEntries(reader, results, true);
+    }
+
+    /**
+     * Parse the entries of a scan list that is still being received.
+     * The reader stops before an incomplete last entry, at the position to resume from.
+     *
+     * @param complete true if the data is the whole list, an incomplete last entry is then an error
+     */
+    static void parseWifiScanEntries(BlufiTlvReader reader, ArrayList<BlufiScanResult> results, boolean complete)
+            throws BlufiParseException {
+        results.ensureCapacity(results.size() + reader.countLengthPrefixed());
+        while (reader.hasRemaining()) {
+            int offset = reader.position();
+            int length = reader.peekUnsignedByte();
+            if (length < 1) {
+                throw new BlufiParseException("Wi-Fi scan entry has an invalid length " + length, offset);
+            }
+            if (!complete && reader.remaining() < 1 + length) {
+                break;
+            }
+            reader.skip("Wi-Fi scan entry length", 1);
+            int rssi = reader.readByte("Wi-Fi scan RSSI");
+            String ssid = reader.readString("Wi-Fi scan SSID", length - 1);
+
+            BlufiScanResult sr = new BlufiScanResult();
+            sr.setType(BlufiScanResult.TYPE_WIFI);
+            sr.setRssi(rssi);
+            sr.setSsid(ssid);
+            results.add(sr);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.espressif.espblufi;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Walks a decrypted response in place with a cursor, without copying the fields.
+ * Strings are decoded as UTF-8. A field that runs past the end throws a {@link BlufiParseException}.
+ * <p>
+ * {@link #nextTlv()} reads the type and length of the next entry and checks the whole value is present,
+ * the value is then read with the value methods, which do not move past the entry.
+ * Not thread safe, one reader can be {@link #reset} for each response.
+ */
+final class BlufiTlvReader {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private byte[] mData;
+    private int mPosition;
+    private int mLimit;
+
+    private int mType;
+    private int mValueOffset;
+    private int mValueLength;
+
+    BlufiTlvReader() {
+        mData = new byte[0];
+    }
+
+    BlufiTlvReader(byte[] data) {
+        reset(data, 0, data.length);
+    }
+
+    BlufiTlvReader reset(byte[] data, int offset, int length) {
+        mData = data;
+        mPosition = offset;
+        mLimit = offset + length;
+        mType = -1;
+        mValueOffset = offset;
+        mValueLength = 0;
+        return this;
+    }
+
+    int position() {
+        return mPosition;
+    }
+
+    int remaining() {
+        return mLimit - mPosition;
+    }
+
+    boolean hasRemaining() {
+        return mPosition < mLimit;
+    }
+
+    /**
+     * @return the next byte, unsigned, without moving the cursor. There must be one remaining
+     */
+    int peekUnsignedByte() {
+        return mData[mPosition] & 0xff;
+    }
+
+    int readUnsignedByte(String field) throws BlufiParseException {
+        require(field, 1);
+        return mData[mPosition++] & 0xff;
+    }
+
+    int readByte(String field) throws BlufiParseException {
+        require(field, 1);
+        return mData[mPosition++];
+    }
+
+    String readString(String field, int length) throws BlufiParseException {
+        require(field, length);
+        String result = new String(mData, mPosition, length, StandardCharsets.UTF_8);
+        mPosition += length;
+        return result;
+    }
+
+    void skip(String field, int length) throws BlufiParseException {
+        require(field, length);
+        mPosition += length;
+    }
+
+    /**
+     * Count the entries prefixed by a one byte length that follow, jumping from length to length,
+     * without moving the cursor. A truncated last entry is counted.
+     */
+    int countLengthPrefixed() {
+        int count = 0;
+        for (int i = mPosition; i < mLimit; i += 1 + (mData[i] & 0xff)) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Read the type and the length of the next entry, the cursor moves to the entry after.
+     */
+    void nextTlv() throws BlufiParseException {
+        mType = readUnsignedByte("TLV type");
+        int length = readUnsignedByte("TLV length");
+        if (length > mLimit - mPosition) {
+            throw new BlufiParseException("TLV value of type " + mType, mPosition, length, mLimit - mPosition);
+        }
+        mValueOffset = mPosition;
+        mValueLength = length;
+        mPosition += length;
+    }
+
+    int type() {
+        return mType;
+    }
+
+    int valueLength() {
+        return mValueLength;
+    }
+
+    /**
+     * @return the first byte of the value, unsigned
+     */
+    int valueUnsignedByte() throws BlufiParseException {
+        requireValue(1);
+        return mData[mValueOffset] & 0xff;
+    }
+
+    /**
+     * @return the first byte of the value, signed
+     */
+    int valueByte() throws BlufiParseException {
+        requireValue(1);
+        return mData[mValueOffset];
+    }
+
+    String valueString() {
+        return new String(mData, mValueOffset, mValueLength, StandardCharsets.UTF_8);
+    }
+
+    String valueHex() {
+        char[] chars = new char[mValueLength * 2];
+        for (int i = 0; i < mValueLength; i++) {
+            int b = mData[mValueOffset + i] & 0xff;
+            chars[i * 2] = HEX[b >>> 4];
+            chars[i * 2 + 1] = HEX[b & 0x0f];
+        }
+        return new String(chars);
+    }
+
+    private void require(String field, int length) throws BlufiParseException {
+        if (length > mLimit - mPosition) {
+            throw new BlufiParseException(field, mPosition, length, mLimit - mPosition);
+        }
+    }
+
+    private void requireValue(int length) throws BlufiParseException {
+        if (length > mValueLength) {
+            throw new BlufiParseException("TLV value of type " + mType, mValueOffset, length, mValueLength);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.espressif.espblufi;
+
+/**
+ * The link the BluFi frames travel on. On a phone it is the GATT write and notify characteristics,
+ * other implementations let the protocol run against a simulated device on a plain JVM.
+ * <p>
+ * Frames are written one at a time, the client waits for {@link Listener#onWriteComplete(boolean)}
+ * before the next write. Notifications must be delivered one at a time in the order they arrive.
+ */
+public interface BlufiTransport {
+    interface Listener {
+        /**
+         * Called for each frame notified by the device
+         *
+         * @param data the frame, it is not kept after this method returns
+         */
+        void onNotification(byte[] data);
+
+        /**
+         * Called once for each {@link #write(byte[])}
+         *
+         * @param success false if the frame was not delivered
+         */
+        void onWriteComplete(boolean success);
+
+        /**
+         * Called when the link is lost, no more events follow
+         */
+        void onClosed();
+    }
+
+    /**
+     * @param listener receives the notifications and the write results, null to stop receiving them
+     */
+    void setListener(Listener listener);
+
+    /**
+     * Write one frame, the result is reported to {@link Listener#onWriteComplete(boolean)}
+     */
+    void write(byte[] data);
+
+    /**
+     * @return the longest frame the link carries, -1 if the client should use its own limit
+     */
+    int getMaxPackageLength();
+
+    /**
+     * @return the address of the device, e.g. the MAC, null if unknown
+     */
+    String getAddress();
+
+    /**
+     * Stop delivering events. The GATT transport leaves the connection to its owner.
+     */
+    void close();
+}
@@ -23,6 +23,7 @@ import android.net.MacAddress
 import android.net.wifi.WifiSsid
 import android.os.Handler
 import android.os.Looper
+import android.os.SystemClock
 import android.util.Log
 
 //common data type
@@ -37,8 +38,12 @@ import android.os.Build
 
 import com.espressif.espblufi.constants.BlufiConstants
 import com.espressif.espblufi.params.BlufiConfigureParams
+import com.espressif.espblufi.response.BlufiScanResult
 import com.espressif.espblufi.response.BlufiStatusResponse
 import com.espressif.espblufi.response.BlufiVersionResponse
+import com.espressif.espblufi.security.BlufiSessionCache
+
+import java.util.concurrent.CompletableFuture
 
 
 /**
@@ -57,8 +62,14 @@ class RadarBleManager private constructor(private val context: Context) {
         private const val QUERY_TIMEOUT = 25000L  // 查询超时时间 25秒
         private const val GATT_WRITE_TIMEOUT = 10000L //连接超时间10秒
         private const val CONFIGSERVER_TIMEOUT=25000L
-        private const val COMMAND_DELAYTIME=1000L
+        private const val PROVISION_TIMEOUT=40000L  // WiFi 和服务器配置共用
+        private const val COMMAND_TIMEOUT=2000L  // 自定义命令无响应时的等待时间
+        private const val WIFI_SCAN_TIMEOUT = 20000L  // 设备端 WiFi 扫描超时
         private const val DEVICERESTART_DELAYTIME=5000L
+        private const val ACQUIRE_SUPERSEDED = "Superseded"  // 等待连接期间被新操作取代
+
+        // 流水线状态读取默认发送的自定义查询
+        val STATUS_QUERIES: Set<RadarCommand> = setOf(RadarCommand.GET_UID, RadarCommand.GET_WIFI_STATUS)
 
         // 错误处理相关常量
         private const val MAX_RETRY_COUNT = 3
@@ -88,6 +99,9 @@ class RadarBleManager private constructor(private val context: Context) {
 
     // Then add this initialization in the init block or constructor:
     init {
+        // 提前在后台生成安全协商的DH密钥对
+        BlufiClient.prepareSecurity()
+
         keepAliveRunnable = Runnable {
             if (isConnecting && blufiClient != null) {
                 Log.d(TAG, "Sending keep-alive signal")
@@ -156,12 +170,47 @@ class RadarBleManager private constructor(private val context: Context) {
     }
 
     private var isScanning = false
-    private var filterPrefix: String? = null
-    private var filterType: FilterType = FilterType.DEVICE_NAME
+    // 当前扫描的过滤条件，硬件过滤不了的部分在回调中匹配
+    private var scanFilter = RadarScanFilter(FilterType.DEVICE_NAME, null)
     private var configureCallback: ((Boolean) -> Unit)? = null
 
+    // 直接连接上的自定义命令请求，按命令号匹配设备的响应
+    private val commandMux = RadarCommandMux(mainHandler) { data ->
+        blufiClient?.let { client ->
+            client.postCustomData(data)
+            true
+        } ?: false
+    }
+
+    // 已协商的会话缓存，启用后重连同一设备时先尝试复用密钥
+    private var sessionCache: BlufiSessionCache? = null
+
+    // 查询、配网等操作从连接池借用连接，连续的操作复用同一条连接
+    private val connectionPool = RadarConnectionPool(context)
+    // blufiClient 是否借自连接池，借来的连接由连接池断开
+    private var isPooledClient = false
+    // 每次借用加一，被新操作取代的借用结果直接归还
+    private var acquireSequence = 0
+    // 还在等待连接的借用的设备 MAC
+    private var acquiringMac: String? = null
+
+    // 设备端 WiFi 扫描结果，按设备 MAC 缓存
+    private val wifiScanCache = RadarWifiScanCache()
+
     // 扫描回调
     private var scanCallback: ((DeviceInfo) -> Unit)? = null
+    private var scanBatchCallback: ((RadarScanAggregator.ScanBatch) -> Unit)? = null
+
+    // 扫描结果分发专用，disconnect() 清空 mainHandler 时不影响扫描批次
+    private val scanHandler = Handler(Looper.getMainLooper())
+
+    // 按 MAC 合并重复广播，按帧率在主线程批量分发
+    private val scanAggregator = RadarScanAggregator(scanHandler).apply {
+        batchListener = { batch -> dispatchScanBatch(batch) }
+    }
+
+    // 批量扫描的上报延迟，0 表示逐条上报
+    private var scanReportDelay = 0L
 
     //endregion
 
@@ -189,6 +238,31 @@ class RadarBleManager private constructor(private val context: Context) {
     }
 
 
+    /**
+     * 启用/禁用会话复用
+     * 启用后重连同一设备（相同固件版本）时先用缓存的密钥，设备不认可时再完整协商
+     * 密钥只保存在内存中
+     */
+    fun enableSessionResumption(enable: Boolean) {
+        if (enable) {
+            if (sessionCache == null) {
+                sessionCache = BlufiSessionCache()
+            }
+        } else {
+            sessionCache?.clear()
+            sessionCache = null
+        }
+        blufiClient?.setSessionCache(sessionCache)
+        connectionPool.sessionCache = sessionCache
+    }
+
+    /**
+     * 设置设备端 WiFi 扫描结果的缓存有效期
+     */
+    fun setWifiScanCacheTtl(ttl: Long) {
+        wifiScanCache.ttl = ttl
+    }
+
     /**
      * 设置扫描回调
      */
@@ -196,6 +270,30 @@ class RadarBleManager private constructor(private val context: Context) {
         scanCallback = callback
     }
 
+    /**
+     * 设置批量扫描回调
+     * 每帧回调一次，包含本帧新发现和有变化的设备，同一设备每帧最多出现一次
+     */
+    fun setScanBatchCallback(callback: ((RadarScanAggregator.ScanBatch) -> Unit)?) {
+        scanBatchCallback = callback
+    }
+
+    /**
+     * 设置扫描结果的分发帧率，默认每秒 5 帧
+     */
+    fun setScanFrameRate(framesPerSecond: Int) {
+        scanAggregator.setFrameRate(framesPerSecond)
+    }
+
+    /**
+     * 设置批量扫描的上报延迟，下次扫描生效
+     * 大于 0 且控制器支持时由控制器缓存广播，通过 onBatchScanResults 一次上报，减少唤醒
+     * @param delayMillis 上报延迟，0 表示逐条上报
+     */
+    fun setScanReportDelay(delayMillis: Long) {
+        scanReportDelay = delayMillis.coerceAtLeast(0L)
+    }
+
 
     /**
      * 连接设备
@@ -218,10 +316,16 @@ class RadarBleManager private constructor(private val context: Context) {
     private fun connect(device: BluetoothDevice) {
         Log.d(TAG, "Starting connection to device: ${device.address}")
         disconnect()
+        // 直接连接时不与连接池同时连接同一设备
+        connectionPool.evict(device.address)
 
         BlufiClient(context, device).also { client ->
             blufiClient = client
 
+            // 本类的状态只在主线程访问，BluFi 回调切回主线程
+            client.setCallbackExecutor(context.mainExecutor)
+            client.setSessionCache(sessionCache)
+
             // 设置 GATT 回调
             client.setGattCallback(createGattCallback())
             client.setBlufiCallback(createBlufiCallback())
@@ -309,20 +413,83 @@ class RadarBleManager private constructor(private val context: Context) {
      */
     fun disconnect() {
         isConnecting = false
+        commandMux.failAll(BlufiException(BlufiException.CODE_DISCONNECTED, "Disconnected"))
 
         // 移除所有挂起的回调以防止内存泄漏
         mainHandler.removeCallbacksAndMessages(null)
 
-        // 直接同步执行关闭操作，不使用延迟,否则在connect开始调用，会中断Rigster
-        try {
-            blufiClient?.close()
-        } catch (e: Exception) {
-            Log.e(TAG, "Error closing BluetoothGatt", e)
+        // 借来的连接交还连接池断开
+        val client = blufiClient
+        if (isPooledClient && client != null) {
+            connectionPool.release(client, reusable = false)
+        } else {
+            // 直接同步执行关闭操作，不使用延迟,否则在connect开始调用，会中断Rigster
+            try {
+                client?.close()
+            } catch (e: Exception) {
+                Log.e(TAG, "Error closing BluetoothGatt", e)
+            }
         }
         blufiClient = null
+        isPooledClient = false
         configureCallback = null
     }
 
+    /**
+     * 从连接池借用设备的连接，借到时已完成服务发现和安全协商
+     * 借用期间 blufiClient 指向该连接，操作结束后调用 releaseClient 归还
+     *
+     * @param callback 借用期间的 BluFi 回调
+     * @param onAcquired client 为 null 时 error 为失败原因，被新操作取代时为 [ACQUIRE_SUPERSEDED]
+     */
+    private fun acquireClient(
+        device: BluetoothDevice,
+        callback: BlufiCallback,
+        onAcquired: (client: BlufiClient?, error: String?) -> Unit
+    ) {
+        // 上一个操作还在等待连接时取消它的借用，否则同一设备会一直显示被占用
+        acquiringMac?.let {
+            acquiringMac = null
+            connectionPool.cancelAcquire(it, ACQUIRE_SUPERSEDED)
+        }
+        disconnect()
+        currentDeviceMac = device.address
+        acquiringMac = device.address
+        val sequence = ++acquireSequence
+        connectionPool.acquire(device, callback) { client, error ->
+            if (sequence != acquireSequence) {
+                // 等待连接期间已开始了新的操作
+                client?.let { connectionPool.release(it) }
+                onAcquired(null, ACQUIRE_SUPERSEDED)
+                return@acquire
+            }
+            acquiringMac = null
+            if (client != null) {
+                blufiClient = client
+                isPooledClient = true
+            }
+            onAcquired(client, error)
+        }
+    }
+
+    /**
+     * 归还借用的连接
+     *
+     * @param reusable false 时断开连接，如设备将要重启或通信出错
+     */
+    private fun releaseClient(reusable: Boolean) {
+        val client = blufiClient
+        if (!isPooledClient || client == null) {
+            disconnect()
+            return
+        }
+        commandMux.failAll(BlufiException(BlufiException.CODE_DISCONNECTED, "Client released"))
+        blufiClient = null
+        isPooledClient = false
+        configureCallback = null
+        connectionPool.release(client, reusable)
+    }
+
     /**
      * 释放资源
      */
@@ -330,7 +497,11 @@ class RadarBleManager private constructor(private val context: Context) {
         stopScan()
         disconnect()
         mainHandler.removeCallbacksAndMessages(null)
+        scanHandler.removeCallbacksAndMessages(null)
+        scanAggregator.clear()
         currentDeviceMac = null
+        connectionPool.evictAll()
+        sessionCache?.clear()
         instance = null
     }
 
@@ -463,8 +634,15 @@ class RadarBleManager private constructor(private val context: Context) {
                 Log.d(TAG, "Device version: $status, response: $response")
             }
 
+            override fun onPostCustomDataResult(client: BlufiClient, status: Int, data: ByteArray?) {
+                commandMux.onPostResult(status, data)
+            }
+
             override fun onReceiveCustomData(client: BlufiClient, status: Int, data: ByteArray) {
                 Log.d(TAG, "Received custom data, status: $status")
+                if (status == STATUS_SUCCESS) {
+                    commandMux.onResponse(data)
+                }
             }
 
             override fun onError(client: BlufiClient, errCode: Int) {
@@ -529,27 +707,41 @@ class RadarBleManager private constructor(private val context: Context) {
 
     /**
      * 开始扫描
+     * 完整 MAC、完整 UUID、精确设备名和 BluFi 服务由控制器过滤，部分匹配仍在回调中过滤
      * @param filterPrefix 过滤值，null 或空值时不过滤
      * @param filterType 过滤类型，默认为设备名称过滤
+     * @param exactName 设备名按精确名称（区分大小写）过滤，默认按包含过滤
+     * @param blufiOnly 只扫描广播了 BluFi 服务 UUID 的设备
      */
-    fun startScan(filterPrefix: String?, filterType: FilterType = FilterType.DEVICE_NAME) {
+    fun startScan(
+        filterPrefix: String?,
+        filterType: FilterType = FilterType.DEVICE_NAME,
+        exactName: Boolean = false,
+        blufiOnly: Boolean = false
+    ) {
         if (isScanning) return
+        scanFilter = RadarScanFilter(filterType, filterPrefix, exactName, blufiOnly)
         Log.d(
             TAG,
-            "RadarBleManager startScan with filterPrefix: '$filterPrefix', filterType: $filterType"
+            "RadarBleManager startScan with filterPrefix: '$filterPrefix', filterType: $filterType, $scanFilter, " +
+                    "offloaded filtering: ${bluetoothAdapter?.isOffloadedFilteringSupported}"
         )
-        this.filterPrefix = filterPrefix
-        this.filterType = filterType
 
         bluetoothAdapter?.bluetoothLeScanner?.let { scanner ->
             isScanning = true
 
-            val settings = ScanSettings.Builder()
+            // 新一轮扫描重新聚合
+            scanAggregator.clear()
+
+            val settingsBuilder = ScanSettings.Builder()
                 .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
-                .build()
+            if (scanReportDelay > 0 && bluetoothAdapter?.isOffloadedScanBatchingSupported == true) {
+                settingsBuilder.setReportDelay(scanReportDelay)
+            }
+            val settings = settingsBuilder.build()
 
             try {
-                scanner.startScan(null, settings, leScanCallback)
+                scanner.startScan(scanFilter.scanFilters, settings, leScanCallback)
                 mainHandler.postDelayed(scanTimeoutRunnable, SCAN_TIMEOUT)
             } catch (e: Exception) {
                 Log.e(TAG, "Start scan failed: ${e.message}")
@@ -568,61 +760,61 @@ class RadarBleManager private constructor(private val context: Context) {
         bluetoothAdapter?.bluetoothLeScanner?.let { scanner ->
             isScanning = false
             try {
+                // 取回控制器缓存的批量结果
+                if (scanReportDelay > 0) {
+                    scanner.flushPendingScanResults(leScanCallback)
+                }
                 scanner.stopScan(leScanCallback)
-                Log.d(TAG, "Scan stopped")
+                val stats = scanFilter.getStats()
+                Log.d(TAG, "Scan stopped, callbacks hardware matched: ${stats.hardwareMatched}, " +
+                        "software matched: ${stats.softwareMatched}, software rejected: ${stats.softwareRejected}, " +
+                        "unfiltered: ${stats.unfiltered}")
             } catch (e: Exception) {
                 Log.e(TAG, "Stop scan failed: ${e.message}")
             }
         }
+
+        // 分发最后一帧
+        scanHandler.post { scanAggregator.flush() }
     }
 
-    private val leScanCallback = object : ScanCallback() {
-        override fun onScanResult(callbackType: Int, result: ScanResult) {
-            // 只有在设置了过滤条件时才进行过滤
-            val prefix = filterPrefix
-            if (!prefix.isNullOrEmpty()) {
-                when (filterType) {
-                    FilterType.DEVICE_NAME -> {
-                        val deviceName = result.device.name
-                        if (deviceName == null || !deviceName.contains(prefix, ignoreCase = true)) {
-                            return
-                        }
-                    }
+    /**
+     * 当前（或上一次）扫描的过滤统计：硬件过滤后直接接受的回调数，软件匹配接受和丢弃的回调数
+     */
+    fun getScanFilterStats(): RadarScanFilter.Stats {
+        return scanFilter.getStats()
+    }
 
-                    FilterType.MAC -> {
-                        val deviceMac = result.device.address
-                        if (!deviceMac.replace(":", "")
-                                .replace("-", "")
-                                .contains(prefix, ignoreCase = true)
-                        ) {
-                            return
-                        }
-                    }
+    /**
+     * 主线程分发一帧扫描结果
+     */
+    private fun dispatchScanBatch(batch: RadarScanAggregator.ScanBatch) {
+        scanBatchCallback?.invoke(batch)
+        scanCallback?.let { callback ->
+            batch.added.forEach { callback(it.device) }
+            batch.updated.forEach { callback(it.device) }
+        }
+    }
 
-                    FilterType.UUID -> {
-                        val scanRecord = result.scanRecord ?: return
-                        val serviceUuids = scanRecord.serviceUuids ?: return
-                        val matchFound = serviceUuids.any { uuid ->
-                            uuid.toString().contains(prefix, ignoreCase = true)
-                        }
-                        if (!matchFound) {
-                            return
-                        }
-                    }
-                }
-            }
+    /**
+     * 过滤并聚合一条扫描结果，不在此处创建 DeviceInfo 或切换线程
+     */
+    private fun handleScanResult(result: ScanResult) {
+        if (!scanFilter.matches(result)) {
+            return
+        }
+
+        scanAggregator.offer(result.device.address, result.device.name, result.rssi)
+    }
 
-            // 转换为 DeviceInfo
-            val deviceInfo = DeviceInfo(
-                productorName = Productor.radarQL,
-                deviceName = result.device.name ?: "Unknown",
-                deviceId = result.device.name ?: result.device.address,
-                macAddress = result.device.address,
-                rssi = result.rssi,
-           )
-
-            mainHandler.post {
-                scanCallback?.invoke(deviceInfo)
+    private val leScanCallback = object : ScanCallback() {
+        override fun onScanResult(callbackType: Int, result: ScanResult) {
+            handleScanResult(result)
+        }
+
+        override fun onBatchScanResults(results: MutableList<ScanResult>) {
+            for (result in results) {
+                handleScanResult(result)
             }
         }
 
@@ -638,11 +830,19 @@ class RadarBleManager private constructor(private val context: Context) {
     /**
      * 查询RadarQL设备状态
      * 依次查询：UID -> WiFi Status -> Server Status
+     *
+     * @param pipelined 为 true 时使用 [readDeviceStatus] 连续发送全部查询，回调的 Map 键不变
      */
     fun queryDeviceStatus(
         deviceInfo: DeviceInfo,
+        pipelined: Boolean = false,
         callback: ((Map<String, String>) -> Unit)? = null
     ) {
+        if (pipelined) {
+            readDeviceStatus(deviceInfo) { snapshot -> callback?.invoke(snapshot.toMap()) }
+            return
+        }
+
         Log.d(
             TAG,
             "Start query device status for: ${deviceInfo.deviceId}, MAC: ${deviceInfo.macAddress}"
@@ -667,67 +867,79 @@ class RadarBleManager private constructor(private val context: Context) {
             if (!isQueryComplete) {
                 isQueryComplete = true
                 statusMap["error"] = "Query timeout"
+                releaseClient(reusable = false)
                 callback?.invoke(statusMap)
-                disconnect()
             }
         }
 
-        // 连接设备
-        Log.d(TAG, "Connecting to device: ${device.address}")
-        connect(device)
-
-        // 设置回调
-        blufiClient?.setBlufiCallback(object : BlufiCallback() {
-            override fun onGattPrepared(
-                client: BlufiClient,
-                gatt: BluetoothGatt,
-                service: BluetoothGattService?,
-                writeChar: BluetoothGattCharacteristic?,
-                notifyChar: BluetoothGattCharacteristic?
-            ) {
-                Log.d(
-                    TAG,
-                    "onGattPrepared: service=${service != null}, write=${writeChar != null}, notify=${notifyChar != null}"
-                )
+        // 自定义数据按命令号查表分发，每个命令一个处理函数
+        var queryClient: BlufiClient? = null
+        var customDataStatus = BlufiCallback.STATUS_SUCCESS
+        val customData = RadarCustomDataDispatcher()
+        customData.onText(RadarCommand.GET_UID) { message ->
+            hasUID = true
+            val uid = message.field(0)?.trim()
+            if (customDataStatus == BlufiCallback.STATUS_SUCCESS && uid != null) {
+                statusMap["uid"] = uid
+                Log.d(TAG, "Extracted UID: '$uid'")
+            } else {
+                Log.e(TAG, "Failed to parse UID response, status=$customDataStatus, response=$message")
+                statusMap["uidError"] = "Failed to parse UID response"
+            }
 
-                if (service == null || writeChar == null || notifyChar == null) {
-                    Log.e(TAG, "Discover service failed")
-                    if (!isQueryComplete) {
-                        isQueryComplete = true
-                        statusMap["error"] = "Service discovery failed"
-                        callback?.invoke(statusMap)
-                    }
-                    disconnect()
-                    return
+            // 检查查询状态
+            Log.d(TAG, "Query status: hasWifiStatus=$hasWifiStatus, hasUID=$hasUID")
+            if (hasWifiStatus || statusMap.containsKey("wifiError")) {
+                if (!isQueryComplete) {
+                    isQueryComplete = true
+                    Log.d(TAG, "Query complete, returning results: $statusMap")
+                    mainHandler.removeCallbacks(queryTimeoutRunnable)
+                    // 先归还连接，回调中可以立即开始下一个操作
+                    releaseClient(reusable = true)
+                    callback?.invoke(statusMap)
                 }
-
-                // 设置超时
-                mainHandler.postDelayed(queryTimeoutRunnable, QUERY_TIMEOUT)
-
-                // 先进行安全协商
-                Log.d(TAG, "Starting security negotiation")
-                client.negotiateSecurity()
+            } else {
+                // 如果还没有 WiFi 状态，尝试查询
+                Log.d(TAG, "UID received but no WiFi status yet, requesting device status")
+                queryClient?.requestDeviceStatus()
             }
+        }
+        customData.onText(RadarCommand.GET_WIFI_STATUS) { message ->
+            // WiFi 状态响应 "62:模式:连接状态:SSID"
+            Log.d(TAG, "WiFi status from custom command: $message")
+            val mode = message.field(0)
+            val connection = message.field(1)
+            if (mode != null && connection != null) {
+                val connected = connection == "0"
+                statusMap["customWifiMode"] = when (mode) {
+                    "1" -> "STA"
+                    "2" -> "AP"
+                    "3" -> "APSTA"
+                    else -> "Unknown"
+                }
+                statusMap["customWifiConnected"] = connected.toString()
 
-            override fun onNegotiateSecurityResult(client: BlufiClient, status: Int) {
-                Log.d(TAG, "Security negotiation result: $status")
-
-                if (status == STATUS_SUCCESS) {
-                    // 协商成功，开始查询设备状态
-                    Log.d(TAG, "Requesting device status...")
-                    client.requestDeviceStatus()
-                } else {
-                    Log.e(TAG, "Security negotiation failed with status: $status")
-                    if (!isQueryComplete) {
-                        isQueryComplete = true
-                        statusMap["error"] = "Security negotiation failed: $status"
-                        callback?.invoke(statusMap)
-                        mainHandler.removeCallbacks(queryTimeoutRunnable)
-                        disconnect()
-                    }
+                // SSID 可能包含 ':'，取剩余全部内容
+                val ssid = message.remainderFrom(2)
+                if (connected && ssid != null) {
+                    statusMap["customWifiSSID"] = ssid
+                    Log.d(TAG, "WiFi connected to SSID: $ssid")
                 }
             }
+        }
+        customData.unhandled = { data ->
+            val response = String(data, Charsets.UTF_8)
+            Log.w(TAG, "Unhandled custom data: $response")
+            if (RadarCustomDataCodec.commandOf(data) == RadarCustomDataCodec.NO_COMMAND) {
+                statusMap["unparsedResponse"] = response
+            } else {
+                statusMap["unknownResponse"] = response
+            }
+        }
 
+        // 从连接池借用连接，已完成服务发现和安全协商
+        Log.d(TAG, "Acquiring connection to device: ${device.address}")
+        acquireClient(device, object : BlufiCallback() {
             override fun onDeviceStatusResponse(
                 client: BlufiClient,
                 status: Int,
@@ -779,7 +991,7 @@ class RadarBleManager private constructor(private val context: Context) {
 
                     // 继续执行后续操作
                     Log.d(TAG, "Requesting device UID...")
-                    client.postCustomData("12:".toByteArray())
+                    client.postCustomData(RadarCommand.GET_UID.toBytes())
                 } else {
                     Log.e(TAG, "Failed to get device status, status code: $status")
                     // 错误处理代码...
@@ -789,121 +1001,14 @@ class RadarBleManager private constructor(private val context: Context) {
             }
 
             override fun onReceiveCustomData(client: BlufiClient, status: Int, data: ByteArray) {
-                Log.d(TAG, "=================== CUSTOM DATA RESPONSE BEGIN ===================")
-                Log.d(TAG, "Status code: $status")
-                Log.d(TAG, "Raw data length: ${data.size} bytes")
-                Log.d(TAG, "Raw data bytes: ${data.contentToString()}")
-
-                // 转换为十六进制
-                val hexString = data.joinToString("") { "%02X".format(it) }
-                Log.d(TAG, "Data as hex: $hexString")
-
-                // 转换为字符串
+                Log.d(TAG, "Custom data response, status: $status, ${data.size} bytes")
+                customDataStatus = status
                 try {
-                    val stringData = String(data)
-                    Log.d(TAG, "Data as string: '$stringData'")
-
-                    // 尝试解析
-                    if (stringData.contains(":")) {
-                        val parts = stringData.split(":")
-                        Log.d(TAG, "Split by ':' - parts count: ${parts.size}")
-                        for (i in parts.indices) {
-                            Log.d(TAG, "Part $i: '${parts[i]}'")
-                        }
-
-                        val command = parts.getOrNull(0)?.toIntOrNull()
-                        Log.d(TAG, "Command part as integer: $command")
-
-                        when (command) {
-                            12 -> { // UID 响应
-                                hasUID = true
-                                Log.d(TAG, "Identified as UID response (command=12)")
-
-                                if (status == STATUS_SUCCESS && parts.size >= 2) {
-                                    val uid = parts[1].trim()
-                                    statusMap["uid"] = uid
-                                    Log.d(TAG, "Extracted UID: '$uid'")
-                                } else {
-                                    Log.e(
-                                        TAG,
-                                        "Failed to parse UID response, status=$status, parts.size=${parts.size}"
-                                    )
-                                    statusMap["uidError"] = "Failed to parse UID response"
-                                }
-
-                                // 检查查询状态
-                                Log.d(
-                                    TAG,
-                                    "Query status: hasWifiStatus=$hasWifiStatus, hasUID=$hasUID"
-                                )
-                                if (hasWifiStatus || statusMap.containsKey("wifiError")) {
-                                    if (!isQueryComplete) {
-                                        isQueryComplete = true
-                                        Log.d(TAG, "Query complete, returning results")
-                                        Log.d(TAG, "Final statusMap: $statusMap")
-                                        callback?.invoke(statusMap)
-                                        mainHandler.removeCallbacks(queryTimeoutRunnable)
-                                        disconnect()
-                                    } else {
-                                        Log.d(TAG, "Query already completed previously")
-                                    }
-                                } else {
-                                    // 如果还没有 WiFi 状态，尝试查询
-                                    Log.d(
-                                        TAG,
-                                        "UID received but no WiFi status yet, requesting device status"
-                                    )
-                                    client.requestDeviceStatus()
-                                }
-                            }
-
-                            62 -> { // WiFi 状态响应 (如果使用自定义命令查询WiFi)
-                                Log.d(TAG, "Identified as WiFi status response (command=62)")
-                                Log.d(
-                                    TAG,
-                                    "WiFi status from custom command: ${parts.joinToString(":")}"
-                                )
-
-                                if (parts.size >= 3) {
-                                    val mode = parts[1]
-                                    val connected = parts[2] == "0"
-                                    statusMap["customWifiMode"] = when (mode) {
-                                        "1" -> "STA"
-                                        "2" -> "AP"
-                                        "3" -> "APSTA"
-                                        else -> "Unknown"
-                                    }
-                                    statusMap["customWifiConnected"] = connected.toString()
-
-                                    if (connected && parts.size > 3) {
-                                        statusMap["customWifiSSID"] = parts[3]
-                                        Log.d(TAG, "WiFi connected to SSID: ${parts[3]}")
-                                    }
-                                }
-                            }
-
-                            else -> {
-                                Log.w(
-                                    TAG,
-                                    "Unknown custom data command: $command, response: $stringData"
-                                )
-                                statusMap["unknownResponse"] = stringData
-                            }
-                        }
-                    } else {
-                        Log.w(
-                            TAG,
-                            "Custom data doesn't contain ':' separator, can't parse as command"
-                        )
-                        statusMap["unparsedResponse"] = stringData
-                    }
+                    customData.dispatch(data)
                 } catch (e: Exception) {
                     Log.e(TAG, "Error parsing custom data", e)
                     statusMap["parseError"] = "Failed to parse response: ${e.message}"
-                    e.printStackTrace()
                 }
-
-                Log.d(TAG, "=================== CUSTOM DATA RESPONSE END ===================")
             }
 
             override fun onError(client: BlufiClient, errCode: Int) {
@@ -911,12 +1016,236 @@ class RadarBleManager private constructor(private val context: Context) {
                 if (!isQueryComplete) {
                     isQueryComplete = true
                     statusMap["error"] = "Communication error: $errCode"
-                    callback?.invoke(statusMap)
                     mainHandler.removeCallbacks(queryTimeoutRunnable)
-                    disconnect()
+                    releaseClient(reusable = false)
+                    callback?.invoke(statusMap)
+                }
+            }
+        }) { client, error ->
+            if (client == null) {
+                Log.e(TAG, "Acquire connection failed: $error")
+                if (!isQueryComplete) {
+                    isQueryComplete = true
+                    statusMap["error"] = error ?: "Connection failed"
+                    callback?.invoke(statusMap)
+                }
+                return@acquireClient
+            }
+
+            // 设置超时
+            mainHandler.postDelayed(queryTimeoutRunnable, QUERY_TIMEOUT)
+
+            // 开始查询设备状态
+            Log.d(TAG, "Requesting device status...")
+            queryClient = client
+            client.requestDeviceStatus()
+        }
+    }
+
+    /**
+     * 流水线方式读取设备状态
+     * - 借到已完成安全协商的连接后，BluFi 状态请求和各个自定义查询连续发送，不等前一个响应
+     * - 自定义查询的响应由 commandMux 按命令号匹配，全部收到、失败或超时后合并为一个快照回调
+     * - 某一项失败不影响其他项，失败原因记录在快照的 errors 中
+     *
+     * @param queries 要发送的自定义查询，只支持文本命令
+     */
+    fun readDeviceStatus(
+        deviceInfo: DeviceInfo,
+        queries: Set<RadarCommand> = STATUS_QUERIES,
+        callback: (RadarStatusSnapshot) -> Unit
+    ) {
+        require(queries.all { it.isText }) { "Only text commands can be pipelined: $queries" }
+        Log.d(TAG, "Read device status of ${deviceInfo.macAddress}, queries: $queries")
+
+        val device = bluetoothAdapter?.getRemoteDevice(deviceInfo.macAddress) ?: run {
+            callback(RadarStatusSnapshot().withError(RadarStatusSnapshot.ERROR, "Invalid device address"))
+            return
+        }
+
+        var snapshot = RadarStatusSnapshot()
+        var startTime = SystemClock.elapsedRealtime()
+        // BluFi 状态和每个查询各算一项
+        var remaining = 1 + queries.size
+        var timedOut = false
+        var isComplete = false
+
+        val statusFuture = CompletableFuture<BlufiStatusResponse>()
+        val statusTimeoutRunnable = Runnable {
+            statusFuture.completeExceptionally(
+                BlufiException(BlufiException.CODE_TIMEOUT, "Device status timed out"))
+        }
+
+        fun finish(reusable: Boolean) {
+            if (isComplete) return
+            isComplete = true
+            mainHandler.removeCallbacks(statusTimeoutRunnable)
+            snapshot = snapshot.copy(elapsedTime = SystemClock.elapsedRealtime() - startTime)
+            Log.d(TAG, "Device status read in ${snapshot.elapsedTime} ms: $snapshot")
+            // 先归还连接，回调中可以立即开始下一个操作；等待中的查询此时以异常完成，不再合并
+            releaseClient(reusable)
+            callback(snapshot)
+        }
+
+        fun partDone(error: Throwable?) {
+            if (error is BlufiException && error.code == BlufiException.CODE_TIMEOUT) {
+                timedOut = true
+            }
+            if (--remaining == 0) {
+                // 超时的连接可能还会收到迟到的响应，不再复用
+                finish(reusable = !timedOut)
+            }
+        }
+
+        statusFuture.whenComplete { response, error ->
+            if (isComplete) return@whenComplete
+            snapshot = if (error != null) {
+                snapshot.withError(RadarStatusSnapshot.WIFI_ERROR, error.message ?: "Device status failed")
+            } else {
+                snapshot.merge(response)
+            }
+            partDone(error)
+        }
+
+        acquireClient(device, object : BlufiCallback() {
+            override fun onDeviceStatusResponse(
+                client: BlufiClient,
+                status: Int,
+                response: BlufiStatusResponse
+            ) {
+                mainHandler.removeCallbacks(statusTimeoutRunnable)
+                if (status == STATUS_SUCCESS) {
+                    statusFuture.complete(response)
+                } else {
+                    statusFuture.completeExceptionally(BlufiException(status, "Device status failed"))
+                }
+            }
+
+            override fun onPostCustomDataResult(client: BlufiClient, status: Int, data: ByteArray?) {
+                commandMux.onPostResult(status, data)
+            }
+
+            override fun onReceiveCustomData(client: BlufiClient, status: Int, data: ByteArray) {
+                if (status != STATUS_SUCCESS || !commandMux.onResponse(data)) {
+                    Log.w(TAG, "Unhandled custom data, status: $status, ${String(data, Charsets.UTF_8)}")
+                }
+            }
+
+            override fun onError(client: BlufiClient, errCode: Int) {
+                Log.e(TAG, "BluFi error: $errCode")
+                snapshot = snapshot.withError(RadarStatusSnapshot.ERROR, "Communication error: $errCode")
+                finish(reusable = false)
+            }
+        }) { client, error ->
+            if (client == null) {
+                Log.e(TAG, "Acquire connection failed: $error")
+                isComplete = true
+                callback(snapshot.withError(RadarStatusSnapshot.ERROR, error ?: "Connection failed"))
+                return@acquireClient
+            }
+
+            // 连接已完成安全协商，全部请求连续发送，BlufiClient 按顺序写出
+            startTime = SystemClock.elapsedRealtime()
+            mainHandler.postDelayed(statusTimeoutRunnable, QUERY_TIMEOUT)
+            client.requestDeviceStatus()
+            for (query in queries) {
+                commandMux.request(query, timeout = QUERY_TIMEOUT).whenComplete { message, queryError ->
+                    if (isComplete) return@whenComplete
+                    snapshot = if (queryError != null) {
+                        snapshot.withError(RadarStatusSnapshot.errorKey(query),
+                            queryError.message ?: "${query.name} failed")
+                    } else {
+                        snapshot.merge(message)
+                    }
+                    partDone(queryError)
+                }
+            }
+        }
+    }
+
+    /**
+     * 让设备扫描附近的 WiFi
+     * - 有未过期的缓存时先立即回调缓存结果（fromCache = true），SSID 列表可以马上打开
+     * - refresh 为 true 或没有缓存时，再让设备重新扫描，结果边收边回调，与缓存合并显示
+     * - 扫描完成后只保留本次结果，写入缓存，最后一次回调 isComplete = true
+     * 结果按 SSID 去重，同名网络保留信号最强的，按信号从强到弱排序
+     *
+     * @param refresh 有缓存时是否仍在后台重新扫描
+     */
+    fun scanDeviceWifi(
+        macAddress: String,
+        refresh: Boolean = true,
+        callback: (RadarWifiScanCache.Update) -> Unit
+    ) {
+        val cached = wifiScanCache.get(macAddress)
+        if (cached != null) {
+            Log.d(TAG, "WiFi scan cache of $macAddress: ${cached.results.size} networks, age ${cached.age} ms")
+            callback(RadarWifiScanCache.Update(cached.results, fromCache = true, isComplete = !refresh))
+            if (!refresh) {
+                return
+            }
+        }
+        val cachedResults = cached?.results ?: emptyList()
+
+        val device = bluetoothAdapter?.getRemoteDevice(macAddress) ?: run {
+            callback(RadarWifiScanCache.Update(cachedResults, cached != null, true, "Invalid device address"))
+            return
+        }
+
+        // 本次扫描收到的结果
+        val freshResults = ArrayList<BlufiScanResult>()
+        var isComplete = false
+
+        fun fail(error: String, reusable: Boolean) {
+            if (isComplete) return
+            isComplete = true
+            Log.e(TAG, "WiFi scan of $macAddress failed: $error")
+            releaseClient(reusable)
+            callback(RadarWifiScanCache.Update(cachedResults, cached != null, true, error))
+        }
+
+        val scanTimeoutRunnable = Runnable { fail("WiFi scan timeout", reusable = false) }
+
+        acquireClient(device, object : BlufiCallback() {
+            override fun onDeviceScanProgress(client: BlufiClient, results: List<BlufiScanResult>) {
+                if (isComplete) return
+                freshResults.addAll(results)
+                callback(RadarWifiScanCache.Update(
+                    RadarWifiScanCache.merge(cachedResults, freshResults), fromCache = false, isComplete = false))
+            }
+
+            override fun onDeviceScanResult(client: BlufiClient, status: Int, results: List<BlufiScanResult>?) {
+                if (isComplete) return
+                mainHandler.removeCallbacks(scanTimeoutRunnable)
+                if (status != STATUS_SUCCESS || results == null) {
+                    fail("WiFi scan failed: $status", reusable = status == CODE_INVALID_DATA)
+                    return
+                }
+                isComplete = true
+                // 完整列表已包含边收边回调的结果
+                val merged = wifiScanCache.put(macAddress, results)
+                Log.d(TAG, "WiFi scan of $macAddress: ${results.size} results, ${merged.size} networks")
+                releaseClient(reusable = true)
+                callback(RadarWifiScanCache.Update(merged, fromCache = false, isComplete = true))
+            }
+
+            override fun onError(client: BlufiClient, errCode: Int) {
+                mainHandler.removeCallbacks(scanTimeoutRunnable)
+                fail("Communication error: $errCode", reusable = false)
+            }
+        }) { client, error ->
+            if (client == null) {
+                if (!isComplete) {
+                    isComplete = true
+                    callback(RadarWifiScanCache.Update(cachedResults, cached != null, true,
+                        error ?: "Connection failed"))
                 }
+                return@acquireClient
             }
-        })
+
+            mainHandler.postDelayed(scanTimeoutRunnable, WIFI_SCAN_TIMEOUT)
+            client.requestDeviceWifiScan()
+        }
     }
 
     //endregion
@@ -958,65 +1287,14 @@ class RadarBleManager private constructor(private val context: Context) {
                 isComplete = true
                 resultMap["error"] = "WiFi configuration timeout"
                 resultMap["success"] = "false"
+                releaseClient(reusable = false)
                 callback?.invoke(resultMap)
-                disconnect()
             }
         }
 
-        // 连接设备
-        Log.d(TAG, "Connecting to device: ${device.address}")
-        connect(device)
-
-        // 设置回调
-        blufiClient?.setBlufiCallback(object : BlufiCallback() {
-            override fun onGattPrepared(client: BlufiClient,
-                                        gatt: BluetoothGatt,
-                                        service: BluetoothGattService?,
-                                        writeChar: BluetoothGattCharacteristic?,
-                                        notifyChar: BluetoothGattCharacteristic?) {
-                if (service == null || writeChar == null || notifyChar == null) {
-                    Log.e(TAG, "Discover service failed")
-                    if (!isComplete) {
-                        isComplete = true
-                        resultMap["error"] = "Service discovery failed"
-                        resultMap["success"] = "false"
-                        callback?.invoke(resultMap)
-                        disconnect()
-                    }
-                    return
-                }
-
-                // 设置超时
-                mainHandler.postDelayed(configTimeoutRunnable, 20000)
-
-                // 开始安全协商
-                client.negotiateSecurity()
-            }
-
-            override fun onNegotiateSecurityResult(client: BlufiClient, status: Int) {
-                if (status == STATUS_SUCCESS) {
-                    // 安全协商成功，开始配置WiFi
-                    // 配置WiFi
-                    Log.d(TAG, "Configuring WiFi: SSID=${_ssid}")
-                    val params = BlufiConfigureParams().apply {
-                        opMode = 1  // STA模式
-                        staSSIDBytes = _ssid.toByteArray()
-                        staPassword = _password
-                    }
-                    client.configure(params)
-                } else {
-                    // 安全协商失败
-                    if (!isComplete) {
-                        isComplete = true
-                        resultMap["error"] = "Security negotiation failed: $status"
-                        resultMap["success"] = "false"
-                        callback?.invoke(resultMap)
-                        mainHandler.removeCallbacks(configTimeoutRunnable)
-                        disconnect()
-                    }
-                }
-            }
-
+        // 从连接池借用连接，已完成服务发现和安全协商
+        Log.d(TAG, "Acquiring connection to device: ${device.address}")
+        acquireClient(device, object : BlufiCallback() {
             override fun onPostConfigureParams(client: BlufiClient, status: Int) {
                 if (!isComplete) {
                     isComplete = true
@@ -1037,12 +1315,12 @@ class RadarBleManager private constructor(private val context: Context) {
                     // 添加完成时间
                     resultMap["completedAt"] = System.currentTimeMillis().toString()
 
+                    // 清理资源，配置成功时保留连接，后续的服务器配置可以复用
+                    mainHandler.removeCallbacks(configTimeoutRunnable)
+                    releaseClient(reusable = status == STATUS_SUCCESS)
+
                     // 返回结果
                     callback?.invoke(resultMap)
-
-                    // 清理资源
-                    mainHandler.removeCallbacks(configTimeoutRunnable)
-                    disconnect()
                 }
             }
 
@@ -1052,12 +1330,35 @@ class RadarBleManager private constructor(private val context: Context) {
                     resultMap["error"] = "Communication error: $errCode"
                     resultMap["success"] = "false"
                     resultMap["completedAt"] = System.currentTimeMillis().toString()
-                    callback?.invoke(resultMap)
                     mainHandler.removeCallbacks(configTimeoutRunnable)
-                    disconnect()
+                    releaseClient(reusable = false)
+                    callback?.invoke(resultMap)
                 }
             }
-        })
+        }) { client, error ->
+            if (client == null) {
+                Log.e(TAG, "Acquire connection failed: $error")
+                if (!isComplete) {
+                    isComplete = true
+                    resultMap["error"] = error ?: "Connection failed"
+                    resultMap["success"] = "false"
+                    callback?.invoke(resultMap)
+                }
+                return@acquireClient
+            }
+
+            // 设置超时
+            mainHandler.postDelayed(configTimeoutRunnable, 20000)
+
+            // 配置WiFi
+            Log.d(TAG, "Configuring WiFi: SSID=${_ssid}")
+            val params = BlufiConfigureParams().apply {
+                opMode = 1  // STA模式
+                staSSIDBytes = _ssid.toByteArray()
+                staPassword = _password
+            }
+            client.configure(params)
+        }
     }
 
     /**
@@ -1086,204 +1387,57 @@ class RadarBleManager private constructor(private val context: Context) {
 
         // 配置状态控制
         var isComplete = false
-        var addressConfigured = false
-        var portConfigured = false
-        var deviceRestarted = false
+        val sequencer = RadarCommandSequencer(mainHandler) { command ->
+            Log.d(TAG, "Sending command: $command")
+            blufiClient?.postCustomData(command.toByteArray())
+        }
 
         // 配置超时
         val configTimeoutRunnable = Runnable {
             Log.e(TAG, "Server configuration timeout after 25 seconds")
             if (!isComplete) {
                 isComplete = true
+                if (sequencer.isRunning) {
+                    RadarCommandSequencer.putServerResults(resultMap, sequencer.stepResults)
+                }
+                sequencer.cancel()
                 resultMap["error"] = "Server configuration timeout"
                 resultMap["success"] = "false"
+                releaseClient(reusable = false)
                 callback?.invoke(resultMap)
-                disconnect()
             }
         }
 
-        // 连接设备
-        Log.d(TAG, "Connecting to device: ${device.address}")
-        connect(device)
-
-        // 设置回调
-        blufiClient?.setBlufiCallback(object : BlufiCallback() {
-            override fun onGattPrepared(client: BlufiClient,
-                                        gatt: BluetoothGatt,
-                                        service: BluetoothGattService?,
-                                        writeChar: BluetoothGattCharacteristic?,
-                                        notifyChar: BluetoothGattCharacteristic?) {
-                if (service == null || writeChar == null || notifyChar == null) {
-                    Log.e(TAG, "Discover service failed")
-                    if (!isComplete) {
-                        isComplete = true
-                        resultMap["error"] = "Service discovery failed"
-                        resultMap["success"] = "false"
-                        callback?.invoke(resultMap)
-                        disconnect()
-                    }
-                    return
-                }
-
-                // 设置超时
-                mainHandler.postDelayed(configTimeoutRunnable, CONFIGSERVER_TIMEOUT)
-
-                // 开始安全协商
-                client.negotiateSecurity()
-            }
-
-            override fun onNegotiateSecurityResult(client: BlufiClient, status: Int) {
-                if (status == STATUS_SUCCESS) {
-                    // 安全协商成功，开始配置服务器
-                    sendServerCommands(client)
-                } else {
-                    // 安全协商失败
-                    if (!isComplete) {
-                        isComplete = true
-                        resultMap["error"] = "Security negotiation failed: $status"
-                        resultMap["success"] = "false"
-                        callback?.invoke(resultMap)
-                        mainHandler.removeCallbacks(configTimeoutRunnable)
-                        disconnect()
-                    }
-                }
-            }
-
-            private fun sendServerCommands(client: BlufiClient) {
-                // 发送服务器地址
-                val serverCmd = "1:${serverConfig.serverAddress}"
-                Log.d(TAG, "Sending server address command: $serverCmd")
-                client.postCustomData(serverCmd.toByteArray())
-
-                // 等待服务器地址响应后再发送端口 - 延迟发送端口命令
-                mainHandler.postDelayed({
-                    if (!isComplete) {  // 检查是否已完成
-                        // 发送服务器端口
-                        val portCmd = "2:${serverConfig.port}"
-                        Log.d(TAG, "Sending server port command: $portCmd")
-                        client.postCustomData(portCmd.toByteArray())
-
-                        // 等待端口响应后再发送额外命令
-                        mainHandler.postDelayed({
-                            if (!isComplete) {  // 再次检查是否已完成
-                                // 发送必要的额外命令
-                                sendExtraCommands(client)
-                            }
-                        }, COMMAND_DELAYTIME)
-                    }
-                }, COMMAND_DELAYTIME)
-            }
-
-            private fun sendExtraCommands(client: BlufiClient) {
-                // 发送命令 3:0
-                Log.d(TAG, "Sending extra command 3:0")
-                client.postCustomData("3:0".toByteArray())
-
-                // 等待响应后发送下一个命令
-                mainHandler.postDelayed({
-                    if (!isComplete) {  // 检查是否已完成
-                        // 发送命令 8:0
-                        Log.d(TAG, "Sending extra command 8:0")
-                        client.postCustomData("8:0".toByteArray())
-
-                        // 等待响应后重启设备
-                        mainHandler.postDelayed({
-                            if (!isComplete) {  // 再次检查是否已完成
-                                // 重启设备
-                                sendRestartCommand(client)
-                            }
-                        }, COMMAND_DELAYTIME)
-                    }
-                }, COMMAND_DELAYTIME)
-            }
-
-            private fun sendRestartCommand(client: BlufiClient) {
-                // 发送重启命令
-                Log.d(TAG, "Sending restart command 8:")
-                client.postCustomData("8:".toByteArray())
-
-                // 如果5秒后仍未收到重启响应，则认为重启已经开始但无法收到响应，认为配置完成
-                mainHandler.postDelayed({
+        // 设备回调，借用连接期间由连接池转发
+        val serverCallback = object : BlufiCallback() {
+            fun sendServerCommands() {
+                sequencer.start(serverCommandSteps(serverConfig)) { stepResults ->
                     if (!isComplete) {
-                        // 还未收到重启响应，但认为已经在重启中
                         isComplete = true
 
-                        // 添加最终状态
-                        resultMap["deviceRestarted"] = "unknown"
-
                         // 检查整体配置是否成功 - 至少服务器地址或端口配置成功
-                        val success = addressConfigured || portConfigured
+                        val success = RadarCommandSequencer.putServerResults(resultMap, stepResults)
                         resultMap["success"] = success.toString()
 
                         // 添加完成时间
                         resultMap["completedAt"] = System.currentTimeMillis().toString()
 
+                        // 清理资源，设备已重启，连接不再复用
+                        mainHandler.removeCallbacks(configTimeoutRunnable)
+                        releaseClient(reusable = false)
+
                         // 返回结果
-                        Log.d(TAG, "Configuration completed with timeout, result: $resultMap")
+                        Log.d(TAG, "Configuration complete, result: $resultMap")
                         callback?.invoke(resultMap)
-
-                        // 清理资源
-                        mainHandler.removeCallbacks(configTimeoutRunnable)
-                        disconnect()
                     }
-                }, DEVICERESTART_DELAYTIME)
+                }
             }
 
             override fun onReceiveCustomData(client: BlufiClient, status: Int, data: ByteArray) {
                 try {
-                    val responseStr = String(data)
-                    Log.d(TAG, "Received custom data: $responseStr")
-
+                    Log.d(TAG, "Received custom data: ${String(data)}")
                     // 解析响应格式 "命令:结果"
-                    if (responseStr.contains(":")) {
-                        val parts = responseStr.split(":")
-                        if (parts.size >= 2) {
-                            val command = parts[0].toIntOrNull()
-                            val result = parts[1]
-
-                            when (command) {
-                                1 -> { // 服务器地址响应
-                                    val success = result == "0"
-                                    addressConfigured = success
-                                    resultMap["serverAddressSuccess"] = success.toString()
-                                    Log.d(TAG, "Server address configuration ${if (success) "successful" else "failed"}")
-                                }
-                                2 -> { // 服务器端口响应
-                                    val success = result == "0"
-                                    portConfigured = success
-                                    resultMap["serverPortSuccess"] = success.toString()
-                                    Log.d(TAG, "Server port configuration ${if (success) "successful" else "failed"}")
-                                }
-                                8 -> { // 重启设备响应
-                                    val success = result == "0"
-                                    deviceRestarted = success
-                                    resultMap["deviceRestarted"] = success.toString()
-                                    Log.d(TAG, "Device restart ${if (success) "successful" else "failed"}")
-
-                                    // 收到重启响应，配置完成
-                                    if (!isComplete) {
-                                        isComplete = true
-
-                                        // 检查整体配置是否成功 - 至少服务器地址或端口配置成功
-                                        val success = addressConfigured || portConfigured
-                                        resultMap["success"] = success.toString()
-
-                                        // 添加完成时间
-                                        resultMap["completedAt"] = System.currentTimeMillis().toString()
-
-                                        // 返回结果
-                                        Log.d(TAG, "Configuration complete, result: $resultMap")
-                                        callback?.invoke(resultMap)
-
-                                        // 清理资源
-                                        mainHandler.removeCallbacks(configTimeoutRunnable)
-                                        disconnect()
-                                    }
-                                }
-                                // 可以添加其他命令的响应处理
-                            }
-                        }
-                    }
+                    sequencer.onResponse(data)
                 } catch (e: Exception) {
                     Log.e(TAG, "Error parsing custom data response", e)
                     resultMap["parseError"] = e.message ?: "Unknown error"
@@ -1293,15 +1447,188 @@ class RadarBleManager private constructor(private val context: Context) {
             override fun onError(client: BlufiClient, errCode: Int) {
                 if (!isComplete) {
                     isComplete = true
+                    if (sequencer.isRunning) {
+                        RadarCommandSequencer.putServerResults(resultMap, sequencer.stepResults)
+                    }
+                    sequencer.cancel()
                     resultMap["error"] = "Communication error: $errCode"
                     resultMap["success"] = "false"
                     resultMap["completedAt"] = System.currentTimeMillis().toString()
-                    callback?.invoke(resultMap)
                     mainHandler.removeCallbacks(configTimeoutRunnable)
-                    disconnect()
+                    releaseClient(reusable = false)
+                    callback?.invoke(resultMap)
+                }
+            }
+        }
+
+        // 从连接池借用连接，已完成服务发现和安全协商
+        Log.d(TAG, "Acquiring connection to device: ${device.address}")
+        acquireClient(device, serverCallback) { client, error ->
+            if (client == null) {
+                Log.e(TAG, "Acquire connection failed: $error")
+                if (!isComplete) {
+                    isComplete = true
+                    resultMap["error"] = error ?: "Connection failed"
+                    resultMap["success"] = "false"
+                    callback?.invoke(resultMap)
                 }
+                return@acquireClient
             }
-        })
+
+            // 设置超时
+            mainHandler.postDelayed(configTimeoutRunnable, CONFIGSERVER_TIMEOUT)
+
+            // 开始配置服务器
+            serverCallback.sendServerCommands()
+        }
+    }
+
+    /**
+     * 服务器配置的命令序列，最后重启设备
+     * 收到上一条命令的响应后立即发送下一条，只有无响应时才等待超时
+     */
+    private fun serverCommandSteps(serverConfig: ServerConfig): List<RadarCommandSequencer.Step> {
+        return RadarCommandSequencer.serverCommandSteps(serverConfig, COMMAND_TIMEOUT, DEVICERESTART_DELAYTIME)
+    }
+
+    /**
+     * 一次连接内完成 WiFi 和服务器配置
+     * 只连接和安全协商一次，WiFi 配置成功后在同一连接上发送服务器命令，最后重启设备一次
+     *
+     * @param deviceInfo 设备信息
+     * @param wifiConfig WiFi配置
+     * @param serverConfig 服务器配置
+     * @param callback 配置结果回调，包含 configureWifi 和 configureServer 结果的键
+     */
+    fun provision(
+        deviceInfo: DeviceInfo,
+        wifiConfig: WifiConfig,
+        serverConfig: ServerConfig,
+        callback: ((Map<String, String>) -> Unit)? = null
+    ) {
+        Log.d(TAG, "Start provisioning device: ${deviceInfo.deviceId}, SSID: ${wifiConfig.ssid}, Server: ${serverConfig.serverAddress}:${serverConfig.port}")
+
+        val device = bluetoothAdapter?.getRemoteDevice(deviceInfo.macAddress) ?: run {
+            callback?.invoke(mapOf("error" to "Invalid device address"))
+            return
+        }
+
+        // 初始化状态信息
+        val resultMap = mutableMapOf<String, String>()
+        resultMap["deviceId"] = deviceInfo.deviceId
+        resultMap["macAddress"] = deviceInfo.macAddress
+
+        // 配置状态控制
+        var isComplete = false
+        val sequencer = RadarCommandSequencer(mainHandler) { command ->
+            Log.d(TAG, "Sending command: $command")
+            blufiClient?.postCustomData(command.toByteArray())
+        }
+        var provisionTimeoutRunnable: Runnable? = null
+        // 借用失败或被取代时没有连接可归还
+        var isAcquired = false
+
+        fun complete(success: Boolean, error: String?) {
+            if (isComplete) return
+            isComplete = true
+            if (sequencer.isRunning) {
+                RadarCommandSequencer.putServerResults(resultMap, sequencer.stepResults)
+            }
+            sequencer.cancel()
+            resultMap["success"] = success.toString()
+            error?.let { resultMap["error"] = it }
+            resultMap["completedAt"] = System.currentTimeMillis().toString()
+
+            // 清理资源，设备已重启或出错，连接不再复用
+            provisionTimeoutRunnable?.let { mainHandler.removeCallbacks(it) }
+            if (isAcquired) {
+                releaseClient(reusable = false)
+            }
+
+            Log.d(TAG, "Provisioning complete, result: $resultMap")
+            callback?.invoke(resultMap)
+        }
+
+        // 设备回调，借用连接期间由连接池转发
+        val provisionCallback = object : BlufiCallback() {
+            override fun onPostConfigureParams(client: BlufiClient, status: Int) {
+                if (isComplete) return
+                resultMap["wifiConfigured"] = (status == STATUS_SUCCESS).toString()
+                if (status != STATUS_SUCCESS) {
+                    Log.e(TAG, "WiFi configuration failed with status: $status")
+                    complete(false, "WiFi configuration failed: $status")
+                    return
+                }
+
+                // WiFi配置成功，在同一连接上配置服务器
+                Log.d(TAG, "WiFi configuration successful, configuring server")
+                sequencer.start(serverCommandSteps(serverConfig)) { stepResults ->
+                    // 至少服务器地址或端口配置成功
+                    if (RadarCommandSequencer.putServerResults(resultMap, stepResults)) {
+                        complete(true, null)
+                    } else {
+                        complete(false, "Server configuration failed")
+                    }
+                }
+            }
+
+            override fun onReceiveCustomData(client: BlufiClient, status: Int, data: ByteArray) {
+                Log.d(TAG, "Received custom data: ${String(data)}")
+                // 解析响应格式 "命令:结果"
+                sequencer.onResponse(data)
+            }
+
+            override fun onError(client: BlufiClient, errCode: Int) {
+                complete(false, "Communication error: $errCode")
+            }
+        }
+
+        // 从连接池借用连接，已完成服务发现和安全协商
+        Log.d(TAG, "Acquiring connection to device: ${device.address}")
+        acquireClient(device, provisionCallback) { client, error ->
+            if (client == null) {
+                Log.e(TAG, "Acquire connection failed: $error")
+                complete(false, error ?: "Connection failed")
+                return@acquireClient
+            }
+            isAcquired = true
+
+            // WiFi 和服务器配置共用一个超时
+            provisionTimeoutRunnable = Runnable {
+                Log.e(TAG, "Provisioning timeout after ${PROVISION_TIMEOUT / 1000} seconds")
+                complete(false, "Provisioning timeout")
+            }.also { mainHandler.postDelayed(it, PROVISION_TIMEOUT) }
+
+            // 配置WiFi
+            Log.d(TAG, "Configuring WiFi: SSID=${wifiConfig.ssid}")
+            val params = BlufiConfigureParams().apply {
+                opMode = 1  // STA模式
+                staSSIDBytes = wifiConfig.ssid.toByteArray()
+                staPassword = wifiConfig.password
+            }
+            client.configure(params)
+        }
+    }
+
+    /**
+     * 批量配网，多台设备并行执行，不占用本类的单设备连接
+     *
+     * @param tasks 每台设备的 WiFi 和/或服务器配置
+     * @param maxConcurrency 同时连接的设备数
+     * @param onResult 每台设备完成时回调（主线程）
+     * @param onComplete 整批结束时回调（主线程）
+     */
+    fun provisionBatch(
+        tasks: List<RadarProvisioningEngine.Task>,
+        maxConcurrency: Int = RadarProvisioningEngine.DEFAULT_MAX_CONCURRENCY,
+        onResult: (RadarProvisioningEngine.Result) -> Unit,
+        onComplete: ((List<RadarProvisioningEngine.Result>) -> Unit)? = null
+    ): RadarProvisioningEngine {
+        Log.d(TAG, "Start batch provisioning: ${tasks.size} devices")
+        stopScan()
+        return RadarProvisioningEngine(context, maxConcurrency).also {
+            it.provision(tasks, onResult, onComplete)
+        }
     }
 
 //endregion
@@ -1325,14 +1652,14 @@ class RadarBleManager private constructor(private val context: Context) {
      * @param onResult 结果回调，传递UID字符串
      */
     fun getDeviceUID(onResult: (String?) -> Unit) {
-        // 发送获取UID指令 12:
-        val uidCmd = "12:"
-
-        // 这里假设设备会通过自定义数据返回UID
-        // 实际实现可能需要在BlufiCallback中处理返回数据
-        postCustomData(uidCmd.toByteArray())
-
-        // 注意：这里需要在接收到设备返回数据后回调
-        // 此处仅为示例，实际实现应在onReceiveCustomData中处理
+        // 发送获取UID指令 12:，设备响应 "12:UID"
+        commandMux.request(RadarCommand.GET_UID).whenComplete { message, error ->
+            if (error != null) {
+                Log.e(TAG, "Failed to get UID: ${error.message}")
+                onResult(null)
+            } else {
+                onResult(message.field(0)?.trim())
+            }
+        }
     }
 }
\ No newline at end of file
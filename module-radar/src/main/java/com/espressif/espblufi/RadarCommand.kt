@@ -17,49 +17,35 @@ enum class RadarCommand(val code: Int) {
     GET_WIFI_STATUS(62);     // 获取WiFi状态
 
     companion object {
-        fun fromCode(code: Int): RadarCommand? = values().find { it.code == code }
+        // 按命令码索引
+        private val BY_CODE = arrayOfNulls<RadarCommand>(0x100).also { table ->
+            for (command in values()) {
+                table[command.code] = command
+            }
+        }
+
+        fun fromCode(code: Int): RadarCommand? = if (code in BY_CODE.indices) BY_CODE[code] else null
     }
 
     /**
-     * 将命令转换为字节数组用于发送
+     * 是否使用 "命令:参数" 文本格式，其余命令使用 0xAA 二进制帧
      */
-    fun toBytes(): ByteArray {
-        // 特殊处理 UID 和 WiFi 状态查询命令
-        if (this == GET_UID || this == GET_WIFI_STATUS) {
-            return byteArrayOf(code.toByte(), ':'.toByte())
-        }
+    val isText: Boolean
+        get() = this == GET_UID || this == GET_WIFI_STATUS
 
-        // 标准命令格式: [起始帧, 命令码, 数据长度, 校验和]
-        return byteArrayOf(
-            0xAA.toByte(),      // 起始帧
-            code.toByte(),      // 命令码
-            0x00,               // 数据长度 (默认为0)
-            calculateChecksum(code) // 校验和
-        )
-    }
+    /**
+     * 将命令转换为字节数组用于发送
+     */
+    fun toBytes(): ByteArray = toBytes(ByteArray(0))
 
     /**
      * 带参数的命令转换
+     * 文本命令: [命令号:参数]，二进制命令: [起始帧, 命令码, 数据长度, 数据内容, 校验和]
      */
     fun toBytes(params: ByteArray): ByteArray {
-        // 特殊处理 UID 和 WiFi 状态查询命令
-        if (this == GET_UID || this == GET_WIFI_STATUS) {
-            return byteArrayOf(code.toByte(), ':'.toByte()) + params
+        if (isText) {
+            return RadarCustomDataCodec.encodeText(code) + params
         }
-
-        // 标准命令格式: [起始帧, 命令码, 数据长度, 数据内容, 校验和]
-        return byteArrayOf(
-            0xAA.toByte(),           // 起始帧
-            code.toByte(),           // 命令码
-            params.size.toByte(),    // 数据长度
-            *params,                 // 数据内容
-            calculateChecksum(code, params) // 校验和
-        )
-    }
-
-    private fun calculateChecksum(code: Int, params: ByteArray = ByteArray(0)): Byte {
-        var sum = 0xAA + code + params.size
-        params.forEach { sum += it }
-        return (sum and 0xFF).toByte()
+        return RadarCustomDataCodec.encodeFrame(code, params)
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,161 @@
+/**
+ * File: RadarCommandMux.kt
+ * Path: module-radar/src/main/java/com/espressif/espblufi/RadarCommandMux.kt
+ *
+ * A厂(Radar)自定义命令的请求/响应复用，按命令号匹配响应，多个查询可同时在一条连接上进行
+ * */
+package com.espressif.espblufi
+
+import android.os.Handler
+import android.util.Log
+
+import java.util.concurrent.CompletableFuture
+
+/**
+ * 自定义命令请求/响应复用
+ * - 每个请求返回一个 CompletableFuture，收到同一命令号的 "命令:参数" 响应时完成
+ * - 不同命令号的请求可以连续发送，不等前一个响应；同一命令号的多个请求按发送顺序匹配响应
+ * - 每个请求有自己的超时，超时、发送失败或 failAll 时以 [BlufiException] 异常完成
+ * - 没有匹配到请求的数据 onResponse 返回 false，由调用方继续处理
+ *
+ * 不是线程安全的，request、onResponse、onPostResult 和 failAll 都在 handler 线程调用，
+ * future 也在 handler 线程完成
+ *
+ * @param send 发送编码后的数据，无法发送（如没有连接）时返回 false
+ */
+class RadarCommandMux(
+    private val handler: Handler,
+    private val send: (ByteArray) -> Boolean
+) {
+    companion object {
+        private const val TAG = "RadarCommandMux"
+
+        const val DEFAULT_TIMEOUT = 5000L
+    }
+
+    /**
+     * 一个等待响应的请求，作为 Runnable 时处理超时
+     */
+    private inner class Pending(
+        val command: Int,
+        val data: ByteArray,
+        val future: CompletableFuture<RadarCustomDataCodec.TextMessage>
+    ) : Runnable {
+        override fun run() {
+            if (remove(this)) {
+                Log.w(TAG, "Command $command timed out")
+                future.completeExceptionally(
+                    BlufiException(BlufiException.CODE_TIMEOUT, "Command $command timed out"))
+            }
+        }
+    }
+
+    // 按命令号索引，每个命令号的请求按发送顺序排队
+    private val pending = arrayOfNulls<ArrayDeque<Pending>>(RadarCustomDataCodec.MAX_COMMAND_ID + 1)
+
+    /**
+     * 等待响应的请求数
+     */
+    var pendingCount = 0
+        private set
+
+    /**
+     * 发送 "命令:参数" 请求
+     * @param timeout 等待响应的时间，毫秒
+     * @return 收到响应时完成的 future
+     */
+    fun request(
+        command: Int,
+        payload: String = "",
+        timeout: Long = DEFAULT_TIMEOUT
+    ): CompletableFuture<RadarCustomDataCodec.TextMessage> {
+        require(command in 0..RadarCustomDataCodec.MAX_COMMAND_ID) { "Invalid command: $command" }
+        val future = CompletableFuture<RadarCustomDataCodec.TextMessage>()
+        val request = Pending(command, RadarCustomDataCodec.encodeText(command, payload), future)
+
+        // 先登记再发送，发送失败时和超时一样从队列中移除
+        val queue = pending[command] ?: ArrayDeque<Pending>().also { pending[command] = it }
+        queue.addLast(request)
+        pendingCount++
+        handler.postDelayed(request, timeout)
+
+        if (!send(request.data)) {
+            fail(request, BlufiException(BlufiCallback.CODE_WRITE_DATA_FAILED, "Failed to post command $command"))
+        }
+        return future
+    }
+
+    fun request(
+        command: RadarCommand,
+        payload: String = "",
+        timeout: Long = DEFAULT_TIMEOUT
+    ): CompletableFuture<RadarCustomDataCodec.TextMessage> {
+        return request(command.code, payload, timeout)
+    }
+
+    /**
+     * 收到自定义数据时调用
+     * @return true 表示已完成对应命令号最早的请求
+     */
+    fun onResponse(data: ByteArray): Boolean {
+        val message = RadarCustomDataCodec.decodeText(data) ?: return false
+        val request = pending[message.command]?.removeFirstOrNull() ?: return false
+        pendingCount--
+        handler.removeCallbacks(request)
+        request.future.complete(message)
+        return true
+    }
+
+    /**
+     * onPostCustomDataResult 时调用，发送失败的请求立即以异常完成
+     * @param data 回调中的数据，与发送时是同一个数组
+     */
+    fun onPostResult(status: Int, data: ByteArray?) {
+        if (status == BlufiCallback.STATUS_SUCCESS || data == null) {
+            return
+        }
+        val command = RadarCustomDataCodec.commandOf(data)
+        if (command == RadarCustomDataCodec.NO_COMMAND) {
+            return
+        }
+        val request = pending[command]?.firstOrNull { it.data === data } ?: return
+        fail(request, BlufiException(status, "Failed to post command $command"))
+    }
+
+    /**
+     * 所有等待中的请求以 exception 完成，如断开连接时
+     */
+    fun failAll(exception: Exception) {
+        if (pendingCount == 0) {
+            return
+        }
+        // 先取出全部请求再完成，future 的后续操作可能发送新的请求
+        val failed = ArrayList<Pending>(pendingCount)
+        for (queue in pending) {
+            if (queue != null) {
+                failed.addAll(queue)
+                queue.clear()
+            }
+        }
+        pendingCount = 0
+        for (request in failed) {
+            handler.removeCallbacks(request)
+            request.future.completeExceptionally(exception)
+        }
+    }
+
+    private fun fail(request: Pending, exception: Exception) {
+        if (remove(request)) {
+            request.future.completeExceptionally(exception)
+        }
+    }
+
+    private fun remove(request: Pending): Boolean {
+        val removed = pending[request.command]?.remove(request) == true
+        if (removed) {
+            pendingCount--
+            handler.removeCallbacks(request)
+        }
+        return removed
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * File: RadarCommandSequencer.kt
+ * Path: module-radar/src/main/java/com/espressif/espblufi/RadarCommandSequencer.kt
+ *
+ * A厂(Radar)自定义命令顺序执行器
+ * */
+package com.espressif.espblufi
+
+import android.os.Handler
+import android.os.SystemClock
+import android.util.Log
+
+import com.common.ServerConfig
+
+/**
+ * 按顺序发送 "命令:参数" 形式的自定义命令
+ * - 收到对应的 "命令:结果" 响应后立即发送下一条
+ * - 只有在没有响应时才等待每条命令自己的超时
+ * - 记录每一步的耗时
+ *
+ * 所有方法和回调都在 handler 的线程执行，响应需要通过 [onResponse] 转交进来
+ *
+ * @param handler 计时和回调所在的 Handler
+ * @param send 发送一条命令，如 client.postCustomData(it.toByteArray())
+ */
+class RadarCommandSequencer(
+    private val handler: Handler,
+    private val send: (String) -> Unit
+) {
+    companion object {
+        private const val TAG = "RadarCommandSequencer"
+
+        const val DEFAULT_STEP_TIMEOUT = 2000L
+        const val RESTART_TIMEOUT = 5000L
+        const val RESULT_SUCCESS = "0"
+
+        /**
+         * 服务器配置的命令序列：地址、端口、3:0、8:0，最后重启设备
+         *
+         * @param commandTimeout 每条命令没有响应时的等待时间
+         * @param restartTimeout 重启命令的等待时间，重启后设备通常来不及回复，超时按 unknown 处理
+         */
+        fun serverCommandSteps(
+            serverConfig: ServerConfig,
+            commandTimeout: Long = DEFAULT_STEP_TIMEOUT,
+            restartTimeout: Long = RESTART_TIMEOUT
+        ): List<Step> {
+            return listOf(
+                Step("1:${serverConfig.serverAddress}", commandTimeout),
+                Step("2:${serverConfig.port}", commandTimeout),
+                Step("3:0", commandTimeout),
+                Step("8:0", commandTimeout),
+                Step("8:", restartTimeout, timeoutIsUnknown = true)
+            )
+        }
+
+        /**
+         * 把服务器配置命令的结果写入结果 Map：
+         * serverAddressSuccess、serverPortSuccess、deviceRestarted（重启无响应时为 "unknown"）和 stepTimings
+         *
+         * @param stepResults 命令的结果，未执行完时可以是部分结果，被取消的命令只记录耗时
+         * @return 服务器地址或端口至少有一个配置成功
+         */
+        fun putServerResults(details: MutableMap<String, String>, stepResults: List<StepResult>): Boolean {
+            var configured = false
+            for (stepResult in stepResults) {
+                if (stepResult.status == Status.CANCELLED) {
+                    continue
+                }
+                val success = stepResult.status == Status.SUCCESS
+                when (stepResult.step.code) {
+                    1 -> {
+                        details["serverAddressSuccess"] = success.toString()
+                        configured = configured || success
+                    }
+                    2 -> {
+                        details["serverPortSuccess"] = success.toString()
+                        configured = configured || success
+                    }
+                    8 -> if (stepResult.step.timeoutIsUnknown) {
+                        details["deviceRestarted"] =
+                            if (stepResult.status == Status.UNKNOWN) "unknown" else success.toString()
+                    }
+                }
+            }
+            details["stepTimings"] = stepResults.joinToString(",") {
+                "${it.step.command.substringBefore(':')}:${it.status}:${it.elapsedMs}ms"
+            }
+            return configured
+        }
+    }
+
+    /**
+     * 一条命令
+     *
+     * @param command 完整命令，如 "1:192.168.1.1"
+     * @param timeoutMs 没有响应时等待的时间
+     * @param timeoutIsUnknown 超时不算失败，如重启命令，设备重启后来不及响应
+     */
+    data class Step(
+        val command: String,
+        val timeoutMs: Long = DEFAULT_STEP_TIMEOUT,
+        val timeoutIsUnknown: Boolean = false
+    ) {
+        val code: Int? = RadarCustomDataCodec.commandOf(command).takeIf { it != RadarCustomDataCodec.NO_COMMAND }
+    }
+
+    enum class Status {
+        SUCCESS,
+        FAILED,
+        TIMEOUT,
+        UNKNOWN,
+        CANCELLED
+    }
+
+    /**
+     * 一条命令的执行结果
+     *
+     * @param result 设备返回的结果部分，超时时为 null
+     */
+    data class StepResult(
+        val step: Step,
+        val status: Status,
+        val result: String?,
+        val elapsedMs: Long
+    )
+
+    private var steps: List<Step> = emptyList()
+    private val results = mutableListOf<StepResult>()
+    private var index = -1
+    private var stepStartTime = 0L
+    private var onStepStart: ((Step) -> Unit)? = null
+    private var onStepResult: ((StepResult) -> Unit)? = null
+    private var onComplete: ((List<StepResult>) -> Unit)? = null
+
+    private val timeoutRunnable = Runnable {
+        val step = currentStep ?: return@Runnable
+        Log.w(TAG, "No response for ${step.command} in ${step.timeoutMs}ms")
+        finishStep(if (step.timeoutIsUnknown) Status.UNKNOWN else Status.TIMEOUT, null)
+    }
+
+    val isRunning: Boolean
+        get() = index in steps.indices
+
+    /**
+     * 本次执行已完成或被取消的命令结果
+     */
+    val stepResults: List<StepResult>
+        get() = results.toList()
+
+    /**
+     * 正在等待响应的命令
+     */
+    val currentStep: Step?
+        get() = steps.getOrNull(index)
+
+    /**
+     * 开始执行，未结束前再次调用会先取消上一次
+     *
+     * @param onStepStart 每条命令发送前回调
+     * @param onStepResult 每条命令完成时回调
+     * @param onComplete 所有命令完成时回调，结果与 steps 一一对应
+     */
+    fun start(
+        steps: List<Step>,
+        onStepStart: ((Step) -> Unit)? = null,
+        onStepResult: ((StepResult) -> Unit)? = null,
+        onComplete: (List<StepResult>) -> Unit
+    ) {
+        if (isRunning) {
+            cancel()
+        }
+        this.steps = steps
+        this.onStepStart = onStepStart
+        this.onStepResult = onStepResult
+        this.onComplete = onComplete
+        results.clear()
+        index = -1
+        nextStep()
+    }
+
+    /**
+     * 转交收到的自定义数据
+     *
+     * @return true 表示是当前命令的响应
+     */
+    fun onResponse(data: ByteArray): Boolean {
+        val step = currentStep ?: return false
+        if (RadarCustomDataCodec.commandOf(data) != step.code) {
+            return false
+        }
+
+        val message = RadarCustomDataCodec.decodeText(data) ?: return false
+        val result = message.payload.trim()
+        finishStep(if (result == RESULT_SUCCESS) Status.SUCCESS else Status.FAILED, result)
+        return true
+    }
+
+    /**
+     * 停止执行，剩余命令不再发送，也不会回调 onComplete
+     */
+    fun cancel() {
+        handler.removeCallbacks(timeoutRunnable)
+        currentStep?.let { step ->
+            Log.d(TAG, "Cancelled at ${step.command}")
+            results.add(StepResult(step, Status.CANCELLED, null, SystemClock.elapsedRealtime() - stepStartTime))
+        }
+        index = steps.size
+        onStepStart = null
+        onStepResult = null
+        onComplete = null
+    }
+
+    private fun nextStep() {
+        index++
+        val step = currentStep
+        if (step == null) {
+            val callback = onComplete
+            onStepStart = null
+            onStepResult = null
+            onComplete = null
+            callback?.invoke(results.toList())
+            return
+        }
+
+        onStepStart?.invoke(step)
+        if (currentStep !== step) {
+            // 在 onStepStart 中被取消
+            return
+        }
+        Log.d(TAG, "Sending command: ${step.command}")
+        stepStartTime = SystemClock.elapsedRealtime()
+        handler.postDelayed(timeoutRunnable, step.timeoutMs)
+        send(step.command)
+    }
+
+    private fun finishStep(status: Status, result: String?) {
+        handler.removeCallbacks(timeoutRunnable)
+        val step = currentStep ?: return
+        val stepResult = StepResult(step, status, result, SystemClock.elapsedRealtime() - stepStartTime)
+        Log.d(TAG, "${step.command} -> $status in ${stepResult.elapsedMs}ms")
+        results.add(stepResult)
+        onStepResult?.invoke(stepResult)
+        if (currentStep === step) {
+            nextStep()
+        }
+    }
+}
@@ -0,0 +1,439 @@
+/**
+ * File: RadarConnectionPool.kt
+ * Path: module-radar/src/main/java/com/espressif/espblufi/RadarConnectionPool.kt
+ *
+ * A厂(Radar)设备的 GATT 连接池，按 MAC 复用已准备好的 BlufiClient
+ * */
+package com.espressif.espblufi
+
+import android.annotation.SuppressLint
+import android.bluetooth.BluetoothDevice
+import android.bluetooth.BluetoothGatt
+import android.bluetooth.BluetoothGattCallback
+import android.bluetooth.BluetoothGattCharacteristic
+import android.bluetooth.BluetoothGattService
+import android.bluetooth.BluetoothProfile
+import android.content.Context
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
+
+import com.espressif.espblufi.response.BlufiNegotiationReport
+import com.espressif.espblufi.response.BlufiScanResult
+import com.espressif.espblufi.response.BlufiStatusResponse
+import com.espressif.espblufi.response.BlufiVersionResponse
+import com.espressif.espblufi.security.BlufiSessionCache
+
+/**
+ * GATT 连接池
+ * - 每个 MAC 最多一条连接，借出前已完成服务发现、通知和安全协商
+ * - 同一时间只借给一个操作，归还后保持 idleTimeout，期间定时发送保活命令
+ * - 连接数不超过 maxConnections（Android 通常只允许 4~7 条 GATT 连接），超出时断开最久未使用的空闲连接
+ * - 设备重启、断开或出错后连接被移除，下次借用重新连接
+ *
+ * 所有方法都必须在主线程调用，回调也在主线程执行
+ */
+@SuppressLint("MissingPermission")
+class RadarConnectionPool(
+    context: Context,
+    maxConnections: Int = DEFAULT_MAX_CONNECTIONS,
+    private val idleTimeout: Long = DEFAULT_IDLE_TIMEOUT
+) {
+    companion object {
+        private const val TAG = "RadarConnectionPool"
+
+        const val DEFAULT_MAX_CONNECTIONS = 4
+        const val MAX_CONNECTIONS = 7
+        const val DEFAULT_IDLE_TIMEOUT = 30000L
+
+        private const val GATT_WRITE_TIMEOUT = 10000L
+        private const val CONNECT_TIMEOUT = 15000L        // 连接（含重连）和服务发现
+        private const val NEGOTIATE_TIMEOUT = BlufiClient.NEGOTIATE_SECURITY_TIMEOUT + 5000L
+        private const val PREPARE_TIMEOUT = CONNECT_TIMEOUT + NEGOTIATE_TIMEOUT  // 连接、服务发现和安全协商
+        private const val KEEP_ALIVE_INTERVAL = 3000L     // 空闲时 3 秒发送一次保活信号
+        private const val KEEP_ALIVE_COMMAND = "65:"
+        private const val KEEP_ALIVE_CODE = 65
+
+        private const val MAX_CONNECT_RETRY = 2
+        private const val RECONNECT_DELAY = 1000L
+    }
+
+    private enum class State {
+        CONNECTING,
+        NEGOTIATING,
+        READY
+    }
+
+    private val appContext = context.applicationContext
+    private val mainHandler = Handler(Looper.getMainLooper())
+    private val maxConnections = maxConnections.coerceIn(1, MAX_CONNECTIONS)
+
+    // 按访问顺序排列，第一个是最久未使用的
+    private val sessions = LinkedHashMap<String, Session>(MAX_CONNECTIONS, 0.75f, true)
+
+    /**
+     * 新建连接使用的会话缓存，null 表示每次都完整协商
+     */
+    var sessionCache: BlufiSessionCache? = null
+
+    val size: Int
+        get() = sessions.size
+
+    /**
+     * 借用设备的连接，连接不存在时新建
+     *
+     * @param callback 借用期间 BluFi 回调转发给它，不会收到 onGattPrepared 和 onNegotiateSecurityResult
+     * @param onAcquired 连接可用时 client 不为 null，失败时 error 为原因
+     */
+    fun acquire(
+        device: BluetoothDevice,
+        callback: BlufiCallback,
+        onAcquired: (client: BlufiClient?, error: String?) -> Unit
+    ) {
+        val mac = key(device.address)
+        val session = sessions[mac]
+        if (session != null) {
+            if (session.borrower != null) {
+                onAcquired(null, "Device is busy")
+                return
+            }
+            Log.d(TAG, "[$mac] Reuse connection, pool size: ${sessions.size}")
+            session.lend(Borrower(callback, onAcquired))
+            return
+        }
+
+        if (sessions.size >= maxConnections && !evictIdle()) {
+            onAcquired(null, "Connection limit reached")
+            return
+        }
+        Session(device).also {
+            sessions[mac] = it
+            it.borrower = Borrower(callback, onAcquired)
+            it.connect()
+        }
+    }
+
+    /**
+     * 取消设备上还在等待连接的借用，连接继续准备，完成后进入空闲
+     *
+     * @param error 被取消的借用收到的 onAcquired 错误
+     * @return false 时没有等待中的借用
+     */
+    fun cancelAcquire(mac: String, error: String): Boolean {
+        val session = sessions[key(mac)] ?: return false
+        val b = session.borrower ?: return false
+        val onAcquired = b.onAcquired ?: return false
+        Log.d(TAG, "[${session.mac}] Cancel pending acquire: $error")
+        b.onAcquired = null
+        session.borrower = null
+        onAcquired(null, error)
+        return true
+    }
+
+    /**
+     * 归还借用的连接
+     *
+     * @param reusable false 时断开连接，如设备将要重启或通信出错
+     */
+    fun release(client: BlufiClient, reusable: Boolean = true) {
+        // 已被移除的连接在移除时已断开
+        val session = sessions.values.firstOrNull { it.client === client } ?: return
+        session.borrower = null
+        if (reusable && session.state == State.READY) {
+            session.startIdle()
+        } else {
+            evict(session.mac)
+        }
+    }
+
+    /**
+     * 断开设备的连接，借用者会收到 onError
+     */
+    fun evict(mac: String) {
+        val session = sessions.remove(key(mac)) ?: return
+        Log.d(TAG, "[${session.mac}] Evict connection, pool size: ${sessions.size}")
+        session.close()
+    }
+
+    fun evictAll() {
+        sessions.keys.toList().forEach { evict(it) }
+    }
+
+    /**
+     * 断开最久未使用的空闲连接
+     *
+     * @return false 时所有连接都在使用中
+     */
+    private fun evictIdle(): Boolean {
+        val idle = sessions.values.firstOrNull { it.borrower == null } ?: return false
+        evict(idle.mac)
+        return true
+    }
+
+    private fun key(mac: String): String {
+        return mac.uppercase()
+    }
+
+    private fun closeClient(client: BlufiClient) {
+        try {
+            client.close()
+        } catch (e: Exception) {
+            Log.e(TAG, "Error closing BlufiClient", e)
+        }
+    }
+
+    private class Borrower(
+        val callback: BlufiCallback,
+        var onAcquired: ((BlufiClient?, String?) -> Unit)?
+    )
+
+    /**
+     * 一台设备的连接，状态只在主线程修改
+     * onGattNotification 在 GATT 线程调用，只读取 notificationTarget
+     */
+    private inner class Session(private val device: BluetoothDevice) {
+        val mac: String = key(device.address)
+        var client: BlufiClient? = null
+            set(value) {
+                field = value
+                updateNotificationTarget()
+            }
+        var state = State.CONNECTING
+            set(value) {
+                field = value
+                updateNotificationTarget()
+            }
+        var borrower: Borrower? = null
+            set(value) {
+                field = value
+                updateNotificationTarget()
+            }
+
+        // 连接就绪时借用者的回调，随 client、state、borrower 在主线程更新
+        @Volatile
+        private var notificationTarget: Pair<BlufiClient, BlufiCallback>? = null
+        private var connectRetry = 0
+        // 未收到响应的保活命令数，对应的响应不转发给借用者
+        private var pendingKeepAlive = 0
+
+        private val prepareTimeoutRunnable = Runnable { failPrepare("Connect timeout") }
+        private val idleRunnable = Runnable {
+            Log.d(TAG, "[$mac] Idle for ${idleTimeout}ms")
+            evict(mac)
+        }
+        private val keepAliveRunnable = object : Runnable {
+            override fun run() {
+                val c = client ?: return
+                if (borrower != null || state != State.READY) return
+                pendingKeepAlive++
+                c.postCustomData(KEEP_ALIVE_COMMAND.toByteArray())
+                mainHandler.postDelayed(this, KEEP_ALIVE_INTERVAL)
+            }
+        }
+
+        private fun updateNotificationTarget() {
+            val c = client
+            val b = borrower
+            notificationTarget = if (c != null && b != null && state == State.READY) c to b.callback else null
+        }
+
+        fun connect() {
+            state = State.CONNECTING
+            mainHandler.removeCallbacks(prepareTimeoutRunnable)
+            mainHandler.postDelayed(prepareTimeoutRunnable, PREPARE_TIMEOUT)
+
+            Log.d(TAG, "[$mac] Connecting, attempt: ${connectRetry + 1}")
+            val c = BlufiClient(appContext, device)
+            client = c
+            c.setGattWriteTimeout(GATT_WRITE_TIMEOUT)
+            c.setCallbackExecutor(appContext.mainExecutor)
+            c.setSessionCache(sessionCache)
+            c.setGattCallback(createGattCallback(c))
+            c.setBlufiCallback(createBlufiCallback(c))
+            c.connect()
+        }
+
+        fun lend(newBorrower: Borrower) {
+            stopIdle()
+            borrower = newBorrower
+            if (state == State.READY) {
+                handOut()
+            }
+        }
+
+        fun startIdle() {
+            stopIdle()
+            mainHandler.postDelayed(idleRunnable, idleTimeout)
+            mainHandler.postDelayed(keepAliveRunnable, KEEP_ALIVE_INTERVAL)
+        }
+
+        private fun stopIdle() {
+            mainHandler.removeCallbacks(idleRunnable)
+            mainHandler.removeCallbacks(keepAliveRunnable)
+        }
+
+        private fun handOut() {
+            val b = borrower ?: return
+            val onAcquired = b.onAcquired ?: return
+            b.onAcquired = null
+            onAcquired(client, null)
+        }
+
+        private fun failPrepare(error: String) {
+            Log.e(TAG, "[$mac] Prepare failed in $state: $error")
+            val onAcquired = borrower?.onAcquired
+            borrower = null
+            evict(mac)
+            onAcquired?.invoke(null, error)
+        }
+
+        fun close() {
+            stopIdle()
+            mainHandler.removeCallbacks(prepareTimeoutRunnable)
+            val c = client ?: return
+            client = null
+            closeClient(c)
+
+            // 借用中的连接被移除，通知借用者
+            val b = borrower ?: return
+            borrower = null
+            if (b.onAcquired != null) {
+                b.onAcquired?.invoke(null, "Connection closed")
+            } else {
+                b.callback.onError(c, BlufiException.CODE_DISCONNECTED)
+            }
+        }
+
+        private fun onDisconnected(c: BlufiClient, status: Int) {
+            if (client !== c) return
+            if (state == State.CONNECTING && connectRetry < MAX_CONNECT_RETRY) {
+                connectRetry++
+                Log.w(TAG, "[$mac] Connect failed with status $status, retry in ${RECONNECT_DELAY}ms")
+                client = null
+                closeClient(c)
+                mainHandler.postDelayed({
+                    if (sessions[mac] === this && client == null) {
+                        connect()
+                    }
+                }, RECONNECT_DELAY)
+            } else if (state != State.READY) {
+                failPrepare("Disconnected, status: $status")
+            } else {
+                Log.d(TAG, "[$mac] Disconnected, status: $status")
+                evict(mac)
+            }
+        }
+
+        private fun createGattCallback(c: BlufiClient): BluetoothGattCallback {
+            return object : BluetoothGattCallback() {
+                override fun onConnectionStateChange(gatt: BluetoothGatt, status: Int, newState: Int) {
+                    if (status == BluetoothGatt.GATT_SUCCESS && newState == BluetoothProfile.STATE_CONNECTED) {
+                        gatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH)
+                    } else if (newState == BluetoothProfile.STATE_DISCONNECTED || status != BluetoothGatt.GATT_SUCCESS) {
+                        mainHandler.post { onDisconnected(c, status) }
+                    }
+                }
+            }
+        }
+
+        private fun isKeepAliveResponse(data: ByteArray?): Boolean {
+            if (pendingKeepAlive == 0 || data == null) return false
+            if (RadarCustomDataCodec.commandOf(data) != KEEP_ALIVE_CODE) return false
+            pendingKeepAlive--
+            return true
+        }
+
+        private fun createBlufiCallback(c: BlufiClient): BlufiCallback {
+            return object : BlufiCallback() {
+                override fun onGattPrepared(
+                    client: BlufiClient,
+                    gatt: BluetoothGatt,
+                    service: BluetoothGattService?,
+                    writeChar: BluetoothGattCharacteristic?,
+                    notifyChar: BluetoothGattCharacteristic?
+                ) {
+                    if (this@Session.client !== c || state != State.CONNECTING) return
+                    if (service == null || writeChar == null || notifyChar == null) {
+                        failPrepare("Service discovery failed")
+                        return
+                    }
+                    state = State.NEGOTIATING
+                    client.negotiateSecurity()
+                }
+
+                override fun onNegotiateSecurityResult(client: BlufiClient, status: Int) {
+                    if (this@Session.client !== c || state != State.NEGOTIATING) return
+                    if (status != STATUS_SUCCESS) {
+                        failPrepare("Security negotiation failed: $status")
+                        return
+                    }
+                    mainHandler.removeCallbacks(prepareTimeoutRunnable)
+                    state = State.READY
+                    Log.d(TAG, "[$mac] Connection ready, pool size: ${sessions.size}")
+                    if (borrower != null) {
+                        handOut()
+                    } else {
+                        startIdle()
+                    }
+                }
+
+                override fun onNegotiateSecurityReport(client: BlufiClient, report: BlufiNegotiationReport) {
+                    Log.d(TAG, "[$mac] Negotiation: $report")
+                }
+
+                override fun onGattNotification(client: BlufiClient, pkgType: Int, subType: Int, data: ByteArray): Boolean {
+                    // 在 GATT 线程同步调用，不能访问主线程的会话状态
+                    val target = notificationTarget ?: return false
+                    if (target.first !== c) return false
+                    return target.second.onGattNotification(client, pkgType, subType, data)
+                }
+
+                override fun onPostConfigureParams(client: BlufiClient, status: Int) {
+                    readyBorrower()?.callback?.onPostConfigureParams(client, status)
+                }
+
+                override fun onDeviceVersionResponse(client: BlufiClient, status: Int, response: BlufiVersionResponse?) {
+                    readyBorrower()?.callback?.onDeviceVersionResponse(client, status, response)
+                }
+
+                override fun onDeviceStatusResponse(client: BlufiClient, status: Int, response: BlufiStatusResponse?) {
+                    readyBorrower()?.callback?.onDeviceStatusResponse(client, status, response)
+                }
+
+                override fun onDeviceScanResult(client: BlufiClient, status: Int, results: List<BlufiScanResult>?) {
+                    readyBorrower()?.callback?.onDeviceScanResult(client, status, results)
+                }
+
+                override fun onDeviceScanProgress(client: BlufiClient, results: List<BlufiScanResult>?) {
+                    readyBorrower()?.callback?.onDeviceScanProgress(client, results)
+                }
+
+                override fun onPostCustomDataResult(client: BlufiClient, status: Int, data: ByteArray?) {
+                    readyBorrower()?.callback?.onPostCustomDataResult(client, status, data)
+                }
+
+                override fun onReceiveCustomData(client: BlufiClient, status: Int, data: ByteArray?) {
+                    if (this@Session.client !== c || isKeepAliveResponse(data)) return
+                    readyBorrower()?.callback?.onReceiveCustomData(client, status, data)
+                }
+
+                override fun onError(client: BlufiClient, errCode: Int) {
+                    if (this@Session.client !== c) return
+                    when {
+                        state != State.READY -> failPrepare("Communication error: $errCode")
+                        borrower != null -> borrower?.callback?.onError(client, errCode)
+                        else -> {
+                            // 空闲连接出错，下次借用重新连接
+                            Log.w(TAG, "[$mac] Error on idle connection: $errCode")
+                            evict(mac)
+                        }
+                    }
+                }
+
+                private fun readyBorrower(): Borrower? {
+                    return if (this@Session.client === c && state == State.READY) borrower else null
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/**
+ * File: RadarCustomDataCodec.kt
+ * Path: module-radar/src/main/java/com/espressif/espblufi/RadarCustomDataCodec.kt
+ *
+ * A厂(Radar)自定义数据编解码，支持 "命令:参数" 文本格式和 0xAA 起始的二进制帧
+ * */
+package com.espressif.espblufi
+
+/**
+ * 自定义数据编解码
+ * - 文本格式: "命令:参数1:参数2..."，命令为十进制数字，直接在字节上解析，不做 split 和正则
+ * - 二进制帧: 请求 [0xAA, 命令码, 数据长度, 数据..., 校验和]
+ *            响应 [0xAA, 命令码, 长度, 状态, 数据..., 校验和]，长度包含状态字节
+ *   校验和为校验和之前所有字节之和的低 8 位
+ */
+object RadarCustomDataCodec {
+    const val FRAME_START = 0xAA
+    const val SEPARATOR = 0x3A    // ':'
+
+    /**
+     * 文本命令号上限，超出时不是有效命令
+     */
+    const val MAX_COMMAND_ID = 0xFF
+
+    const val NO_COMMAND = -1
+
+    /**
+     * 一条 "命令:参数" 文本消息，参数按需解码
+     */
+    class TextMessage internal constructor(
+        val command: Int,
+        private val data: ByteArray,
+        private val payloadStart: Int
+    ) {
+        /**
+         * 命令号后面的全部内容
+         */
+        val payload: String
+            get() = String(data, payloadStart, data.size - payloadStart, Charsets.UTF_8)
+
+        /**
+         * @return 第 index 个参数（从 0 开始），不存在时返回 null
+         */
+        fun field(index: Int): String? {
+            val start = fieldStart(index)
+            if (start < 0) {
+                return null
+            }
+            var end = start
+            while (end < data.size && data[end].toInt() != SEPARATOR) {
+                end++
+            }
+            return String(data, start, end - start, Charsets.UTF_8)
+        }
+
+        /**
+         * @return 从第 index 个参数开始的剩余内容，包含其中的分隔符，如含 ':' 的 SSID
+         */
+        fun remainderFrom(index: Int): String? {
+            val start = fieldStart(index)
+            return if (start < 0) null else String(data, start, data.size - start, Charsets.UTF_8)
+        }
+
+        /**
+         * 参数个数
+         */
+        val fieldCount: Int
+            get() {
+                var count = 1
+                for (i in payloadStart until data.size) {
+                    if (data[i].toInt() == SEPARATOR) count++
+                }
+                return count
+            }
+
+        /**
+         * 第一个参数去掉首尾空白后是否等于 expected，不创建字符串
+         */
+        fun firstFieldEquals(expected: String): Boolean {
+            var start = payloadStart
+            var end = start
+            while (end < data.size && data[end].toInt() != SEPARATOR) {
+                end++
+            }
+            while (start < end && data[start].toInt().toChar().isWhitespace()) start++
+            while (end > start && data[end - 1].toInt().toChar().isWhitespace()) end--
+            if (end - start != expected.length) {
+                return false
+            }
+            for (i in expected.indices) {
+                if (data[start + i].toInt() != expected[i].code) {
+                    return false
+                }
+            }
+            return true
+        }
+
+        private fun fieldStart(index: Int): Int {
+            var start = payloadStart
+            for (i in 0 until index) {
+                while (start < data.size && data[start].toInt() != SEPARATOR) {
+                    start++
+                }
+                if (start >= data.size) {
+                    return -1
+                }
+                start++
+            }
+            return start
+        }
+
+        override fun toString(): String = "$command:$payload"
+    }
+
+    /**
+     * 是否是 0xAA 起始的二进制帧
+     */
+    fun isBinaryFrame(data: ByteArray): Boolean {
+        return data.isNotEmpty() && (data[0].toInt() and 0xFF) == FRAME_START
+    }
+
+    /**
+     * 读取文本消息的命令号，不创建消息
+     * @return 命令号，不是 "命令:" 格式时返回 [NO_COMMAND]
+     */
+    fun commandOf(data: ByteArray): Int {
+        var command = 0
+        for (i in data.indices) {
+            val b = data[i].toInt()
+            if (b == SEPARATOR) {
+                return if (i == 0) NO_COMMAND else command
+            }
+            if (b < '0'.code || b > '9'.code) {
+                return NO_COMMAND
+            }
+            command = command * 10 + (b - '0'.code)
+            if (command > MAX_COMMAND_ID) {
+                return NO_COMMAND
+            }
+        }
+        return NO_COMMAND
+    }
+
+    /**
+     * 读取文本命令（如 "1:192.168.1.1"）的命令号
+     * @return 命令号，不是 "命令:" 格式时返回 [NO_COMMAND]
+     */
+    fun commandOf(text: CharSequence): Int {
+        var command = 0
+        for (i in text.indices) {
+            val c = text[i]
+            if (c == ':') {
+                return if (i == 0) NO_COMMAND else command
+            }
+            if (c !in '0'..'9') {
+                return NO_COMMAND
+            }
+            command = command * 10 + (c - '0')
+            if (command > MAX_COMMAND_ID) {
+                return NO_COMMAND
+            }
+        }
+        return NO_COMMAND
+    }
+
+    /**
+     * 解析 "命令:参数" 文本消息
+     * @return 不是 "命令:" 格式时返回 null
+     */
+    fun decodeText(data: ByteArray): TextMessage? {
+        val command = commandOf(data)
+        if (command == NO_COMMAND) {
+            return null
+        }
+        // 命令号最多 3 位，分隔符就在其后
+        var separator = 0
+        while (data[separator].toInt() != SEPARATOR) {
+            separator++
+        }
+        return TextMessage(command, data, separator + 1)
+    }
+
+    /**
+     * 编码 "命令:参数" 文本消息
+     */
+    fun encodeText(command: Int, payload: String = ""): ByteArray {
+        val prefix = command.toString()
+        val payloadBytes = payload.toByteArray(Charsets.UTF_8)
+        val result = ByteArray(prefix.length + 1 + payloadBytes.size)
+        for (i in prefix.indices) {
+            result[i] = prefix[i].code.toByte()
+        }
+        result[prefix.length] = SEPARATOR.toByte()
+        System.arraycopy(payloadBytes, 0, result, prefix.length + 1, payloadBytes.size)
+        return result
+    }
+
+    /**
+     * 编码二进制请求帧
+     */
+    fun encodeFrame(code: Int, params: ByteArray = ByteArray(0)): ByteArray {
+        require(params.size <= 0xFF) { "Frame data too long: ${params.size}" }
+        val frame = ByteArray(params.size + 4)
+        frame[0] = FRAME_START.toByte()
+        frame[1] = code.toByte()
+        frame[2] = params.size.toByte()
+        System.arraycopy(params, 0, frame, 3, params.size)
+        frame[frame.size - 1] = checksum(frame, frame.size - 1)
+        return frame
+    }
+
+    /**
+     * 解析二进制响应帧
+     * @throws IllegalArgumentException 帧格式、长度或校验和错误，或命令码未知
+     */
+    fun decodeFrame(bytes: ByteArray): RadarResponse {
+        require(bytes.size >= 4) { "Invalid response data length" }
+        require(isBinaryFrame(bytes)) { "Invalid start frame" }
+
+        val code = bytes[1].toInt() and 0xFF
+        val command = RadarCommand.fromCode(code)
+            ?: throw IllegalArgumentException("Unknown command code: $code")
+
+        // 长度包含状态字节
+        val length = bytes[2].toInt() and 0xFF
+        require(bytes.size == length + 4) { "Data length mismatch" }
+        require(checksum(bytes, bytes.size - 1) == bytes[bytes.size - 1]) { "Checksum verification failed" }
+
+        val status = RadarResponse.Status.fromCode(bytes[3].toInt() and 0xFF)
+        val data = if (length > 1) bytes.copyOfRange(4, bytes.size - 1) else ByteArray(0)
+        return RadarResponse(command, status, data)
+    }
+
+    /**
+     * @return 前 length 个字节之和的低 8 位
+     */
+    fun checksum(bytes: ByteArray, length: Int): Byte {
+        var sum = 0
+        for (i in 0 until length) {
+            sum += bytes[i].toInt() and 0xFF
+        }
+        return (sum and 0xFF).toByte()
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * File: RadarCustomDataDispatcher.kt
+ * Path: module-radar/src/main/java/com/espressif/espblufi/RadarCustomDataDispatcher.kt
+ *
+ * A厂(Radar)自定义数据分发，按命令号查表调用处理函数
+ * */
+package com.espressif.espblufi
+
+import android.util.Log
+
+/**
+ * 自定义数据分发表
+ * - 文本消息按命令号、二进制帧按命令码直接索引数组，不逐个比较
+ * - 每个命令只能注册一次，重复注册抛出 IllegalStateException
+ * - 没有注册的命令、无法解析的数据交给 unhandled
+ *
+ * 不是线程安全的，注册完成后在同一线程分发
+ */
+class RadarCustomDataDispatcher {
+    companion object {
+        private const val TAG = "RadarCustomDataDispatcher"
+    }
+
+    private val textHandlers = arrayOfNulls<(RadarCustomDataCodec.TextMessage) -> Unit>(RadarCustomDataCodec.MAX_COMMAND_ID + 1)
+    private val frameHandlers = arrayOfNulls<(RadarResponse) -> Unit>(0x100)
+
+    /**
+     * 没有处理函数或无法解析的数据
+     */
+    var unhandled: ((ByteArray) -> Unit)? = null
+
+    /**
+     * 注册 "命令:参数" 文本消息的处理函数
+     */
+    fun onText(command: Int, handler: (RadarCustomDataCodec.TextMessage) -> Unit): RadarCustomDataDispatcher {
+        require(command in 0..RadarCustomDataCodec.MAX_COMMAND_ID) { "Invalid command: $command" }
+        check(textHandlers[command] == null) { "Command $command is already registered" }
+        textHandlers[command] = handler
+        return this
+    }
+
+    fun onText(command: RadarCommand, handler: (RadarCustomDataCodec.TextMessage) -> Unit): RadarCustomDataDispatcher {
+        return onText(command.code, handler)
+    }
+
+    /**
+     * 注册 0xAA 二进制响应帧的处理函数
+     */
+    fun onFrame(command: RadarCommand, handler: (RadarResponse) -> Unit): RadarCustomDataDispatcher {
+        check(frameHandlers[command.code] == null) { "Command ${command.name} is already registered" }
+        frameHandlers[command.code] = handler
+        return this
+    }
+
+    /**
+     * 分发一条自定义数据
+     * @return true 表示已由注册的处理函数处理
+     */
+    fun dispatch(data: ByteArray): Boolean {
+        if (RadarCustomDataCodec.isBinaryFrame(data)) {
+            val handler = if (data.size > 1) frameHandlers[data[1].toInt() and 0xFF] else null
+            if (handler != null) {
+                val response = try {
+                    RadarCustomDataCodec.decodeFrame(data)
+                } catch (e: IllegalArgumentException) {
+                    Log.w(TAG, "Invalid frame: ${e.message}")
+                    null
+                }
+                if (response != null) {
+                    handler(response)
+                    return true
+                }
+            }
+        } else {
+            val message = RadarCustomDataCodec.decodeText(data)
+            if (message != null) {
+                val handler = textHandlers[message.command]
+                if (handler != null) {
+                    handler(message)
+                    return true
+                }
+            }
+        }
+        unhandled?.invoke(data)
+        return false
+    }
+}
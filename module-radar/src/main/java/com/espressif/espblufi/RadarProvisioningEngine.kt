@@ -0,0 +1,445 @@
+/**
+ * File: RadarProvisioningEngine.kt
+ * Path: module-radar/src/main/java/com/espressif/espblufi/RadarProvisioningEngine.kt
+ *
+ * A厂(Radar)批量配网引擎，多个 BlufiClient 会话并行执行
+ * */
+package com.espressif.espblufi
+
+import android.annotation.SuppressLint
+import android.bluetooth.BluetoothAdapter
+import android.bluetooth.BluetoothGatt
+import android.bluetooth.BluetoothGattCallback
+import android.bluetooth.BluetoothGattCharacteristic
+import android.bluetooth.BluetoothGattService
+import android.bluetooth.BluetoothManager
+import android.bluetooth.BluetoothProfile
+import android.content.Context
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import android.util.Log
+
+import com.common.DeviceInfo
+import com.common.ServerConfig
+import com.common.WifiConfig
+
+import com.espressif.espblufi.params.BlufiConfigureParams
+
+/**
+ * 批量配网引擎
+ * - 每台设备一个独立的 BlufiClient 会话，拥有自己的状态机和超时
+ * - 同时运行的会话数不超过 maxConcurrency（Android 通常只允许 4~7 条 GATT 连接）
+ * - 每台设备完成后立即回调结果，不等待整批结束
+ *
+ * 所有回调都在主线程执行
+ */
+@SuppressLint("MissingPermission")
+class RadarProvisioningEngine(
+    context: Context,
+    maxConcurrency: Int = DEFAULT_MAX_CONCURRENCY
+) {
+    companion object {
+        private const val TAG = "RadarProvisioning"
+
+        const val DEFAULT_MAX_CONCURRENCY = 4
+        const val MAX_CONCURRENCY = 7
+
+        private const val GATT_WRITE_TIMEOUT = 10000L
+        private const val CONNECT_TIMEOUT = 15000L        // 连接到 GATT 准备完成
+        // 安全协商，包括 DH 重试，另留写入和计算密钥的时间
+        private const val NEGOTIATE_TIMEOUT = BlufiClient.NEGOTIATE_SECURITY_TIMEOUT + 5000L
+        private const val WIFI_TIMEOUT = 20000L           // WiFi 配置
+        private const val SERVER_TIMEOUT = 25000L         // 服务器配置
+        private const val COMMAND_TIMEOUT = 2000L         // 自定义命令无响应时的等待时间
+        private const val DEVICERESTART_DELAYTIME = 5000L
+
+        private const val MAX_CONNECT_RETRY = 2
+        private const val RECONNECT_DELAY = 1000L
+        // 同时发起多个连接时，错开启动时间，减少 status 133
+        private const val SESSION_START_INTERVAL = 300L
+    }
+
+    /**
+     * 一台设备的配网任务，wifiConfig 和 serverConfig 至少有一个
+     */
+    data class Task(
+        val deviceInfo: DeviceInfo,
+        val wifiConfig: WifiConfig? = null,
+        val serverConfig: ServerConfig? = null
+    )
+
+    /**
+     * 会话状态
+     */
+    enum class State {
+        PENDING,
+        CONNECTING,
+        NEGOTIATING,
+        CONFIGURING_WIFI,
+        CONFIGURING_SERVER,
+        RESTARTING,
+        SUCCEEDED,
+        FAILED
+    }
+
+    /**
+     * 一台设备的配网结果
+     *
+     * @param failedState 失败时所处的状态，成功时为 null
+     * @param details 与 RadarBleManager 的结果 Map 相同的键，如 wifiConfigured、serverAddressSuccess
+     */
+    data class Result(
+        val deviceInfo: DeviceInfo,
+        val success: Boolean,
+        val failedState: State?,
+        val error: String?,
+        val details: Map<String, String>,
+        val elapsedMs: Long
+    )
+
+    private val appContext = context.applicationContext
+    private val bluetoothAdapter: BluetoothAdapter? =
+        (appContext.getSystemService(Context.BLUETOOTH_SERVICE) as BluetoothManager).adapter
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    private val maxConcurrency = maxConcurrency.coerceIn(1, MAX_CONCURRENCY)
+
+    // 以下状态只在主线程访问
+    private val pendingTasks = ArrayDeque<Task>()
+    private val activeSessions = mutableListOf<Session>()
+    private val results = mutableListOf<Result>()
+    private var onResult: ((Result) -> Unit)? = null
+    private var onComplete: ((List<Result>) -> Unit)? = null
+    private var lastSessionStart = 0L
+
+    val isRunning: Boolean
+        get() = activeSessions.isNotEmpty() || pendingTasks.isNotEmpty()
+
+    /**
+     * 开始批量配网，一个批次未结束前不能开始下一个批次
+     *
+     * @param tasks 配网任务，同一 MAC 只执行第一个
+     * @param onResult 每台设备完成时回调
+     * @param onComplete 整批结束时回调，结果按完成顺序排列
+     */
+    fun provision(
+        tasks: List<Task>,
+        onResult: (Result) -> Unit,
+        onComplete: ((List<Result>) -> Unit)? = null
+    ) {
+        mainHandler.post {
+            if (isRunning) {
+                Log.e(TAG, "Provisioning is already running")
+                tasks.forEach { onResult(failedResult(it, "Provisioning is already running")) }
+                return@post
+            }
+
+            Log.d(TAG, "Start provisioning ${tasks.size} devices, concurrency: $maxConcurrency")
+            this.onResult = onResult
+            this.onComplete = onComplete
+            results.clear()
+            tasks.distinctBy { it.deviceInfo.macAddress.uppercase() }
+                .forEach { pendingTasks.addLast(it) }
+            startPendingSessions()
+        }
+    }
+
+    /**
+     * 取消所有未完成的任务，已开始的会话以失败结束
+     */
+    fun cancel() {
+        mainHandler.post {
+            Log.d(TAG, "Cancel provisioning, pending: ${pendingTasks.size}, active: ${activeSessions.size}")
+            while (pendingTasks.isNotEmpty()) {
+                reportResult(failedResult(pendingTasks.removeFirst(), "Cancelled"))
+            }
+            activeSessions.toList().forEach { it.fail("Cancelled") }
+        }
+    }
+
+    private fun startPendingSessions() {
+        mainHandler.removeCallbacks(startPendingRunnable)
+        while (activeSessions.size < maxConcurrency && pendingTasks.isNotEmpty()) {
+            val wait = lastSessionStart + SESSION_START_INTERVAL - SystemClock.elapsedRealtime()
+            if (wait > 0) {
+                mainHandler.postDelayed(startPendingRunnable, wait)
+                return
+            }
+
+            val session = Session(pendingTasks.removeFirst())
+            activeSessions.add(session)
+            lastSessionStart = SystemClock.elapsedRealtime()
+            // 异步启动，会话立即失败时不会重入本方法
+            mainHandler.post { session.start() }
+        }
+
+        if (activeSessions.isEmpty() && pendingTasks.isEmpty()) {
+            val callback = onComplete
+            val completed = results.toList()
+            onResult = null
+            onComplete = null
+            Log.d(TAG, "Provisioning complete, success: ${completed.count { it.success }}/${completed.size}")
+            callback?.invoke(completed)
+        }
+    }
+
+    private val startPendingRunnable = Runnable { startPendingSessions() }
+
+    private fun onSessionFinished(session: Session, result: Result) {
+        activeSessions.remove(session)
+        reportResult(result)
+        startPendingSessions()
+    }
+
+    private fun reportResult(result: Result) {
+        results.add(result)
+        onResult?.invoke(result)
+    }
+
+    private fun failedResult(task: Task, error: String): Result {
+        return Result(task.deviceInfo, false, State.PENDING, error, emptyMap(), 0L)
+    }
+
+    /**
+     * 一台设备的配网会话，状态只在主线程修改
+     */
+    private inner class Session(private val task: Task) {
+        private val mac = task.deviceInfo.macAddress
+        private val details = mutableMapOf<String, String>()
+        private var client: BlufiClient? = null
+        private var state = State.PENDING
+        private var startTime = 0L
+        private var connectRetry = 0
+
+        private val timeoutRunnable = Runnable { onTimeout() }
+        private val sequencer = RadarCommandSequencer(mainHandler) { command ->
+            Log.d(TAG, "[$mac] Sending command: $command")
+            client?.postCustomData(command.toByteArray())
+        }
+
+        fun start() {
+            startTime = SystemClock.elapsedRealtime()
+            details["deviceId"] = task.deviceInfo.deviceId
+            details["macAddress"] = mac
+            if (task.wifiConfig == null && task.serverConfig == null) {
+                fail("Nothing to configure")
+                return
+            }
+            connect()
+        }
+
+        private fun connect() {
+            val device = try {
+                bluetoothAdapter?.getRemoteDevice(mac)
+            } catch (e: IllegalArgumentException) {
+                null
+            }
+            if (device == null) {
+                fail("Invalid device address")
+                return
+            }
+
+            enterState(State.CONNECTING, CONNECT_TIMEOUT)
+            Log.d(TAG, "[$mac] Connecting, attempt: ${connectRetry + 1}")
+            val c = BlufiClient(appContext, device)
+            client = c
+            c.setGattWriteTimeout(GATT_WRITE_TIMEOUT)
+            // 会话状态只在主线程修改
+            c.setCallbackExecutor(appContext.mainExecutor)
+            c.setGattCallback(createGattCallback(c))
+            c.setBlufiCallback(blufiCallback)
+            c.connect()
+        }
+
+        private fun enterState(newState: State, timeout: Long) {
+            Log.d(TAG, "[$mac] $state -> $newState")
+            state = newState
+            mainHandler.removeCallbacks(timeoutRunnable)
+            if (timeout > 0) {
+                mainHandler.postDelayed(timeoutRunnable, timeout)
+            }
+        }
+
+        private fun isFinished(): Boolean {
+            return state == State.SUCCEEDED || state == State.FAILED
+        }
+
+        /**
+         * 安全协商后依次执行：WiFi 配置 -> 服务器配置
+         */
+        private fun startNextStep(c: BlufiClient) {
+            val wifiConfig = task.wifiConfig
+            val serverConfig = task.serverConfig
+            when {
+                wifiConfig != null && state == State.NEGOTIATING -> {
+                    enterState(State.CONFIGURING_WIFI, WIFI_TIMEOUT)
+                    val params = BlufiConfigureParams().apply {
+                        opMode = 1  // STA模式
+                        staSSIDBytes = wifiConfig.ssid.toByteArray()
+                        staPassword = wifiConfig.password
+                    }
+                    c.configure(params)
+                }
+
+                serverConfig != null && state != State.CONFIGURING_SERVER -> {
+                    enterState(State.CONFIGURING_SERVER, SERVER_TIMEOUT)
+                    sendServerCommands(serverConfig)
+                }
+
+                else -> succeed()
+            }
+        }
+
+        private fun sendServerCommands(serverConfig: ServerConfig) {
+            sequencer.start(
+                RadarCommandSequencer.serverCommandSteps(serverConfig, COMMAND_TIMEOUT, DEVICERESTART_DELAYTIME),
+                onStepStart = { step ->
+                    if (step.timeoutIsUnknown) {
+                        // 由 sequencer 负责重启命令的超时，这里只做兜底
+                        enterState(State.RESTARTING, DEVICERESTART_DELAYTIME * 2)
+                    }
+                }
+            ) { stepResults ->
+                if (RadarCommandSequencer.putServerResults(details, stepResults)) {
+                    succeed()
+                } else {
+                    fail("Server configuration failed")
+                }
+            }
+        }
+
+        private fun onTimeout() {
+            if (state == State.RESTARTING) {
+                onRestartTimeout()
+            } else {
+                fail("Timeout")
+            }
+        }
+
+        private fun onRestartTimeout() {
+            // 重启后设备通常来不及回复，至少地址或端口配置成功即认为完成
+            val configured = RadarCommandSequencer.putServerResults(details, sequencer.stepResults)
+            sequencer.cancel()
+            details["deviceRestarted"] = "unknown"
+            if (configured) {
+                succeed()
+            } else {
+                fail("Server configuration failed")
+            }
+        }
+
+        private fun succeed() {
+            if (isFinished()) return
+            finish(true, null, null)
+        }
+
+        fun fail(error: String) {
+            if (isFinished()) return
+            Log.e(TAG, "[$mac] Failed in $state: $error")
+            finish(false, state, error)
+        }
+
+        private fun finish(success: Boolean, failedState: State?, error: String?) {
+            enterState(if (success) State.SUCCEEDED else State.FAILED, 0)
+            if (sequencer.isRunning) {
+                RadarCommandSequencer.putServerResults(details, sequencer.stepResults)
+            }
+            sequencer.cancel()
+            closeClient()
+
+            details["success"] = success.toString()
+            details["completedAt"] = System.currentTimeMillis().toString()
+            error?.let { details["error"] = it }
+            val elapsed = SystemClock.elapsedRealtime() - startTime
+            Log.d(TAG, "[$mac] Finished in ${elapsed}ms, success: $success")
+            onSessionFinished(this, Result(task.deviceInfo, success, failedState, error, details.toMap(), elapsed))
+        }
+
+        private fun closeClient() {
+            try {
+                client?.close()
+            } catch (e: Exception) {
+                Log.e(TAG, "[$mac] Error closing BlufiClient", e)
+            }
+            client = null
+        }
+
+        private fun onDisconnected(c: BlufiClient, status: Int) {
+            if (client !== c || isFinished()) return
+            when {
+                state == State.RESTARTING -> onRestartTimeout()
+                state == State.CONNECTING && connectRetry < MAX_CONNECT_RETRY -> {
+                    connectRetry++
+                    Log.w(TAG, "[$mac] Connect failed with status $status, retry in ${RECONNECT_DELAY}ms")
+                    closeClient()
+                    mainHandler.removeCallbacks(timeoutRunnable)
+                    mainHandler.postDelayed({
+                        if (state == State.CONNECTING && client == null) {
+                            connect()
+                        }
+                    }, RECONNECT_DELAY)
+                }
+                else -> fail("Disconnected, status: $status")
+            }
+        }
+
+        private fun createGattCallback(c: BlufiClient): BluetoothGattCallback {
+            return object : BluetoothGattCallback() {
+                override fun onConnectionStateChange(gatt: BluetoothGatt, status: Int, newState: Int) {
+                    if (newState == BluetoothProfile.STATE_DISCONNECTED || status != BluetoothGatt.GATT_SUCCESS) {
+                        mainHandler.post { onDisconnected(c, status) }
+                    }
+                }
+            }
+        }
+
+        private val blufiCallback = object : BlufiCallback() {
+            override fun onGattPrepared(
+                client: BlufiClient,
+                gatt: BluetoothGatt,
+                service: BluetoothGattService?,
+                writeChar: BluetoothGattCharacteristic?,
+                notifyChar: BluetoothGattCharacteristic?
+            ) {
+                if (this@Session.client !== client || state != State.CONNECTING) return
+                if (service == null || writeChar == null || notifyChar == null) {
+                    fail("Service discovery failed")
+                    return
+                }
+                enterState(State.NEGOTIATING, NEGOTIATE_TIMEOUT)
+                client.negotiateSecurity()
+            }
+
+            override fun onNegotiateSecurityResult(client: BlufiClient, status: Int) {
+                if (this@Session.client !== client || state != State.NEGOTIATING) return
+                if (status == STATUS_SUCCESS) {
+                    startNextStep(client)
+                } else {
+                    fail("Security negotiation failed: $status")
+                }
+            }
+
+            override fun onPostConfigureParams(client: BlufiClient, status: Int) {
+                if (this@Session.client !== client || state != State.CONFIGURING_WIFI) return
+                details["wifiConfigured"] = (status == STATUS_SUCCESS).toString()
+                if (status == STATUS_SUCCESS) {
+                    startNextStep(client)
+                } else {
+                    fail("WiFi configuration failed: $status")
+                }
+            }
+
+            override fun onReceiveCustomData(client: BlufiClient, status: Int, data: ByteArray) {
+                if (this@Session.client !== client) return
+                // 响应格式 "命令:结果"
+                sequencer.onResponse(data)
+            }
+
+            override fun onError(client: BlufiClient, errCode: Int) {
+                if (this@Session.client !== client) return
+                fail("Communication error: $errCode")
+            }
+        }
+    }
+}
@@ -16,52 +16,22 @@ data class RadarResponse(
         ERROR(0xFF);             // 其他错误
 
         companion object {
-            fun fromCode(code: Int) = values().find { it.code == code } ?: ERROR
+            private val BY_CODE = arrayOfNulls<Status>(0x100).also { table ->
+                for (status in values()) {
+                    table[status.code] = status
+                }
+            }
+
+            fun fromCode(code: Int): Status = (if (code in BY_CODE.indices) BY_CODE[code] else null) ?: ERROR
         }
     }
 
     companion object {
         /**
          * 从字节数组解析响应数据
+         * @throws IllegalArgumentException 帧格式、长度或校验和错误，或命令码未知
          */
-        fun fromBytes(bytes: ByteArray): RadarResponse {
-            require(bytes.size >= 4) { "Invalid response data length" }
-
-            // 检查起始帧
-            require(bytes[0] == 0xAA.toByte()) { "Invalid start frame" }
-
-            // 解析命令码
-            val command = RadarCommand.fromCode(bytes[1].toInt())
-                ?: throw IllegalArgumentException("Unknown command code: ${bytes[1]}")
-
-            // 解析数据长度
-            val length = bytes[2].toInt()
-            require(bytes.size == length + 4) { "Data length mismatch" }
-
-            // 验证校验和
-            val checksum = bytes.last()
-            require(verifyChecksum(bytes)) { "Checksum verification failed" }
-
-            // 解析状态码
-            val status = Status.fromCode(bytes[3].toInt())
-
-            // 提取数据部分
-            val data = if (length > 0) {
-                bytes.copyOfRange(4, bytes.size - 1)
-            } else {
-                ByteArray(0)
-            }
-
-            return RadarResponse(command, status, data)
-        }
-
-        private fun verifyChecksum(bytes: ByteArray): Boolean {
-            var sum = 0
-            for (i in 0 until bytes.size - 1) {
-                sum += bytes[i]
-            }
-            return (sum and 0xFF).toByte() == bytes.last()
-        }
+        fun fromBytes(bytes: ByteArray): RadarResponse = RadarCustomDataCodec.decodeFrame(bytes)
     }
 
     /**
@@ -0,0 +1,217 @@
+/**
+ * File: RadarScanAggregator.kt
+ * Path: module-radar/src/main/java/com/espressif/espblufi/RadarScanAggregator.kt
+ *
+ * A厂(Radar)扫描结果聚合，按 MAC 合并重复广播，按帧率批量分发变化
+ * */
+package com.espressif.espblufi
+
+import android.os.Handler
+import android.os.SystemClock
+
+import com.common.DeviceInfo
+import com.common.Productor
+
+/**
+ * 扫描结果聚合器
+ * - 按 MAC 保存每个设备，同一设备的重复广播只更新最新 RSSI 和平滑 RSSI（指数加权平均）
+ * - 两帧之间的变化合并为一个批次，每帧最多分发一次，新设备和变化的设备分开列出
+ * - 平滑 RSSI 变化小于 rssiThreshold 且名称未变时不算变化
+ *
+ * offer 可在任意线程调用，批次在 handler 所在线程分发
+ * handler 应为聚合器专用，对它调用 removeCallbacksAndMessages(null) 会丢掉已安排的分发
+ */
+class RadarScanAggregator(
+    private val handler: Handler,
+    frameInterval: Long = DEFAULT_FRAME_INTERVAL,
+    private val smoothingFactor: Float = DEFAULT_SMOOTHING_FACTOR,
+    private val rssiThreshold: Int = DEFAULT_RSSI_THRESHOLD
+) {
+    companion object {
+        const val DEFAULT_FRAME_INTERVAL = 200L       // 每秒 5 帧
+        const val MIN_FRAME_INTERVAL = 16L            // 最高约 60 帧
+        const val DEFAULT_SMOOTHING_FACTOR = 0.3f     // 新样本的权重
+        const val DEFAULT_RSSI_THRESHOLD = 2
+    }
+
+    /**
+     * 一个设备的聚合结果
+     * @param device 设备信息，rssi 为最新一次广播的值
+     * @param smoothedRssi 平滑后的 RSSI，适合显示和排序
+     * @param seenCount 扫描期间收到的广播次数
+     * @param lastSeen 最后一次收到广播的时间（SystemClock.elapsedRealtime）
+     */
+    data class ScanEntry(
+        val device: DeviceInfo,
+        val smoothedRssi: Int,
+        val seenCount: Int,
+        val lastSeen: Long
+    )
+
+    /**
+     * 一帧内的变化
+     * @param added 本帧新发现的设备
+     * @param updated 之前已分发、本帧有变化的设备
+     */
+    data class ScanBatch(
+        val added: List<ScanEntry>,
+        val updated: List<ScanEntry>
+    )
+
+    private class Slot(val macAddress: String) {
+        var name: String? = null
+        var rssi = 0
+        var smoothedRssi = 0f
+        var reportedRssi = 0
+        var seenCount = 0
+        var lastSeen = 0L
+        var isReported = false
+        var isDirty = false
+    }
+
+    private val lock = Any()
+    private val slots = HashMap<String, Slot>()
+    private val dirtySlots = ArrayList<Slot>()
+    private var isFlushScheduled = false
+    private var lastFlushTime = 0L
+
+    @Volatile
+    private var frameInterval = frameInterval.coerceAtLeast(MIN_FRAME_INTERVAL)
+
+    private val flushRunnable = Runnable { flush() }
+
+    /**
+     * 批次回调，在 handler 所在线程执行
+     */
+    @Volatile
+    var batchListener: ((ScanBatch) -> Unit)? = null
+
+    /**
+     * 已聚合的设备数
+     */
+    val size: Int
+        get() = synchronized(lock) { slots.size }
+
+    /**
+     * 设置分发帧率
+     * @param framesPerSecond 每秒最多分发的批次数
+     */
+    fun setFrameRate(framesPerSecond: Int) {
+        frameInterval = (1000L / framesPerSecond.coerceAtLeast(1)).coerceAtLeast(MIN_FRAME_INTERVAL)
+    }
+
+    /**
+     * 加入一次广播
+     * @return true 表示设备有变化，会在下一帧分发
+     */
+    fun offer(macAddress: String, name: String?, rssi: Int): Boolean {
+        synchronized(lock) {
+            var slot = slots[macAddress]
+            if (slot == null) {
+                slot = Slot(macAddress)
+                slot.smoothedRssi = rssi.toFloat()
+                slots[macAddress] = slot
+            } else {
+                slot.smoothedRssi += smoothingFactor * (rssi - slot.smoothedRssi)
+            }
+            slot.rssi = rssi
+            slot.seenCount++
+            slot.lastSeen = SystemClock.elapsedRealtime()
+
+            var changed = !slot.isReported
+            if (name != null && name != slot.name) {
+                slot.name = name
+                changed = true
+            }
+            if (Math.abs(Math.round(slot.smoothedRssi) - slot.reportedRssi) >= rssiThreshold) {
+                changed = true
+            }
+            if (!changed) {
+                return false
+            }
+            if (!slot.isDirty) {
+                slot.isDirty = true
+                dirtySlots.add(slot)
+            }
+            scheduleFlushLocked()
+            return true
+        }
+    }
+
+    /**
+     * 立即分发未分发的变化，需在 handler 所在线程调用
+     */
+    fun flush() {
+        val batch = synchronized(lock) {
+            handler.removeCallbacks(flushRunnable)
+            isFlushScheduled = false
+            lastFlushTime = SystemClock.elapsedRealtime()
+            if (dirtySlots.isEmpty()) {
+                return
+            }
+            val added = ArrayList<ScanEntry>()
+            val updated = ArrayList<ScanEntry>()
+            for (slot in dirtySlots) {
+                val entry = toEntry(slot)
+                if (slot.isReported) {
+                    updated.add(entry)
+                } else {
+                    added.add(entry)
+                }
+                slot.isReported = true
+                slot.isDirty = false
+                slot.reportedRssi = entry.smoothedRssi
+            }
+            dirtySlots.clear()
+            ScanBatch(added, updated)
+        }
+        batchListener?.invoke(batch)
+    }
+
+    /**
+     * 当前所有设备的聚合结果
+     */
+    fun snapshot(): List<ScanEntry> {
+        synchronized(lock) {
+            val result = ArrayList<ScanEntry>(slots.size)
+            for (slot in slots.values) {
+                result.add(toEntry(slot))
+            }
+            return result
+        }
+    }
+
+    /**
+     * 清空所有设备和未分发的变化，开始新一轮扫描前调用
+     */
+    fun clear() {
+        synchronized(lock) {
+            handler.removeCallbacks(flushRunnable)
+            isFlushScheduled = false
+            slots.clear()
+            dirtySlots.clear()
+        }
+    }
+
+    private fun scheduleFlushLocked() {
+        if (isFlushScheduled) {
+            return
+        }
+        isFlushScheduled = true
+        // 与上一帧至少间隔一个帧周期
+        val elapsed = SystemClock.elapsedRealtime() - lastFlushTime
+        val delay = (frameInterval - elapsed).coerceIn(0L, frameInterval)
+        handler.postDelayed(flushRunnable, delay)
+    }
+
+    private fun toEntry(slot: Slot): ScanEntry {
+        val device = DeviceInfo(
+            productorName = Productor.radarQL,
+            deviceName = slot.name ?: "Unknown",
+            deviceId = slot.name ?: slot.macAddress,
+            macAddress = slot.macAddress,
+            rssi = slot.rssi,
+        )
+        return ScanEntry(device, Math.round(slot.smoothedRssi), slot.seenCount, slot.lastSeen)
+    }
+}
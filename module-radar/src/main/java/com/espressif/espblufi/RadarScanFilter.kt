@@ -0,0 +1,208 @@
+/**
+ * File: RadarScanFilter.kt
+ * Path: module-radar/src/main/java/com/espressif/espblufi/RadarScanFilter.kt
+ *
+ * A厂(Radar)扫描过滤条件，能精确匹配的部分交给控制器过滤，其余在软件中过滤
+ * */
+package com.espressif.espblufi
+
+import android.bluetooth.BluetoothAdapter
+import android.bluetooth.le.ScanFilter
+import android.bluetooth.le.ScanResult
+import android.os.ParcelUuid
+import java.util.Locale
+import java.util.UUID
+import java.util.concurrent.atomic.AtomicLong
+
+import com.common.FilterType
+import com.espressif.espblufi.constants.BlufiConstants
+
+/**
+ * 扫描过滤条件，分两级
+ * - 硬件级：完整 MAC、完整服务 UUID、精确设备名（exactName）、BluFi 服务（blufiOnly）转换为 ScanFilter，
+ *   由控制器（或不支持卸载时由系统蓝牙栈）丢弃不匹配的广播，不唤醒应用
+ * - 软件级：部分 MAC、部分 UUID、设备名包含（忽略大小写）无法用 ScanFilter 表达，仍在回调中匹配
+ *
+ * 同时统计到达回调的结果中，已由硬件过滤直接接受的数量和经软件匹配接受、拒绝的数量
+ *
+ * @param filterPrefix 过滤值，null 或空值时不过滤
+ * @param exactName 设备名过滤时按精确名称（区分大小写）交给硬件过滤
+ * @param blufiOnly 只扫描广播了 BluFi 服务 UUID 的设备
+ */
+class RadarScanFilter(
+    val filterType: FilterType,
+    filterPrefix: String?,
+    val exactName: Boolean = false,
+    val blufiOnly: Boolean = false
+) {
+    /**
+     * 过滤统计
+     * @param hardwareMatched 硬件过滤后直接接受的回调数
+     * @param softwareMatched 软件匹配后接受的回调数
+     * @param softwareRejected 软件匹配后丢弃的回调数
+     * @param unfiltered 没有过滤条件时接受的回调数
+     */
+    data class Stats(
+        val hardwareMatched: Long,
+        val softwareMatched: Long,
+        val softwareRejected: Long,
+        val unfiltered: Long
+    )
+
+    private val prefix = filterPrefix?.trim().orEmpty()
+
+    // 软件匹配用的值，预先处理好，避免每条广播重复转换
+    private val macPrefix = prefix.replace(":", "").replace("-", "")
+    private val exactMac = toExactMac(macPrefix)
+    private val exactUuid = toExactUuid(prefix)
+
+    // BluFi 服务与精确 UUID 不同时，一个 ScanFilter 只能带一个服务 UUID，BluFi 改在软件中检查
+    private val checkBlufiInSoftware = blufiOnly && exactUuid != null && exactUuid != BlufiConstants.UUID_SERVICE
+
+    /**
+     * 是否还需要软件匹配
+     */
+    val hasSoftwareTier: Boolean = checkBlufiInSoftware || (prefix.isNotEmpty() && when (filterType) {
+        FilterType.DEVICE_NAME -> !exactName
+        FilterType.MAC -> exactMac == null
+        FilterType.UUID -> exactUuid == null
+    })
+
+    /**
+     * 传给 startScan 的硬件过滤条件，null 表示不做硬件过滤
+     */
+    val scanFilters: List<ScanFilter>? = buildScanFilters()
+
+    private val hardwareMatched = AtomicLong()
+    private val softwareMatched = AtomicLong()
+    private val softwareRejected = AtomicLong()
+    private val unfiltered = AtomicLong()
+
+    /**
+     * 判断扫描结果是否符合条件并计数，可在任意线程调用
+     */
+    fun matches(result: ScanResult): Boolean {
+        if (!hasSoftwareTier) {
+            if (scanFilters != null) {
+                hardwareMatched.incrementAndGet()
+            } else {
+                unfiltered.incrementAndGet()
+            }
+            return true
+        }
+        return if (matchSoftware(result)) {
+            softwareMatched.incrementAndGet()
+            true
+        } else {
+            softwareRejected.incrementAndGet()
+            false
+        }
+    }
+
+    fun getStats(): Stats {
+        return Stats(hardwareMatched.get(), softwareMatched.get(), softwareRejected.get(), unfiltered.get())
+    }
+
+    override fun toString(): String {
+        return "RadarScanFilter(type=$filterType, prefix='$prefix', hardware=${scanFilters?.size ?: 0}, " +
+                "software=$hasSoftwareTier)"
+    }
+
+    private fun buildScanFilters(): List<ScanFilter>? {
+        val builder = ScanFilter.Builder()
+        var hasCondition = false
+        if (prefix.isNotEmpty()) {
+            when (filterType) {
+                FilterType.DEVICE_NAME -> if (exactName) {
+                    builder.setDeviceName(prefix)
+                    hasCondition = true
+                }
+
+                FilterType.MAC -> exactMac?.let {
+                    builder.setDeviceAddress(it)
+                    hasCondition = true
+                }
+
+                FilterType.UUID -> exactUuid?.let {
+                    builder.setServiceUuid(ParcelUuid(it))
+                    hasCondition = true
+                }
+            }
+        }
+        if (blufiOnly && !(filterType == FilterType.UUID && exactUuid != null)) {
+            builder.setServiceUuid(ParcelUuid(BlufiConstants.UUID_SERVICE))
+            hasCondition = true
+        }
+        return if (hasCondition) listOf(builder.build()) else null
+    }
+
+    private fun matchSoftware(result: ScanResult): Boolean {
+        if (checkBlufiInSoftware && !hasServiceUuid(result, BlufiConstants.UUID_SERVICE)) {
+            return false
+        }
+        if (prefix.isEmpty()) {
+            return true
+        }
+        return when (filterType) {
+            FilterType.DEVICE_NAME -> {
+                if (exactName) {
+                    true
+                } else {
+                    val deviceName = result.device.name
+                    deviceName != null && deviceName.contains(prefix, ignoreCase = true)
+                }
+            }
+
+            FilterType.MAC -> {
+                exactMac != null || result.device.address
+                    .replace(":", "")
+                    .replace("-", "")
+                    .contains(macPrefix, ignoreCase = true)
+            }
+
+            FilterType.UUID -> {
+                if (exactUuid != null) {
+                    true
+                } else {
+                    val serviceUuids = result.scanRecord?.serviceUuids
+                    serviceUuids != null && serviceUuids.any { uuid ->
+                        uuid.toString().contains(prefix, ignoreCase = true)
+                    }
+                }
+            }
+        }
+    }
+
+    private fun hasServiceUuid(result: ScanResult, uuid: UUID): Boolean {
+        val serviceUuids = result.scanRecord?.serviceUuids ?: return false
+        return serviceUuids.any { it.uuid == uuid }
+    }
+
+    /**
+     * 12 位十六进制 MAC 转为 ScanFilter 要求的格式，不是完整 MAC 时返回 null
+     */
+    private fun toExactMac(hex: String): String? {
+        if (hex.length != 12 || !hex.all { Character.digit(it, 16) >= 0 }) {
+            return null
+        }
+        val address = hex.uppercase(Locale.ROOT).chunked(2).joinToString(":")
+        return if (BluetoothAdapter.checkBluetoothAddress(address)) address else null
+    }
+
+    /**
+     * 完整的 128 位 UUID（可省略连字符）转为 UUID，否则返回 null
+     */
+    private fun toExactUuid(value: String): UUID? {
+        val hex = value.replace("-", "")
+        if (hex.length != 32 || !hex.all { Character.digit(it, 16) >= 0 }) {
+            return null
+        }
+        val formatted = "${hex.substring(0, 8)}-${hex.substring(8, 12)}-${hex.substring(12, 16)}-" +
+                "${hex.substring(16, 20)}-${hex.substring(20)}"
+        return try {
+            UUID.fromString(formatted)
+        } catch (e: IllegalArgumentException) {
+            null
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * File: RadarStatusSnapshot.kt
+ * Path: module-radar/src/main/java/com/espressif/espblufi/RadarStatusSnapshot.kt
+ *
+ * A厂(Radar)设备状态快照，合并一次状态读取中 BluFi 状态和自定义查询的响应
+ * */
+package com.espressif.espblufi
+
+import com.espressif.espblufi.response.BlufiStatusResponse
+
+/**
+ * 一次状态读取的结果，没有收到的项为 null，失败的项记录在 errors 中
+ *
+ * @param opMode BluFi 状态中的 WiFi 模式，0 NULL、1 STA、2 SOFTAP、3 STASOFTAP
+ * @param staConnected STA 是否已连接，只在 STA 或 STASOFTAP 模式下有值
+ * @param customWifiMode 62: 响应中的 WiFi 模式，"STA"、"AP"、"APSTA" 或 "Unknown"
+ * @param customWifiSSID 62: 响应中已连接的 SSID，未连接时为 null
+ * @param errors 失败项的原因，键与 [toMap] 中的错误键相同
+ * @param elapsedTime 从借用连接到收齐响应的时间，毫秒
+ */
+data class RadarStatusSnapshot(
+    val opMode: Int? = null,
+    val staConnected: Boolean? = null,
+    val staSSID: String? = null,
+    val staBSSID: String? = null,
+    val apSSID: String? = null,
+    val apSecurity: Int? = null,
+    val apChannel: Int? = null,
+    val apConnCount: Int? = null,
+    val uid: String? = null,
+    val customWifiMode: String? = null,
+    val customWifiConnected: Boolean? = null,
+    val customWifiSSID: String? = null,
+    val errors: Map<String, String> = emptyMap(),
+    val elapsedTime: Long = 0L
+) {
+    companion object {
+        // errors 的键
+        const val ERROR = "error"
+        const val WIFI_ERROR = "wifiError"
+        const val UID_ERROR = "uidError"
+        const val CUSTOM_WIFI_ERROR = "customWifiError"
+
+        fun opModeName(opMode: Int): String = when (opMode) {
+            0 -> "NULL"
+            1 -> "STA"
+            2 -> "SOFTAP"
+            3 -> "STASOFTAP"
+            else -> "UNKNOWN($opMode)"
+        }
+
+        fun customWifiModeName(mode: String): String = when (mode) {
+            "1" -> "STA"
+            "2" -> "AP"
+            "3" -> "APSTA"
+            else -> "Unknown"
+        }
+
+        /**
+         * @return 命令对应的 errors 键
+         */
+        fun errorKey(command: RadarCommand): String = when (command) {
+            RadarCommand.GET_UID -> UID_ERROR
+            RadarCommand.GET_WIFI_STATUS -> CUSTOM_WIFI_ERROR
+            else -> "${command.name}Error"
+        }
+    }
+
+    val hasError: Boolean
+        get() = errors.isNotEmpty()
+
+    /**
+     * 合并 BluFi 状态响应
+     */
+    fun merge(response: BlufiStatusResponse): RadarStatusSnapshot {
+        val opMode = response.opMode
+        val sta = opMode == 1 || opMode == 3
+        val ap = opMode == 2 || opMode == 3
+        return copy(
+            opMode = opMode,
+            staConnected = if (sta) response.staConnectionStatus == 0 else null,
+            staSSID = if (sta) response.staSSID ?: "" else null,
+            staBSSID = if (sta) response.staBSSID ?: "" else null,
+            apSSID = if (ap) response.softAPSSID ?: "" else null,
+            apSecurity = if (ap) response.softAPSecurity else null,
+            apChannel = if (ap) response.softAPChannel else null,
+            apConnCount = if (ap) response.softAPConnectionCount else null
+        )
+    }
+
+    /**
+     * 合并自定义查询的响应，不认识的命令不合并
+     */
+    fun merge(message: RadarCustomDataCodec.TextMessage): RadarStatusSnapshot {
+        return when (message.command) {
+            RadarCommand.GET_UID.code -> {
+                // "12:UID"
+                val uid = message.field(0)?.trim()
+                if (uid.isNullOrEmpty()) {
+                    withError(UID_ERROR, "Failed to parse UID response")
+                } else {
+                    copy(uid = uid)
+                }
+            }
+            RadarCommand.GET_WIFI_STATUS.code -> {
+                // "62:模式:连接状态:SSID"，SSID 可能包含 ':'，取剩余全部内容
+                val mode = message.field(0)
+                val connection = message.field(1)
+                if (mode == null || connection == null) {
+                    withError(CUSTOM_WIFI_ERROR, "Failed to parse WiFi status response")
+                } else {
+                    val connected = connection == "0"
+                    copy(
+                        customWifiMode = customWifiModeName(mode),
+                        customWifiConnected = connected,
+                        customWifiSSID = if (connected) message.remainderFrom(2) else null
+                    )
+                }
+            }
+            else -> this
+        }
+    }
+
+    fun withError(key: String, message: String): RadarStatusSnapshot {
+        return copy(errors = errors + (key to message))
+    }
+
+    /**
+     * 转换为 queryDeviceStatus 回调的 Map，键与原有结果相同
+     */
+    fun toMap(): Map<String, String> {
+        val map = LinkedHashMap<String, String>()
+        opMode?.let { map["wifiOpMode"] = opModeName(it) }
+        staConnected?.let { map["staConnected"] = it.toString() }
+        staSSID?.let { map["staSSID"] = it }
+        staBSSID?.let { map["staBSSID"] = it }
+        apSSID?.let { map["apSSID"] = it }
+        apSecurity?.let { map["apSecurity"] = it.toString() }
+        apChannel?.let { map["apChannel"] = it.toString() }
+        apConnCount?.let { map["apConnCount"] = it.toString() }
+        uid?.let { map["uid"] = it }
+        customWifiMode?.let { map["customWifiMode"] = it }
+        customWifiConnected?.let { map["customWifiConnected"] = it.toString() }
+        customWifiSSID?.let { map["customWifiSSID"] = it }
+        map.putAll(errors)
+        return map
+    }
+}
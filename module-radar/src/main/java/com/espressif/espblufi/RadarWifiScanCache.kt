@@ -0,0 +1,136 @@
+/**
+ * File: RadarWifiScanCache.kt
+ * Path: module-radar/src/main/java/com/espressif/espblufi/RadarWifiScanCache.kt
+ *
+ * A厂(Radar)设备端 WiFi 扫描结果缓存，按设备 MAC 保存去重排序后的结果
+ * */
+package com.espressif.espblufi
+
+import android.os.SystemClock
+
+import com.espressif.espblufi.response.BlufiScanResult
+
+/**
+ * 设备端 WiFi 扫描结果缓存
+ * - 按设备 MAC 保存最近一次完整扫描的结果，超过 ttl 视为过期
+ * - 结果按 SSID 去重（多个 BSSID 的同名网络只保留信号最强的），按 RSSI 从强到弱排序，隐藏网络（空 SSID）不保存
+ * - 最多保存 maxDevices 台设备，超出时移除最久未使用的
+ *
+ * 线程安全
+ */
+class RadarWifiScanCache(
+    ttl: Long = DEFAULT_TTL,
+    private val maxDevices: Int = DEFAULT_MAX_DEVICES
+) {
+    companion object {
+        const val DEFAULT_TTL = 120000L         // 2 分钟
+        const val DEFAULT_MAX_DEVICES = 16
+
+        private val RESULT_ORDER = compareByDescending<BlufiScanResult> { it.rssi }.thenBy { it.ssid }
+
+        /**
+         * 按 SSID 去重并排序
+         * @param base 原有结果
+         * @param fresh 新结果，与原有结果同名时替换原有结果
+         */
+        fun merge(base: Collection<BlufiScanResult>, fresh: Collection<BlufiScanResult>): List<BlufiScanResult> {
+            val bySsid = LinkedHashMap<String, BlufiScanResult>(base.size + fresh.size)
+            putStrongest(bySsid, base)
+            val replaced = HashMap<String, BlufiScanResult>(fresh.size)
+            putStrongest(replaced, fresh)
+            bySsid.putAll(replaced)
+            return bySsid.values.sortedWith(RESULT_ORDER)
+        }
+
+        private fun putStrongest(bySsid: MutableMap<String, BlufiScanResult>, results: Collection<BlufiScanResult>) {
+            for (result in results) {
+                val ssid = result.ssid
+                if (ssid.isNullOrEmpty()) {
+                    continue
+                }
+                val current = bySsid[ssid]
+                if (current == null || result.rssi > current.rssi) {
+                    bySsid[ssid] = result
+                }
+            }
+        }
+    }
+
+    /**
+     * 一台设备的缓存结果
+     * @param results 去重排序后的结果
+     * @param updatedAt 保存时间（SystemClock.elapsedRealtime）
+     */
+    data class Entry(
+        val results: List<BlufiScanResult>,
+        val updatedAt: Long
+    ) {
+        val age: Long
+            get() = SystemClock.elapsedRealtime() - updatedAt
+    }
+
+    /**
+     * 扫描进度
+     * @param results 当前可显示的结果，已去重排序
+     * @param fromCache 结果全部来自缓存，新的扫描还没有收到结果
+     * @param isComplete 本次扫描已结束，之后不会再回调
+     * @param error 扫描失败的原因，失败时 results 为缓存的结果
+     */
+    data class Update(
+        val results: List<BlufiScanResult>,
+        val fromCache: Boolean,
+        val isComplete: Boolean,
+        val error: String? = null
+    )
+
+    // 按访问顺序排列，第一个是最久未使用的
+    private val entries = LinkedHashMap<String, Entry>(maxDevices, 0.75f, true)
+
+    /**
+     * 缓存有效期，毫秒
+     */
+    @Volatile
+    var ttl: Long = ttl
+        set(value) {
+            field = value.coerceAtLeast(0L)
+        }
+
+    /**
+     * @return 设备未过期的缓存结果，没有或已过期时返回 null
+     */
+    @Synchronized
+    fun get(macAddress: String): Entry? {
+        val entry = entries[macAddress] ?: return null
+        if (entry.age > ttl) {
+            entries.remove(macAddress)
+            return null
+        }
+        return entry
+    }
+
+    /**
+     * 保存设备一次完整扫描的结果，替换原有结果
+     * @return 去重排序后的结果
+     */
+    @Synchronized
+    fun put(macAddress: String, results: Collection<BlufiScanResult>): List<BlufiScanResult> {
+        val merged = merge(emptyList(), results)
+        entries[macAddress] = Entry(merged, SystemClock.elapsedRealtime())
+        while (entries.size > maxDevices) {
+            val eldest = entries.keys.iterator()
+            eldest.next()
+            eldest.remove()
+        }
+        return merged
+    }
+
+    @Synchronized
+    fun invalidate(macAddress: String) {
+        entries.remove(macAddress)
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+    }
+}
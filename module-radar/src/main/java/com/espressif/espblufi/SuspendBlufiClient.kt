@@ -0,0 +1,258 @@
+/**
+ * File: SuspendBlufiClient.kt
+ * Path: module-radar/src/main/java/com/espressif/espblufi/SuspendBlufiClient.kt
+ *
+ * BlufiClient 的协程封装
+ * */
+package com.espressif.espblufi
+
+import android.bluetooth.BluetoothDevice
+import android.bluetooth.BluetoothGatt
+import android.bluetooth.BluetoothGattCallback
+import android.bluetooth.BluetoothGattCharacteristic
+import android.bluetooth.BluetoothGattService
+import android.bluetooth.BluetoothProfile
+import android.content.Context
+
+import com.espressif.espblufi.params.BlufiConfigureParams
+import com.espressif.espblufi.response.BlufiNegotiationReport
+import com.espressif.espblufi.response.BlufiScanResult
+import com.espressif.espblufi.response.BlufiStatusResponse
+import com.espressif.espblufi.response.BlufiVersionResponse
+
+import kotlinx.coroutines.CancellableContinuation
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.asSharedFlow
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+/**
+ * BlufiClient 的 suspend/Flow 接口，内部仍由 BlufiClientImpl 执行
+ * - 每个操作挂起到对应的 BlufiCallback 回调，状态码不为 STATUS_SUCCESS 时抛出 [BlufiException]
+ * - 不同类型的操作可以并发，同一类型的操作排队执行（回调无法区分同类型的多个请求）
+ * - 协程取消只停止等待，已提交给设备的操作不会撤回
+ * - 断开连接或收到 onError 时，所有等待中的操作抛出 [BlufiException]
+ *
+ * @param callback 可选，其余回调仍会转发给它
+ * @param gattCallback 可选，GATT 回调仍会转发给它
+ */
+class SuspendBlufiClient(
+    context: Context,
+    device: BluetoothDevice,
+    private val callback: BlufiCallback? = null,
+    private val gattCallback: BluetoothGattCallback? = null
+) {
+    private enum class Operation {
+        CONNECT,
+        NEGOTIATE_SECURITY,
+        CONFIGURE,
+        DEVICE_VERSION,
+        DEVICE_STATUS,
+        WIFI_SCAN,
+        POST_CUSTOM_DATA
+    }
+
+    val client = BlufiClient(context, device)
+
+    private val lock = Any()
+    private val pending = HashMap<Operation, CancellableContinuation<Any?>>()
+    private val mutexes = Operation.values().associateWith { Mutex() }
+
+    private val customDataFlow = MutableSharedFlow<ByteArray>(
+        extraBufferCapacity = 64,
+        onBufferOverflow = BufferOverflow.DROP_OLDEST
+    )
+
+    /**
+     * 设备主动发送的自定义数据，只有订阅后收到的数据才会发出
+     */
+    val customData: Flow<ByteArray> = customDataFlow.asSharedFlow()
+
+    init {
+        client.setBlufiCallback(InnerBlufiCallback())
+        client.setGattCallback(InnerGattCallback())
+    }
+
+    /**
+     * 连接设备，挂起到服务发现和通知准备完成
+     */
+    suspend fun connect() {
+        execute<Unit>(Operation.CONNECT) { client.connect() }
+    }
+
+    suspend fun negotiateSecurity() {
+        execute<Unit>(Operation.NEGOTIATE_SECURITY) { client.negotiateSecurity() }
+    }
+
+    suspend fun requestDeviceVersion(): BlufiVersionResponse {
+        return execute(Operation.DEVICE_VERSION) { client.requestDeviceVersion() }
+    }
+
+    suspend fun requestDeviceStatus(): BlufiStatusResponse {
+        return execute(Operation.DEVICE_STATUS) { client.requestDeviceStatus() }
+    }
+
+    suspend fun requestDeviceWifiScan(): List<BlufiScanResult> {
+        return execute(Operation.WIFI_SCAN) { client.requestDeviceWifiScan() }
+    }
+
+    /**
+     * 发送配置，挂起到配置数据发送完成
+     */
+    suspend fun configure(params: BlufiConfigureParams) {
+        execute<Unit>(Operation.CONFIGURE) { client.configure(params) }
+    }
+
+    /**
+     * 发送自定义数据，挂起到数据发送完成，设备的响应从 [customData] 接收
+     */
+    suspend fun postCustomData(data: ByteArray) {
+        execute<Unit>(Operation.POST_CUSTOM_DATA) { client.postCustomData(data) }
+    }
+
+    fun close() {
+        client.close()
+        failAll(BlufiException(BlufiException.CODE_DISCONNECTED, "Client closed"))
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private suspend fun <T> execute(operation: Operation, request: () -> Unit): T {
+        return mutexes.getValue(operation).withLock {
+            suspendCancellableCoroutine<Any?> { continuation ->
+                synchronized(lock) {
+                    pending[operation] = continuation
+                }
+                continuation.invokeOnCancellation {
+                    synchronized(lock) {
+                        if (pending[operation] === continuation) {
+                            pending.remove(operation)
+                        }
+                    }
+                }
+                try {
+                    request()
+                } catch (e: Exception) {
+                    take(operation)?.resumeWithException(e)
+                }
+            } as T
+        }
+    }
+
+    private fun take(operation: Operation): CancellableContinuation<Any?>? {
+        synchronized(lock) {
+            return pending.remove(operation)
+        }
+    }
+
+    private fun complete(operation: Operation, status: Int, value: Any?) {
+        val continuation = take(operation) ?: return
+        if (status == BlufiCallback.STATUS_SUCCESS) {
+            continuation.resume(value)
+        } else {
+            continuation.resumeWithException(BlufiException(status, "$operation failed"))
+        }
+    }
+
+    private fun failAll(exception: BlufiException) {
+        val continuations = synchronized(lock) {
+            pending.values.toList().also { pending.clear() }
+        }
+        continuations.forEach { it.resumeWithException(exception) }
+    }
+
+    private inner class InnerBlufiCallback : BlufiCallback() {
+        override fun onGattPrepared(
+            client: BlufiClient,
+            gatt: BluetoothGatt,
+            service: BluetoothGattService?,
+            writeChar: BluetoothGattCharacteristic?,
+            notifyChar: BluetoothGattCharacteristic?
+        ) {
+            val prepared = service != null && writeChar != null && notifyChar != null
+            complete(Operation.CONNECT, if (prepared) STATUS_SUCCESS else CODE_INVALID_DATA, Unit)
+            callback?.onGattPrepared(client, gatt, service, writeChar, notifyChar)
+        }
+
+        override fun onGattNotification(client: BlufiClient, pkgType: Int, subType: Int, data: ByteArray): Boolean {
+            return callback?.onGattNotification(client, pkgType, subType, data) ?: false
+        }
+
+        override fun onNegotiateSecurityResult(client: BlufiClient, status: Int) {
+            complete(Operation.NEGOTIATE_SECURITY, status, Unit)
+            callback?.onNegotiateSecurityResult(client, status)
+        }
+
+        override fun onNegotiateSecurityReport(client: BlufiClient, report: BlufiNegotiationReport) {
+            callback?.onNegotiateSecurityReport(client, report)
+        }
+
+        override fun onPostConfigureParams(client: BlufiClient, status: Int) {
+            complete(Operation.CONFIGURE, status, Unit)
+            callback?.onPostConfigureParams(client, status)
+        }
+
+        override fun onDeviceVersionResponse(client: BlufiClient, status: Int, response: BlufiVersionResponse?) {
+            complete(Operation.DEVICE_VERSION, if (response == null) CODE_INVALID_DATA else status, response)
+            callback?.onDeviceVersionResponse(client, status, response)
+        }
+
+        override fun onDeviceStatusResponse(client: BlufiClient, status: Int, response: BlufiStatusResponse?) {
+            complete(Operation.DEVICE_STATUS, if (response == null) CODE_INVALID_DATA else status, response)
+            callback?.onDeviceStatusResponse(client, status, response)
+        }
+
+        override fun onDeviceScanResult(client: BlufiClient, status: Int, results: List<BlufiScanResult>?) {
+            complete(Operation.WIFI_SCAN, status, results ?: emptyList<BlufiScanResult>())
+            callback?.onDeviceScanResult(client, status, results)
+        }
+
+        override fun onPostCustomDataResult(client: BlufiClient, status: Int, data: ByteArray?) {
+            complete(Operation.POST_CUSTOM_DATA, status, Unit)
+            callback?.onPostCustomDataResult(client, status, data)
+        }
+
+        override fun onReceiveCustomData(client: BlufiClient, status: Int, data: ByteArray?) {
+            if (status == STATUS_SUCCESS && data != null) {
+                customDataFlow.tryEmit(data)
+            }
+            callback?.onReceiveCustomData(client, status, data)
+        }
+
+        override fun onError(client: BlufiClient, errCode: Int) {
+            failAll(BlufiException(errCode, "Blufi error"))
+            callback?.onError(client, errCode)
+        }
+    }
+
+    private inner class InnerGattCallback : BluetoothGattCallback() {
+        override fun onConnectionStateChange(gatt: BluetoothGatt, status: Int, newState: Int) {
+            if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                failAll(BlufiException(BlufiException.CODE_DISCONNECTED, "Disconnected, status $status"))
+            }
+            gattCallback?.onConnectionStateChange(gatt, status, newState)
+        }
+
+        override fun onServicesDiscovered(gatt: BluetoothGatt, status: Int) {
+            gattCallback?.onServicesDiscovered(gatt, status)
+        }
+
+        override fun onMtuChanged(gatt: BluetoothGatt, mtu: Int, status: Int) {
+            gattCallback?.onMtuChanged(gatt, mtu, status)
+        }
+
+        @Deprecated("Deprecated in Java")
+        override fun onCharacteristicChanged(gatt: BluetoothGatt, characteristic: BluetoothGattCharacteristic) {
+            @Suppress("DEPRECATION")
+            gattCallback?.onCharacteristicChanged(gatt, characteristic)
+        }
+
+        override fun onCharacteristicWrite(gatt: BluetoothGatt, characteristic: BluetoothGattCharacteristic, status: Int) {
+            gattCallback?.onCharacteristicWrite(gatt, characteristic, status)
+        }
+    }
+}
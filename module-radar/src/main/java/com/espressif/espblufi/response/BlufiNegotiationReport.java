@@ -0,0 +1,148 @@
+package com.espressif.espblufi.response;
+
+import java.util.Locale;
+
+/**
+ * How long each phase of a security negotiation took
+ */
+public class BlufiNegotiationReport {
+    public enum Phase {
+        // Read the firmware version to choose the ready delay
+        VERSION,
+        // Try the session cached for the device
+        RESUME,
+        // Take a DH key pair
+        KEY_PAIR,
+        // Post the total length frame
+        LENGTH,
+        // Wait for the device to be ready for the DH parameters
+        DEVICE_READY,
+        // Post the DH parameters
+        PARAMETERS,
+        // Wait for the device public key
+        DEVICE_KEY,
+        // Compute the shared secret
+        SECRET,
+        // Post the security mode
+        SET_SECURITY
+    }
+
+    private final long[] mPhaseTimes = new long[Phase.values().length];
+
+    private int mStatus;
+    private String mFirmwareVersion;
+    private long mReadyDelay;
+    private boolean mReadyByAck;
+    private boolean mRetried;
+    private boolean mResumed;
+
+    public BlufiNegotiationReport() {
+        for (int i = 0; i < mPhaseTimes.length; i++) {
+            mPhaseTimes[i] = -1;
+        }
+    }
+
+    public int getStatus() {
+        return mStatus;
+    }
+
+    public void setStatus(int status) {
+        mStatus = status;
+    }
+
+    /**
+     * @return the firmware version the ready delay was chosen for, null if unknown
+     */
+    public String getFirmwareVersion() {
+        return mFirmwareVersion;
+    }
+
+    public void setFirmwareVersion(String firmwareVersion) {
+        mFirmwareVersion = firmwareVersion;
+    }
+
+    /**
+     * @return the longest time waited for the device to be ready after the length frame
+     */
+    public long getReadyDelay() {
+        return mReadyDelay;
+    }
+
+    public void setReadyDelay(long readyDelay) {
+        mReadyDelay = readyDelay;
+    }
+
+    /**
+     * @return true if the device acknowledged the length frame before the ready delay elapsed
+     */
+    public boolean isReadyByAck() {
+        return mReadyByAck;
+    }
+
+    public void setReadyByAck(boolean readyByAck) {
+        mReadyByAck = readyByAck;
+    }
+
+    /**
+     * @return true if the device public key did not arrive after the ready delay,
+     * and the DH parameters were posted again with a longer delay
+     */
+    public boolean isRetried() {
+        return mRetried;
+    }
+
+    public void setRetried(boolean retried) {
+        mRetried = retried;
+    }
+
+    /**
+     * @return true if the cached session was resumed and the DH exchange skipped
+     */
+    public boolean isResumed() {
+        return mResumed;
+    }
+
+    public void setResumed(boolean resumed) {
+        mResumed = resumed;
+    }
+
+    public void setPhaseTime(Phase phase, long millis) {
+        mPhaseTimes[phase.ordinal()] = millis;
+    }
+
+    /**
+     * @return the time of the phase in milliseconds, -1 if the phase did not run
+     */
+    public long getPhaseTime(Phase phase) {
+        return mPhaseTimes[phase.ordinal()];
+    }
+
+    public long getTotalTime() {
+        long total = 0;
+        for (long time : mPhaseTimes) {
+            if (time > 0) {
+                total += time;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("status=").append(mStatus)
+                .append(", version=").append(mFirmwareVersion)
+                .append(", readyDelay=").append(mReadyDelay)
+                .append(", readyByAck=").append(mReadyByAck)
+                .append(", retried=").append(mRetried)
+                .append(", resumed=").append(mResumed);
+        for (Phase phase : Phase.values()) {
+            long time = getPhaseTime(phase);
+            if (time >= 0) {
+                sb.append(String.format(Locale.ENGLISH, ", %s=%dms", phase.name(), time));
+            }
+        }
+        sb.append(", total=").append(getTotalTime()).append("ms");
+        return sb.toString();
+    }
+}
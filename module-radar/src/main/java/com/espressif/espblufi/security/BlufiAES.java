@@ -15,16 +15,14 @@ public class BlufiAES {
     private final byte[] mKey;
     private final byte[] mIV;
     private final String mTransformation;
-    private final Cipher mEncryptCipher;
-    private final Cipher mDecryptCipher;
+    // Created on first use, an instance usually only encrypts or only decrypts
+    private Cipher mEncryptCipher;
+    private Cipher mDecryptCipher;
 
     public BlufiAES(byte[] key, String transformation, byte[] iv) {
         mKey = key;
         mIV = iv;
         mTransformation = transformation;
-
-        mEncryptCipher = createEncryptCipher();
-        mDecryptCipher = createDecryptCipher();
     }
 
     private Cipher createEncryptCipher() {
@@ -69,6 +67,9 @@ public class BlufiAES {
     }
 
     public byte[] encrypt(byte[] content) {
+        if (mEncryptCipher == null) {
+            mEncryptCipher = createEncryptCipher();
+        }
         try {
             return mEncryptCipher.doFinal(content);
         } catch (BadPaddingException | IllegalBlockSizeException e) {
@@ -78,6 +79,9 @@ public class BlufiAES {
     }
 
     public byte[] decrypt(byte[] content) {
+        if (mDecryptCipher == null) {
+            mDecryptCipher = createDecryptCipher();
+        }
         try {
             return mDecryptCipher.doFinal(content);
         } catch (BadPaddingException | IllegalBlockSizeException e) {
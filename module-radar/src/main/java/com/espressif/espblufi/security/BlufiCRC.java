@@ -1,6 +1,14 @@
 package com.espressif.espblufi.security;
 
-public class BlufiCRC {
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * CRC16 of the Blufi frames, CCITT polynomial 0x1021 with the value inverted before and after.
+ * The static methods take the previous result as the initial value, so a CRC can be computed
+ * over several ranges by chaining the calls. An instance keeps the value between updates.
+ */
+public class BlufiCRC implements Checksum {
     private static final int[] CRC_TB = {
             0x0000, 0x1021, 0x2042, 0x3063, 0x4084, 0x50a5, 0x60c6, 0x70e7, 0x8108, 0x9129, 0xa14a, 0xb16b, 0xc18c, 0xd1ad, 0xe1ce, 0xf1ef,
             0x1231, 0x0210, 0x3273, 0x2252, 0x52b5, 0x4294, 0x72f7, 0x62d6, 0x9339, 0x8318, 0xb37b, 0xa35a, 0xd3bd, 0xc39c, 0xf3ff, 0xe3de,
@@ -20,12 +28,97 @@ public class BlufiCRC {
             0xef1f, 0xff3e, 0xcf5d, 0xdf7c, 0xaf9b, 0xbfba, 0x8fd9, 0x9ff8, 0x6e17, 0x7e36, 0x4e55, 0x5e74, 0x2e93, 0x3eb2, 0x0ed1, 0x1ef0
     };
 
+    // SLICE_TB[k * 256 + b] is the CRC register after byte b followed by k zero bytes
+    private static final int[] SLICE_TB = new int[8 * 256];
+
+    static {
+        System.arraycopy(CRC_TB, 0, SLICE_TB, 0, 256);
+        for (int k = 1; k < 8; k++) {
+            for (int b = 0; b < 256; b++) {
+                int prev = SLICE_TB[(k - 1) * 256 + b];
+                SLICE_TB[k * 256 + b] = (CRC_TB[prev >> 8] ^ (prev << 8)) & 0xffff;
+            }
+        }
+    }
+
+    private int mCRC;
+
     public static int calcCRC(int crc, byte[] pByte) {
-        crc = (~crc) & 0xffff;
-        for (byte aPByte : pByte) {
-            crc = CRC_TB[(crc >> 8) ^ (aPByte & 0xff)] ^ (crc << 8);
-            crc &= 0xffff;
+        return calcCRC(crc, pByte, 0, pByte.length);
+    }
+
+    public static int calcCRC(int crc, byte[] pByte, int offset, int length) {
+        return (~update((~crc) & 0xffff, pByte, offset, length)) & 0xffff;
+    }
+
+    /**
+     * Compute the CRC of the remaining bytes of the buffer, the position is advanced to the limit
+     */
+    public static int calcCRC(int crc, ByteBuffer buffer) {
+        int length = buffer.remaining();
+        if (buffer.hasArray()) {
+            int offset = buffer.arrayOffset() + buffer.position();
+            crc = calcCRC(crc, buffer.array(), offset, length);
+            buffer.position(buffer.limit());
+            return crc;
+        }
+
+        int reg = (~crc) & 0xffff;
+        for (int i = 0; i < length; i++) {
+            reg = (CRC_TB[(reg >> 8) ^ (buffer.get() & 0xff)] ^ (reg << 8)) & 0xffff;
+        }
+        return (~reg) & 0xffff;
+    }
+
+    /**
+     * Update the non-inverted CRC register, eight bytes per step with the slice tables
+     */
+    private static int update(int reg, byte[] bytes, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        for (int sliceEnd = end - 7; i < sliceEnd; i += 8) {
+            reg = SLICE_TB[7 * 256 + ((reg >> 8) ^ (bytes[i] & 0xff))]
+                    ^ SLICE_TB[6 * 256 + ((reg ^ bytes[i + 1]) & 0xff)]
+                    ^ SLICE_TB[5 * 256 + (bytes[i + 2] & 0xff)]
+                    ^ SLICE_TB[4 * 256 + (bytes[i + 3] & 0xff)]
+                    ^ SLICE_TB[3 * 256 + (bytes[i + 4] & 0xff)]
+                    ^ SLICE_TB[2 * 256 + (bytes[i + 5] & 0xff)]
+                    ^ SLICE_TB[256 + (bytes[i + 6] & 0xff)]
+                    ^ CRC_TB[bytes[i + 7] & 0xff];
+        }
+        for (; i < end; i++) {
+            reg = (CRC_TB[(reg >> 8) ^ (bytes[i] & 0xff)] ^ (reg << 8)) & 0xffff;
         }
-        return (~crc) & 0xffff;
+        return reg;
+    }
+
+    @Override
+    public void update(int b) {
+        int reg = (~mCRC) & 0xffff;
+        reg = (CRC_TB[(reg >> 8) ^ (b & 0xff)] ^ (reg << 8)) & 0xffff;
+        mCRC = (~reg) & 0xffff;
+    }
+
+    public void update(byte[] b) {
+        update(b, 0, b.length);
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        mCRC = calcCRC(mCRC, b, off, len);
+    }
+
+    public void update(ByteBuffer buffer) {
+        mCRC = calcCRC(mCRC, buffer);
+    }
+
+    @Override
+    public long getValue() {
+        return mCRC;
+    }
+
+    @Override
+    public void reset() {
+        mCRC = 0;
     }
 }
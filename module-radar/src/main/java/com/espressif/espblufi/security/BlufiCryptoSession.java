@@ -0,0 +1,94 @@
+package com.espressif.espblufi.security;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AES ciphers of one negotiated BluFi session.
+ * The ciphers are created once with the session key, each frame only re-initializes them
+ * with the IV of its sequence, and the data is processed in place.
+ */
+public class BlufiCryptoSession {
+    private static final int IV_LENGTH = 16;
+
+    private final SecretKeySpec mKeySpec;
+    private final Cipher mEncryptCipher;
+    private final Cipher mDecryptCipher;
+
+    private final byte[] mEncryptIV = new byte[IV_LENGTH];
+    private final byte[] mDecryptIV = new byte[IV_LENGTH];
+
+    public BlufiCryptoSession(byte[] key, String transformation) throws GeneralSecurityException {
+        mKeySpec = new SecretKeySpec(key, "AES");
+        mEncryptCipher = Cipher.getInstance(transformation);
+        mDecryptCipher = Cipher.getInstance(transformation);
+    }
+
+    /**
+     * Encrypt the data in place
+     *
+     * @return false if encrypt failed
+     */
+    public boolean encrypt(int sequence, byte[] data, int offset, int length) {
+        synchronized (mEncryptCipher) {
+            return doFinal(mEncryptCipher, Cipher.ENCRYPT_MODE, mEncryptIV, sequence, data, offset, length, data, offset);
+        }
+    }
+
+    /**
+     * Decrypt the data in place
+     *
+     * @return false if decrypt failed
+     */
+    public boolean decrypt(int sequence, byte[] data, int offset, int length) {
+        synchronized (mDecryptCipher) {
+            return doFinal(mDecryptCipher, Cipher.DECRYPT_MODE, mDecryptIV, sequence, data, offset, length, data, offset);
+        }
+    }
+
+    /**
+     * Decrypt the input into the output, the input is not changed
+     *
+     * @return false if decrypt failed
+     */
+    public boolean decrypt(int sequence, byte[] input, int inputOffset, int length, byte[] output, int outputOffset) {
+        synchronized (mDecryptCipher) {
+            return doFinal(mDecryptCipher, Cipher.DECRYPT_MODE, mDecryptIV, sequence,
+                    input, inputOffset, length, output, outputOffset);
+        }
+    }
+
+    /**
+     * @return a new encrypted array, the content is not changed. Null if encrypt failed
+     */
+    public byte[] encrypt(int sequence, byte[] content) {
+        byte[] result = content.clone();
+        return encrypt(sequence, result, 0, result.length) ? result : null;
+    }
+
+    /**
+     * @return a new decrypted array, the content is not changed. Null if decrypt failed
+     */
+    public byte[] decrypt(int sequence, byte[] content) {
+        byte[] result = content.clone();
+        return decrypt(sequence, result, 0, result.length) ? result : null;
+    }
+
+    private boolean doFinal(Cipher cipher, int mode, byte[] iv, int sequence,
+                            byte[] input, int inputOffset, int length, byte[] output, int outputOffset) {
+        // The IV is all zero except the first byte, which is the frame sequence
+        iv[0] = (byte) sequence;
+        try {
+            cipher.init(mode, mKeySpec, new IvParameterSpec(iv));
+            cipher.doFinal(input, inputOffset, length, output, outputOffset);
+            return true;
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,93 @@
+package com.espressif.espblufi.security;
+
+import android.util.Log;
+
+import java.math.BigInteger;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates BlufiDH key pairs in the background, so that negotiating security
+ * does not have to wait for the key generation.
+ * Every key pair is handed out only once.
+ */
+public class BlufiDHPool {
+    private static final String TAG = "BlufiDHPool";
+
+    private final BigInteger mP;
+    private final BigInteger mG;
+    private final int mLength;
+    private final int mCapacity;
+
+    private final LinkedBlockingQueue<BlufiDH> mKeys;
+    private final AtomicInteger mGenerating;
+    private final ExecutorService mExecutor;
+
+    public BlufiDHPool(BigInteger p, BigInteger g, int length, int capacity) {
+        mP = p;
+        mG = g;
+        mLength = length;
+        mCapacity = Math.max(1, capacity);
+
+        mKeys = new LinkedBlockingQueue<>();
+        mGenerating = new AtomicInteger(0);
+        mExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+    }
+
+    /**
+     * Start generating key pairs until the pool is full
+     */
+    public void prefill() {
+        while (mKeys.size() + mGenerating.get() < mCapacity) {
+            mGenerating.incrementAndGet();
+            mExecutor.execute(() -> {
+                try {
+                    mKeys.add(generate());
+                } finally {
+                    mGenerating.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    /**
+     * Take a generated key pair, or generate one in the calling thread if the pool is empty.
+     * The pool is refilled in the background.
+     */
+    public BlufiDH take() {
+        BlufiDH result = mKeys.poll();
+        prefill();
+        if (result == null) {
+            Log.d(TAG, "Pool is empty, generate key pair now");
+            result = generate();
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of key pairs ready to be taken
+     */
+    public int size() {
+        return mKeys.size();
+    }
+
+    private BlufiDH generate() {
+        while (true) {
+            try {
+                BlufiDH blufiDH = new BlufiDH(mP, mG, mLength);
+                if (blufiDH.getPublicKey() != null) {
+                    return blufiDH;
+                }
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Generate key pair failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.espressif.espblufi.security;
+
+import android.os.SystemClock;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keeps the AES keys negotiated with devices for a short time, so that a reconnect to the same
+ * device can try to resume the session instead of running the DH exchange again.
+ * Entries are keyed by the device MAC and firmware version, and only live in memory.
+ */
+public class BlufiSessionCache {
+    public static final long DEFAULT_TTL = 5 * 60 * 1000L;
+
+    private final long mTTL;
+    private final Map<String, Entry> mEntries = new HashMap<>();
+
+    public BlufiSessionCache() {
+        this(DEFAULT_TTL);
+    }
+
+    /**
+     * @param ttl how long a session can be resumed after it was negotiated, in milliseconds
+     */
+    public BlufiSessionCache(long ttl) {
+        mTTL = ttl;
+    }
+
+    public synchronized void put(String mac, String version, byte[] key, boolean ctrlEncrypted,
+                                 boolean ctrlChecksum, boolean dataEncrypted, boolean dataChecksum) {
+        Entry entry = new Entry(key.clone(), ctrlEncrypted, ctrlChecksum, dataEncrypted, dataChecksum,
+                SystemClock.elapsedRealtime() + mTTL);
+        Entry old = mEntries.put(key(mac, version), entry);
+        if (old != null) {
+            old.destroy();
+        }
+    }
+
+    /**
+     * @return the entry if it has not expired, null otherwise
+     */
+    public synchronized Entry get(String mac, String version) {
+        evictExpired();
+        return mEntries.get(key(mac, version));
+    }
+
+    public synchronized void remove(String mac, String version) {
+        Entry entry = mEntries.remove(key(mac, version));
+        if (entry != null) {
+            entry.destroy();
+        }
+    }
+
+    public synchronized void clear() {
+        for (Entry entry : mEntries.values()) {
+            entry.destroy();
+        }
+        mEntries.clear();
+    }
+
+    private void evictExpired() {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.mExpireTime <= now) {
+                entry.destroy();
+                iterator.remove();
+            }
+        }
+    }
+
+    private static String key(String mac, String version) {
+        return (mac == null ? "" : mac.toUpperCase(Locale.ENGLISH)) + "/" + version;
+    }
+
+    public static class Entry {
+        private final byte[] mKey;
+        private final boolean mCtrlEncrypted;
+        private final boolean mCtrlChecksum;
+        private final boolean mDataEncrypted;
+        private final boolean mDataChecksum;
+        private final long mExpireTime;
+
+        private Entry(byte[] key, boolean ctrlEncrypted, boolean ctrlChecksum, boolean dataEncrypted,
+                      boolean dataChecksum, long expireTime) {
+            mKey = key;
+            mCtrlEncrypted = ctrlEncrypted;
+            mCtrlChecksum = ctrlChecksum;
+            mDataEncrypted = dataEncrypted;
+            mDataChecksum = dataChecksum;
+            mExpireTime = expireTime;
+        }
+
+        /**
+         * @return a copy of the AES key
+         */
+        public byte[] getKey() {
+            return mKey.clone();
+        }
+
+        public boolean isCtrlEncrypted() {
+            return mCtrlEncrypted;
+        }
+
+        public boolean isCtrlChecksum() {
+            return mCtrlChecksum;
+        }
+
+        public boolean isDataEncrypted() {
+            return mDataEncrypted;
+        }
+
+        public boolean isDataChecksum() {
+            return mDataChecksum;
+        }
+
+        private void destroy() {
+            Arrays.fill(mKey, (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.espressif.espblufi;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Arms, ACKs and waits on {@link BlufiAckTracker} slots from several threads.
+ */
+public class BlufiAckTrackerTest {
+    private static final long TIMEOUT = 2000L;
+
+    private final BlufiAckTracker mTracker = new BlufiAckTracker();
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void ackBeforeAwaitIsMatched() throws Exception {
+        // The ACK arrives before the write callback returns and before anyone waits
+        mTracker.arm(7);
+        mTracker.onAck(7);
+
+        assertTrue(mTracker.isAcked(7));
+        assertTrue(mTracker.await(7, 0));
+        assertFalse(mTracker.isAcked(7));
+    }
+
+    @Test
+    public void ackWakesWaiter() throws Exception {
+        mTracker.arm(1);
+        Future<Boolean> acked = awaitAsync(1, TIMEOUT);
+
+        mTracker.onAck(1);
+        assertTrue(acked.get(TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void acksCompleteInAnyOrder() throws Exception {
+        int[] sequences = {254, 255, 0, 1, 2};
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int sequence : sequences) {
+            mTracker.arm(sequence);
+            results.add(awaitAsync(sequence, TIMEOUT));
+        }
+
+        // Every waiter gets its own ACK whatever the order
+        for (int i = sequences.length - 1; i >= 0; i--) {
+            mTracker.onAck(sequences[i]);
+            assertTrue(results.get(i).get(TIMEOUT, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    public void unarmedAckIsIgnored() throws Exception {
+        mTracker.onAck(3);
+        assertFalse(mTracker.isAcked(3));
+
+        mTracker.arm(3);
+        mTracker.disarm(3);
+        mTracker.onAck(3);
+        assertFalse(mTracker.isAcked(3));
+        assertFalse(mTracker.await(3, TIMEOUT));
+
+        // Out of range sequences
+        mTracker.onAck(-1);
+        mTracker.onAck(256);
+    }
+
+    @Test
+    public void timeoutKeepsSlotArmed() throws Exception {
+        mTracker.arm(9);
+        long start = System.nanoTime();
+        assertFalse(mTracker.await(9, 50));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50);
+
+        // A late ACK is still matched
+        mTracker.onAck(9);
+        assertTrue(mTracker.await(9, 0));
+    }
+
+    @Test
+    public void closeWakesWaiters() throws Exception {
+        CountDownLatch parked = new CountDownLatch(2);
+        mTracker.arm(4);
+        mTracker.arm(5);
+        Future<Boolean> first = mExecutor.submit(() -> {
+            parked.countDown();
+            return mTracker.await(4, TimeUnit.MINUTES.toMillis(1));
+        });
+        Future<Boolean> second = mExecutor.submit(() -> {
+            parked.countDown();
+            return mTracker.await(5, TimeUnit.MINUTES.toMillis(1));
+        });
+        assertTrue(parked.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        Thread.sleep(50);
+
+        mTracker.close();
+        assertFalse(first.get(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertFalse(second.get(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        // No ACK is matched after close
+        mTracker.onAck(4);
+        assertFalse(mTracker.isAcked(4));
+    }
+
+    @Test(expected = InterruptedException.class)
+    public void interruptStopsWaiting() throws Exception {
+        mTracker.arm(6);
+        Thread.currentThread().interrupt();
+        mTracker.await(6, TIMEOUT);
+    }
+
+    private Future<Boolean> awaitAsync(int sequence, long timeout) {
+        return mExecutor.submit(() -> mTracker.await(sequence, timeout));
+    }
+}
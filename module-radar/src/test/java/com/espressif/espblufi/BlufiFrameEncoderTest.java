@@ -0,0 +1,211 @@
+package com.espressif.espblufi;
+
+import com.espressif.espblufi.params.BlufiParameter;
+import com.espressif.espblufi.security.BlufiAES;
+import com.espressif.espblufi.security.BlufiCRC;
+import com.espressif.espblufi.security.BlufiCryptoSession;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Encodes frames with {@link BlufiFrameEncoder}, compares them with the layout of the former
+ * getPostBytes and decodes them back with {@link BlufiFrameDecoder}.
+ */
+public class BlufiFrameEncoderTest {
+    private static final String AES_TRANSFORMATION = "AES/CFB/NoPadding";
+    private static final int TYPE = 0x4d; // Data, custom data
+    private static final int DATA_LIMIT = 16;
+
+    private final Random mRandom = new Random(5);
+    private byte[] mKey;
+    private BlufiFrameEncoder mEncoder;
+
+    @Before
+    public void setUp() throws Exception {
+        mKey = new byte[16];
+        mRandom.nextBytes(mKey);
+        mEncoder = new BlufiFrameEncoder();
+        mEncoder.setCryptoSession(new BlufiCryptoSession(mKey, AES_TRANSFORMATION));
+    }
+
+    @Test
+    public void plainFrameMatchesLegacyLayout() {
+        assertFramesMatchLegacy(randomBytes(12), false, false);
+    }
+
+    @Test
+    public void emptyFrameMatchesLegacyLayout() {
+        byte[] frame = mEncoder.encode(TYPE, false, true, true, 3, null, 0, 0, -1);
+        assertArrayEquals(legacyPostBytes(TYPE, false, true, true, false, 3, null), frame);
+    }
+
+    @Test
+    public void checksumFrameMatchesLegacyLayout() {
+        assertFramesMatchLegacy(randomBytes(12), false, true);
+    }
+
+    @Test
+    public void encryptedFrameMatchesLegacyLayout() {
+        assertFramesMatchLegacy(randomBytes(12), true, true);
+    }
+
+    @Test
+    public void fragmentsMatchLegacyLayout() {
+        assertFramesMatchLegacy(randomBytes(100), false, true);
+        assertFramesMatchLegacy(randomBytes(100), true, false);
+        assertFramesMatchLegacy(randomBytes(100), true, true);
+    }
+
+    @Test
+    public void fragmentCarriesRemainingLength() {
+        byte[] data = randomBytes(600);
+        byte[] frame = mEncoder.encode(TYPE, false, false, false, 0, data, 100, 200, data.length - 100);
+
+        assertEquals(200 + BlufiFrameEncoder.FRAG_LENGTH, frame[3] & 0xff);
+        assertEquals(500, (frame[4] & 0xff) | (frame[5] & 0xff) << 8);
+        assertArrayEquals(Arrays.copyOfRange(data, 100, 300), Arrays.copyOfRange(frame, 6, frame.length));
+        assertEquals(BlufiFrameEncoder.getFrameLength(false, true, 200), frame.length);
+    }
+
+    @Test
+    public void fragmentsDecodeToTheOriginalData() throws Exception {
+        BlufiCryptoSession deviceSession = new BlufiCryptoSession(mKey, AES_TRANSFORMATION);
+        for (int length : new int[]{1, DATA_LIMIT, DATA_LIMIT + 1, 100, 1000}) {
+            for (boolean encrypt : new boolean[]{false, true}) {
+                for (boolean checksum : new boolean[]{false, true}) {
+                    byte[] data = randomBytes(length);
+                    BlufiFrameDecoder decoder = new BlufiFrameDecoder();
+                    BlufiNotifyData notification = new BlufiNotifyData(new BlufiBufferPool());
+
+                    int result = BlufiFrameDecoder.RESULT_FRAGMENT;
+                    int sequence = 0;
+                    int offset = 0;
+                    while (offset < data.length) {
+                        int remain = data.length - offset;
+                        int read = Math.min(DATA_LIMIT, remain);
+                        boolean frag = read < remain;
+                        byte[] frame = mEncoder.encode(TYPE, encrypt, checksum, false, sequence++,
+                                data, offset, read, frag ? remain : -1);
+                        assertNotNull(frame);
+                        offset += read;
+
+                        result = decoder.decode(frame.clone(), deviceSession, notification);
+                        assertEquals(frag ? BlufiFrameDecoder.RESULT_FRAGMENT : BlufiFrameDecoder.RESULT_COMPLETE,
+                                result);
+                    }
+
+                    assertEquals(BlufiFrameDecoder.RESULT_COMPLETE, result);
+                    assertEquals(TYPE, notification.getType());
+                    assertArrayEquals(data, Arrays.copyOf(notification.getDataArray(), notification.getDataLength()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void decoderRejectsCorruptedChecksum() {
+        byte[] frame = mEncoder.encode(TYPE, false, true, false, 0, randomBytes(10), 0, 10, -1).clone();
+        frame[5] ^= 0x01;
+
+        BlufiNotifyData notification = new BlufiNotifyData(new BlufiBufferPool());
+        assertEquals(BlufiFrameDecoder.ERR_CHECKSUM, new BlufiFrameDecoder().decode(frame, null, notification));
+    }
+
+    @Test
+    public void decoderRejectsShortData() {
+        byte[] frame = mEncoder.encode(TYPE, false, false, false, 0, randomBytes(10), 0, 10, -1);
+        byte[] truncated = Arrays.copyOf(frame, frame.length - 1);
+
+        BlufiNotifyData notification = new BlufiNotifyData(new BlufiBufferPool());
+        assertEquals(BlufiFrameDecoder.ERR_DATA_LENGTH, new BlufiFrameDecoder().decode(truncated, null, notification));
+    }
+
+    /**
+     * Split the data the way postContainData does and compare every frame with the legacy layout
+     */
+    private void assertFramesMatchLegacy(byte[] data, boolean encrypt, boolean checksum) {
+        int sequence = 0;
+        int offset = 0;
+        while (offset < data.length) {
+            int remain = data.length - offset;
+            int read = Math.min(DATA_LIMIT, remain);
+            boolean frag = read < remain;
+
+            byte[] content;
+            if (frag) {
+                content = new byte[read + 2];
+                content[0] = (byte) (remain & 0xff);
+                content[1] = (byte) (remain >> 8 & 0xff);
+                System.arraycopy(data, offset, content, 2, read);
+            } else {
+                content = Arrays.copyOfRange(data, offset, offset + read);
+            }
+
+            byte[] expected = legacyPostBytes(TYPE, encrypt, checksum, true, frag, sequence, content);
+            byte[] actual = mEncoder.encode(TYPE, encrypt, checksum, true, sequence, data, offset, read,
+                    frag ? remain : -1);
+            assertArrayEquals("sequence " + sequence, expected, actual);
+
+            offset += read;
+            sequence++;
+        }
+    }
+
+    /**
+     * The frame layout of the former BlufiClientImpl.getPostBytes
+     */
+    private byte[] legacyPostBytes(int type, boolean encrypt, boolean checksum, boolean requireAck,
+                                   boolean hasFrag, int sequence, byte[] data) {
+        ByteArrayOutputStream byteOS = new ByteArrayOutputStream();
+
+        int dataLength = data == null ? 0 : data.length;
+        int frameCtrl = FrameCtrlData.getFrameCTRLValue(encrypt, checksum, BlufiParameter.DIRECTION_OUTPUT,
+                requireAck, hasFrag);
+
+        byteOS.write(type);
+        byteOS.write(frameCtrl);
+        byteOS.write(sequence);
+        byteOS.write(dataLength);
+
+        byte[] checksumBytes = null;
+        if (checksum) {
+            byte[] willCheckBytes = new byte[]{(byte) sequence, (byte) dataLength};
+            int crc = BlufiCRC.calcCRC(0, willCheckBytes);
+            if (dataLength > 0) {
+                crc = BlufiCRC.calcCRC(crc, data);
+            }
+            checksumBytes = new byte[]{(byte) (crc & 0xff), (byte) (crc >> 8 & 0xff)};
+        }
+
+        if (encrypt && data != null && data.length > 0) {
+            byte[] iv = new byte[16];
+            iv[0] = (byte) sequence;
+            data = new BlufiAES(mKey, AES_TRANSFORMATION, iv).encrypt(data);
+        }
+        if (data != null) {
+            byteOS.write(data, 0, data.length);
+        }
+
+        if (checksumBytes != null) {
+            byteOS.write(checksumBytes[0]);
+            byteOS.write(checksumBytes[1]);
+        }
+
+        return byteOS.toByteArray();
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] result = new byte[length];
+        mRandom.nextBytes(result);
+        return result;
+    }
+}
@@ -0,0 +1,153 @@
+package com.espressif.espblufi.security;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the slice-by-8, ByteBuffer and streaming paths of {@link BlufiCRC} with the former
+ * byte-wise calcCRC.
+ */
+public class BlufiCRCTest {
+    private static final int MAX_LENGTH = 4096;
+    private static final int ROUNDS = 200;
+
+    private static final int[] LEGACY_TB = new int[256];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            int reg = b << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                reg = (reg & 0x8000) != 0 ? (reg << 1) ^ 0x1021 : reg << 1;
+            }
+            LEGACY_TB[b] = reg & 0xffff;
+        }
+    }
+
+    private final Random mRandom = new Random(15);
+
+    @Test
+    public void knownValue() {
+        byte[] data = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0xd64e, legacyCRC(0, data, 0, data.length));
+        assertEquals(0xd64e, BlufiCRC.calcCRC(0, data));
+    }
+
+    @Test
+    public void arrayMatchesLegacy() {
+        for (int length = 0; length <= 64; length++) {
+            byte[] data = randomBytes(length);
+            assertEquals("length " + length, legacyCRC(0, data, 0, length), BlufiCRC.calcCRC(0, data));
+        }
+        for (int round = 0; round < ROUNDS; round++) {
+            byte[] data = randomBytes(mRandom.nextInt(MAX_LENGTH + 1));
+            int crc = mRandom.nextInt(0x10000);
+            assertEquals(legacyCRC(crc, data, 0, data.length), BlufiCRC.calcCRC(crc, data));
+        }
+    }
+
+    @Test
+    public void rangeMatchesLegacy() {
+        for (int round = 0; round < ROUNDS; round++) {
+            byte[] data = randomBytes(mRandom.nextInt(MAX_LENGTH + 1));
+            int offset = mRandom.nextInt(data.length + 1);
+            int length = mRandom.nextInt(data.length - offset + 1);
+            int crc = mRandom.nextInt(0x10000);
+            assertEquals("offset " + offset + ", length " + length,
+                    legacyCRC(crc, data, offset, length), BlufiCRC.calcCRC(crc, data, offset, length));
+        }
+    }
+
+    @Test
+    public void byteBufferMatchesLegacy() {
+        for (int round = 0; round < ROUNDS; round++) {
+            byte[] data = randomBytes(mRandom.nextInt(MAX_LENGTH + 1));
+            int offset = mRandom.nextInt(data.length + 1);
+            int length = mRandom.nextInt(data.length - offset + 1);
+            int expected = legacyCRC(0, data, offset, length);
+
+            // A heap buffer sliced from the middle of its array has a non-zero array offset
+            ByteBuffer heap = ByteBuffer.wrap(data, offset, length).slice();
+            assertEquals(expected, BlufiCRC.calcCRC(0, heap));
+            assertEquals(heap.limit(), heap.position());
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(length);
+            direct.put(data, offset, length).flip();
+            assertEquals(expected, BlufiCRC.calcCRC(0, direct));
+            assertEquals(direct.limit(), direct.position());
+        }
+    }
+
+    @Test
+    public void streamingMatchesLegacy() {
+        for (int round = 0; round < ROUNDS; round++) {
+            byte[] data = randomBytes(mRandom.nextInt(MAX_LENGTH + 1));
+            int expected = legacyCRC(0, data, 0, data.length);
+
+            BlufiCRC checksum = new BlufiCRC();
+            int offset = 0;
+            int chunk = 0;
+            while (offset < data.length) {
+                int length = Math.min(mRandom.nextInt(64), data.length - offset);
+                // Alternate the update overloads
+                switch (chunk++ % 4) {
+                    case 0:
+                        checksum.update(data, offset, length);
+                        break;
+                    case 1:
+                        for (int i = offset; i < offset + length; i++) {
+                            checksum.update(data[i]);
+                        }
+                        break;
+                    case 2:
+                        checksum.update(ByteBuffer.wrap(data, offset, length));
+                        break;
+                    default:
+                        ByteBuffer direct = ByteBuffer.allocateDirect(length);
+                        direct.put(data, offset, length).flip();
+                        checksum.update(direct);
+                        break;
+                }
+                offset += length;
+            }
+            assertEquals("length " + data.length, expected, checksum.getValue());
+
+            checksum.reset();
+            checksum.update(data);
+            assertEquals(expected, checksum.getValue());
+        }
+    }
+
+    @Test
+    public void chainedRangesMatchWhole() {
+        byte[] data = randomBytes(MAX_LENGTH);
+        int expected = legacyCRC(0, data, 0, data.length);
+        for (int split : new int[]{0, 1, 7, 8, 9, 100, 2047, MAX_LENGTH}) {
+            int crc = BlufiCRC.calcCRC(0, data, 0, split);
+            crc = BlufiCRC.calcCRC(crc, data, split, data.length - split);
+            assertEquals("split " + split, expected, crc);
+        }
+    }
+
+    /**
+     * The former byte-wise BlufiCRC.calcCRC, extended with a range
+     */
+    private static int legacyCRC(int crc, byte[] pByte, int offset, int length) {
+        crc = (~crc) & 0xffff;
+        for (int i = offset; i < offset + length; i++) {
+            crc = LEGACY_TB[(crc >> 8) ^ (pByte[i] & 0xff)] ^ (crc << 8);
+            crc &= 0xffff;
+        }
+        return (~crc) & 0xffff;
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] result = new byte[length];
+        mRandom.nextBytes(result);
+        return result;
+    }
+}
@@ -20,4 +20,5 @@ rootProject.name = "bleconfig"
 include(":libs")
 include(":app")
 include(":module-radar")
-include(":module-sleepace")
\ No newline at end of file
+include(":module-sleepace")
+include(":module-benchmark")
\ No newline at end of file